@@ -0,0 +1,31 @@
+#!/bin/bash
+# Builds a static AppCDS archive with the classes loaded by gen, sign and verify.
+# Needs a JDK 11 or newer at run time.
+#
+#   scripts/appcds.sh target/pnkdss-1.0-SNAPSHOT-thin.jar target/pnkdss.jsa
+#
+# Start the CLI with the same class path and the archive:
+#
+#   java -XX:SharedArchiveFile=target/pnkdss.jsa -cp target/pnkdss-1.0-SNAPSHOT-thin.jar \
+#       com.github.luk.pnkdss.PnkdssApplication verify -s signed.xml -c cert.pem
+set -euo pipefail
+
+JAR=$1
+ARCHIVE=$2
+MAIN=${MAIN_CLASS:-com.github.luk.pnkdss.PnkdssApplication}
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+# one class list per command, the archive covers their union
+train() {
+	java -Xshare:off -XX:DumpLoadedClassList="$WORK/run.lst" -cp "$JAR" "$MAIN" "$@" > /dev/null
+	cat "$WORK/run.lst" >> "$WORK/classes.lst"
+}
+
+train gen -d "$WORK/document.xml" -k "$WORK/keystore.p12" -p "$WORK/password.txt"
+train sign -d "$WORK/document.xml" -s "$WORK/signed.xml" -k "$WORK/keystore.p12" -p "$WORK/password.txt"
+train verify -s "$WORK/signed.xml" -c "$WORK/certificate.pem"
+
+sort -u "$WORK/classes.lst" -o "$WORK/classes.lst"
+java -Xshare:dump -XX:SharedClassListFile="$WORK/classes.lst" -XX:SharedArchiveFile="$ARCHIVE" -cp "$JAR"
+echo "AppCDS archive with $(wc -l < "$WORK/classes.lst") classes written to $ARCHIVE"
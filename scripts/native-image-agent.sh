@@ -0,0 +1,33 @@
+#!/bin/bash
+# Runs gen, sign, verify and extend with the GraalVM tracing agent and merges
+# the reflection, resource and proxy configuration they need into a
+# native-image configuration directory. Needs a GraalVM JDK. The native
+# profile runs it before the image is built:
+#
+#   mvn -P native package
+#
+# Run by hand, it traces a jar or class path and merges into
+# src/main/resources/META-INF/native-image, or into NATIVE_IMAGE_CONFIG:
+#
+#   scripts/native-image-agent.sh target/pnkdss-1.0-SNAPSHOT-thin.jar
+set -euo pipefail
+
+CLASSPATH=$1
+MAIN=${MAIN_CLASS:-com.github.luk.pnkdss.PnkdssCli}
+JAVA=${JAVA:-java}
+CONFIG=${NATIVE_IMAGE_CONFIG:-$(dirname "$0")/../src/main/resources/META-INF/native-image/com.github.luk/pnkdss}
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+mkdir -p "$CONFIG"
+
+trace() {
+	"$JAVA" -agentlib:native-image-agent=config-merge-dir="$CONFIG" -cp "$CLASSPATH" "$MAIN" "$@" > /dev/null
+}
+
+trace gen -d "$WORK/document.xml" -k "$WORK/keystore.p12" -p "$WORK/password.txt"
+trace sign -d "$WORK/document.xml" -s "$WORK/signed.xml" -k "$WORK/keystore.p12" -p "$WORK/password.txt"
+trace verify -s "$WORK/signed.xml" -c "$WORK/certificate.pem" --detailed-report "$WORK/report.xml"
+trace extend -s "$WORK/signed.xml" -e "$WORK/extended.xml" --local-tsa
+trace verify -s "$WORK/extended.xml" -c "$WORK/certificate.pem"
+echo "Merged native-image configuration into $CONFIG"
@@ -0,0 +1,64 @@
+#!/bin/bash
+# Compares cold start times of sign and verify: the Spring Boot fat jar, the
+# Spring-free launcher, the thin jar with the AppCDS archive and, if built,
+# the native image.
+#
+#   mvn -P appcds package && scripts/startup-benchmark.sh [runs]
+#
+# Every run is a new JVM (or process), the median wall time is reported as a
+# Markdown table, the format of the table in the README.
+set -euo pipefail
+
+RUNS=${1:-10}
+TARGET=${TARGET:-target}
+VERSION=${VERSION:-1.0-SNAPSHOT}
+FAT_JAR=$TARGET/pnkdss-$VERSION.jar
+THIN_JAR=$TARGET/pnkdss-$VERSION-thin.jar
+ARCHIVE=$TARGET/pnkdss.jsa
+NATIVE=$TARGET/pnkdss
+MAIN=com.github.luk.pnkdss.PnkdssApplication
+LAUNCHER=com.github.luk.pnkdss.PnkdssCli
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+java -jar "$FAT_JAR" gen -d "$WORK/document.xml" -k "$WORK/keystore.p12" -p "$WORK/password.txt" > /dev/null
+java -jar "$FAT_JAR" sign -d "$WORK/document.xml" -s "$WORK/signed.xml" -k "$WORK/keystore.p12" -p "$WORK/password.txt" > /dev/null
+
+median() {
+	sort -n | awk '{ v[NR] = $1 } END { print (NR % 2) ? v[(NR + 1) / 2] : int((v[NR / 2] + v[NR / 2 + 1]) / 2) }'
+}
+
+# measure <label> <command...>; the CLI arguments are appended
+measure() {
+	local label=$1
+	shift
+	local command
+	for command in sign verify; do
+		local times=()
+		for ((i = 0; i < RUNS; i++)); do
+			local args
+			if [ "$command" = sign ]; then
+				args=(sign -d "$WORK/document.xml" -s "$WORK/out.xml" -k "$WORK/keystore.p12" -p "$WORK/password.txt")
+			else
+				args=(verify -s "$WORK/signed.xml" -c "$WORK/certificate.pem")
+			fi
+			local start=$(date +%s%N)
+			"$@" "${args[@]}" > /dev/null
+			times+=($(( ($(date +%s%N) - start) / 1000000 )))
+		done
+		printf '| %-10s | %-7s | %6s ms |\n' "$label" "$command" "$(printf '%s\n' "${times[@]}" | median)"
+	done
+}
+
+echo "Median cold start of $RUNS runs"
+echo
+echo "| Entry      | Command | Median    |"
+echo "|------------|---------|-----------|"
+measure fat-jar java -jar "$FAT_JAR"
+measure launcher java -cp "$FAT_JAR" -Dloader.main="$LAUNCHER" org.springframework.boot.loader.PropertiesLauncher
+if [ -f "$THIN_JAR" ] && [ -f "$ARCHIVE" ]; then
+	measure appcds java -XX:SharedArchiveFile="$ARCHIVE" -Xshare:auto -cp "$THIN_JAR" "$MAIN"
+fi
+if [ -x "$NATIVE" ]; then
+	measure native "$NATIVE"
+fi
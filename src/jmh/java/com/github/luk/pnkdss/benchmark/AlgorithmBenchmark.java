@@ -0,0 +1,79 @@
+package com.github.luk.pnkdss.benchmark;
+
+import com.github.luk.pnkdss.utils.Generator;
+import com.github.luk.pnkdss.utils.SignatureResult;
+import com.github.luk.pnkdss.utils.SigningProfile;
+import com.github.luk.pnkdss.utils.SigningSession;
+import com.github.luk.pnkdss.utils.ValidationMode;
+import com.github.luk.pnkdss.utils.VerificationSession;
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.enumerations.EncryptionAlgorithm;
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.InMemoryDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sign and verify throughput by signature algorithm, on a small document so
+ * the key operation dominates. Verification checks the signature only, the
+ * signed document size is printed at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AlgorithmBenchmark {
+
+    @Param({"RSA-2048", "RSA-3072", "RSASSA-PSS-2048", "EC-256", "EC-384", "Ed25519"})
+    private String key;
+
+    private byte[] document;
+    private byte[] signed;
+    private SigningSession session;
+    private VerificationSession verification;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SigningProfile profile = key.startsWith("RSASSA-PSS")
+                ? SigningProfile.DEFAULT.withAlgorithms(DigestAlgorithm.SHA256, EncryptionAlgorithm.RSASSA_PSS)
+                : SigningProfile.DEFAULT;
+        document = BenchmarkSupport.envelope(1024);
+        session = new SigningSession(new ByteArrayInputStream(BenchmarkSupport.keystore(key)),
+                Generator.DEFAULT_PASSWORD.toCharArray(), profile);
+        signed = session.sign(new ByteArrayInputStream(document)).getBytes(StandardCharsets.UTF_8);
+        verification = new VerificationSession();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        session.close();
+        verification.close();
+    }
+
+    @Benchmark
+    public DSSDocument sign() {
+        return session.signDocument(new InMemoryDocument(document));
+    }
+
+    @Benchmark
+    public SignatureResult verify() {
+        return verification.checkDocument(new InMemoryDocument(signed), ValidationMode.SIGNATURE_ONLY);
+    }
+}
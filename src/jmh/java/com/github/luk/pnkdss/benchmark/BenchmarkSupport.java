@@ -0,0 +1,47 @@
+package com.github.luk.pnkdss.benchmark;
+
+import com.github.luk.pnkdss.utils.Generator;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+
+/**
+ * Keystores and documents shared by the benchmarks.
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * @param key key type in the form ALGORITHM-SIZE, e.g. RSA-2048, RSASSA-PSS-2048 or EC-256, or just Ed25519
+     * @return PKCS12 keystore protected by {@link Generator#DEFAULT_PASSWORD}
+     */
+    static byte[] keystore(String key) throws Exception {
+        int dash = key.lastIndexOf('-');
+        KeyStore p12KeyStore = dash > 0 && Character.isDigit(key.charAt(dash + 1))
+                ? Generator.createP12KeyStore(key.substring(0, dash), Integer.parseInt(key.substring(dash + 1)))
+                : Generator.createP12KeyStore(key, 0);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        p12KeyStore.store(bos, Generator.DEFAULT_PASSWORD.toCharArray());
+        return bos.toByteArray();
+    }
+
+    /**
+     * @param size approximate document size in bytes
+     * @return SOAP envelope like {@link Generator#xmlContent} with a payload of the given size
+     */
+    static byte[] envelope(int size) {
+        String head = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n"
+                + "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:urn=\"urn:com:github:luk:pnkdss\">\n"
+                + "  <soapenv:Header />\n  <soapenv:Body>\n    <urn:data urn:id=\"signedData\">\n";
+        String tail = "    </urn:data>\n  </soapenv:Body>\n</soapenv:Envelope>";
+        String element = "      <urn:simpleElement>Hello World!</urn:simpleElement>\n";
+        StringBuilder sb = new StringBuilder(size + element.length()).append(head);
+        do {
+            sb.append(element);
+        } while (sb.length() + tail.length() < size);
+        return sb.append(tail).toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
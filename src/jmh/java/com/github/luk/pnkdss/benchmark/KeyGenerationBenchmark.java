@@ -0,0 +1,72 @@
+package com.github.luk.pnkdss.benchmark;
+
+import com.github.luk.pnkdss.utils.Generator;
+import com.github.luk.pnkdss.utils.KeyPairPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link Generator#createP12KeyStore(String, int)}, generating
+ * each key pair or taking it from a {@link KeyPairPool} refilled by one
+ * worker per processor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class KeyGenerationBenchmark {
+
+    @Param({"RSA-2048", "RSA-3072", "RSA-4096", "EC-256", "EC-384"})
+    private String key;
+
+    /**
+     * Pool of the pooled benchmark only, its workers would slow down the other.
+     */
+    @State(Scope.Benchmark)
+    public static class Pool {
+
+        private KeyPairPool pool;
+
+        @Setup(Level.Trial)
+        public void setUp(KeyGenerationBenchmark benchmark) {
+            String[] parts = benchmark.key.split("-");
+            int workers = Runtime.getRuntime().availableProcessors();
+            pool = new KeyPairPool(parts[0], Integer.parseInt(parts[1]), workers, 16 * workers, workers);
+            Generator.usePool(pool);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            Generator.removePool(pool);
+            pool.close();
+        }
+    }
+
+    @Benchmark
+    public KeyStore createP12KeyStore() throws Exception {
+        String[] parts = key.split("-");
+        return Generator.createP12KeyStore(parts[0], Integer.parseInt(parts[1]));
+    }
+
+    @Benchmark
+    public KeyStore createP12KeyStorePooled(Pool pool) throws Exception {
+        String[] parts = key.split("-");
+        return Generator.createP12KeyStore(parts[0], Integer.parseInt(parts[1]));
+    }
+}
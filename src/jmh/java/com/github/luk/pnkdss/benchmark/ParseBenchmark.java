@@ -0,0 +1,85 @@
+package com.github.luk.pnkdss.benchmark;
+
+import com.github.luk.pnkdss.utils.Generator;
+import com.github.luk.pnkdss.utils.SignatureResult;
+import com.github.luk.pnkdss.utils.SigningSession;
+import com.github.luk.pnkdss.utils.ValidationMode;
+import com.github.luk.pnkdss.utils.VerificationSession;
+import com.github.luk.pnkdss.utils.XmlParsers;
+import eu.europa.esig.dss.DomUtils;
+import eu.europa.esig.dss.model.InMemoryDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per document parser setup with DSS's default of a new secure factory per
+ * parse ({@code pooled=false}) against the per thread builders of
+ * {@link XmlParsers}. The overhead shows most on small documents, the parse
+ * alone and a signature only verification are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(4)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"true", "false"})
+    private boolean pooled;
+
+    @Param({"1024", "102400"})
+    private int size;
+
+    private byte[] document;
+    private byte[] signed;
+    private VerificationSession verification;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        document = BenchmarkSupport.envelope(size);
+        try (SigningSession session = new SigningSession(new ByteArrayInputStream(BenchmarkSupport.keystore("RSA-2048")),
+                Generator.DEFAULT_PASSWORD.toCharArray())) {
+            signed = session.sign(new ByteArrayInputStream(document)).getBytes(StandardCharsets.UTF_8);
+        }
+        verification = new VerificationSession();
+        // the sessions install the pooled parsers as they load
+        if (!pooled) {
+            XmlParsers.uninstall();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        verification.close();
+        XmlParsers.install();
+    }
+
+    @Benchmark
+    public Document parse() {
+        return DomUtils.buildDOM(document);
+    }
+
+    @Benchmark
+    public SignatureResult verify() {
+        return verification.checkDocument(new InMemoryDocument(signed), ValidationMode.SIGNATURE_ONLY);
+    }
+}
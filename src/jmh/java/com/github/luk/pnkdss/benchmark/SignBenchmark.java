@@ -0,0 +1,84 @@
+package com.github.luk.pnkdss.benchmark;
+
+import com.github.luk.pnkdss.utils.CanonicalizationCache;
+import com.github.luk.pnkdss.utils.Generator;
+import com.github.luk.pnkdss.utils.Signer;
+import com.github.luk.pnkdss.utils.SigningProfile;
+import com.github.luk.pnkdss.utils.SigningSession;
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.InMemoryDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing throughput, once through {@link Signer#sign} (keystore loaded per
+ * call) and once through a reused {@link SigningSession}, without and with a
+ * {@link CanonicalizationCache} (the same document signed over and over).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SignBenchmark {
+
+    @Param({"1024", "102400", "1048576", "10485760", "104857600"})
+    private int size;
+
+    @Param({"RSA-2048", "RSA-3072", "RSA-4096", "EC-256"})
+    private String key;
+
+    private byte[] keystore;
+    private byte[] document;
+    private SigningSession session;
+    private CanonicalizationCache cache;
+    private SigningSession cachedSession;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        keystore = BenchmarkSupport.keystore(key);
+        document = BenchmarkSupport.envelope(size);
+        session = new SigningSession(new ByteArrayInputStream(keystore), Generator.DEFAULT_PASSWORD.toCharArray());
+        cache = new CanonicalizationCache(CanonicalizationCache.DEFAULT_MAX_SIZE, Math.max(2L * size, CanonicalizationCache.DEFAULT_MAX_BYTES));
+        cachedSession = new SigningSession(new ByteArrayInputStream(keystore), Generator.DEFAULT_PASSWORD.toCharArray(),
+                SigningProfile.DEFAULT.withCanonicalizationCache(cache));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        session.close();
+        cachedSession.close();
+        cache.close();
+    }
+
+    @Benchmark
+    public String signer() throws Exception {
+        return Signer.sign(new ByteArrayInputStream(document), new ByteArrayInputStream(keystore),
+                Generator.DEFAULT_PASSWORD.toCharArray());
+    }
+
+    @Benchmark
+    public DSSDocument session() {
+        return session.signDocument(new InMemoryDocument(document));
+    }
+
+    @Benchmark
+    public DSSDocument sessionCached() {
+        return cachedSession.signDocument(new InMemoryDocument(document));
+    }
+}
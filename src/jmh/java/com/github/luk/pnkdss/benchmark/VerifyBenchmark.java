@@ -0,0 +1,55 @@
+package com.github.luk.pnkdss.benchmark;
+
+import com.github.luk.pnkdss.utils.Generator;
+import com.github.luk.pnkdss.utils.SignatureResult;
+import com.github.luk.pnkdss.utils.SigningSession;
+import com.github.luk.pnkdss.utils.Validator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verification throughput of {@link Validator#check}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class VerifyBenchmark {
+
+    @Param({"1024", "102400", "1048576", "10485760", "104857600"})
+    private int size;
+
+    @Param({"RSA-2048", "RSA-3072", "RSA-4096", "EC-256"})
+    private String key;
+
+    private byte[] signed;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        try (SigningSession session = new SigningSession(new ByteArrayInputStream(BenchmarkSupport.keystore(key)),
+                Generator.DEFAULT_PASSWORD.toCharArray())) {
+            signed = session.sign(new ByteArrayInputStream(BenchmarkSupport.envelope(size))).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public SignatureResult check() throws Exception {
+        return Validator.check(new ByteArrayInputStream(signed));
+    }
+}
@@ -1,6 +1,8 @@
 package com.github.luk.pnkdss;
 
+import com.github.luk.pnkdss.commands.ExtendCommand;
 import com.github.luk.pnkdss.commands.GenerateCommand;
+import com.github.luk.pnkdss.commands.ServeCommand;
 import com.github.luk.pnkdss.commands.SignCommand;
 import com.github.luk.pnkdss.commands.VerifyCommand;
 import org.springframework.boot.CommandLineRunner;
@@ -15,7 +17,9 @@ import picocli.CommandLine.IFactory;
         subcommands = {
                 GenerateCommand.class,
                 SignCommand.class,
-                VerifyCommand.class
+                VerifyCommand.class,
+                ExtendCommand.class,
+                ServeCommand.class
         },
         description = "A command-line tool for generating, signing, and verifying XML documents.")
 public class PnkdssApplication implements CommandLineRunner {
@@ -0,0 +1,28 @@
+package com.github.luk.pnkdss;
+
+import picocli.CommandLine;
+import picocli.CommandLine.IFactory;
+
+/**
+ * Entry point that runs the commands without a Spring context: picocli
+ * creates the commands itself and they open DSS sessions only once they run.
+ * Starts much faster than {@link PnkdssApplication} for one-off invocations
+ * from scripts and cron jobs, and is the main class of the native image.
+ */
+public final class PnkdssCli {
+
+    private PnkdssCli() {
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * @return exit code of the command
+     */
+    public static int run(String... args) {
+        IFactory factory = CommandLine.defaultFactory();
+        return new CommandLine(new PnkdssApplication(factory), factory).execute(args);
+    }
+}
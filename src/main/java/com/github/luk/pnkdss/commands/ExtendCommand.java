@@ -0,0 +1,276 @@
+package com.github.luk.pnkdss.commands;
+
+import com.github.luk.pnkdss.utils.BatchReport;
+import com.github.luk.pnkdss.utils.DocumentBatch;
+import com.github.luk.pnkdss.utils.Documents;
+import com.github.luk.pnkdss.utils.LocalTimestampAuthority;
+import com.github.luk.pnkdss.utils.PnkdssMetrics;
+import com.github.luk.pnkdss.utils.RevocationStore;
+import com.github.luk.pnkdss.utils.SignatureExtender;
+import com.github.luk.pnkdss.utils.StreamingDigester;
+import com.github.luk.pnkdss.utils.TimestampSource;
+import com.github.luk.pnkdss.utils.TrustAnchorStore;
+
+import eu.europa.esig.dss.enumerations.SignatureLevel;
+import eu.europa.esig.dss.model.DSSDocument;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+@Command(name = "extend", description = "Extends a signed XML document, or a batch of documents, to XAdES-T, -LT or -LTA.")
+public class ExtendCommand implements Callable<Integer> {
+
+    @Option(names = {"-s", "--signed"}, description = "Path to the signed XML document.")
+    private Path documentPath;
+
+    @Option(names = {"-e", "--extended"}, description = "Path to the output extended XML document.")
+    private Path outputDocumentPath;
+
+    @Option(names = {"--detached-content"}, description = "Path to the payload of a detached signature.")
+    private Path detachedContentPath;
+
+    @Option(names = {"-l", "--level"}, description = "Target level: T, LT or LTA (default: ${DEFAULT-VALUE}).")
+    private String level = "T";
+
+    @Option(names = {"--tsa-url"}, description = "URL of the RFC 3161 time-stamping authority.")
+    private String tsaUrl;
+
+    @Option(names = {"--local-tsa"}, description = "Timestamps with an in-process authority and a generated certificate, for tests only.")
+    private boolean localTsa;
+
+    @Option(names = {"--tsa-concurrency"}, description = "Timestamp requests sent to the authority at once (default: ${DEFAULT-VALUE}).")
+    private int tsaConcurrency = 4;
+
+    @Option(names = {"--trust-anchors"}, description = "Directory with trusted PEM/DER certificates or a trusted list XML file.")
+    private Path trustAnchorsPath;
+
+    @Option(names = {"--revocation-dir"}, description = "Directory with CRLs (*.crl) and OCSP responses (*.ocsp) embedded by -LT and -LTA.")
+    private Path revocationDir;
+
+    @Option(names = {"--metrics-file"}, description = "Writes sign/verify metrics in the Prometheus text format to this file at exit.")
+    private Path metricsPath;
+
+    @Option(names = {"-i", "--input-dir"}, description = "Batch mode: directory with the signed XML documents.")
+    private Path inputDir;
+
+    @Option(names = {"-g", "--glob"}, description = "Batch mode: glob pattern selecting documents in the input directory (default: ${DEFAULT-VALUE}).")
+    private String glob = DocumentBatch.DEFAULT_GLOB;
+
+    @Option(names = {"-m", "--manifest"}, description = "Batch mode: file listing the signed XML documents, one per line.")
+    private Path manifestPath;
+
+    @Option(names = {"-o", "--output-dir"}, description = "Batch mode: directory for the extended XML documents.")
+    private Path outputDir;
+
+    @Option(names = {"-t", "--threads"}, description = "Batch mode: number of extension threads (default: number of processors).")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    @Override
+    public Integer call() throws Exception {
+        if (metricsPath != null) {
+            PnkdssMetrics.dumpOnExit(metricsPath);
+        }
+        SignatureLevel signatureLevel = signatureLevel();
+        boolean batch = inputDir != null || manifestPath != null;
+        if (!batch && (documentPath == null || outputDocumentPath == null)) {
+            throw new IllegalArgumentException("Either --signed and --extended, or --input-dir/--manifest and --output-dir are required.");
+        }
+        try (TrustAnchorStore trustAnchors = trustAnchorsPath != null ? TrustAnchorStore.load(trustAnchorsPath) : null;
+             RevocationStore revocation = revocationDir != null ? RevocationStore.load(revocationDir) : null) {
+            SignatureExtender extender = new SignatureExtender(timestampSource(), trustAnchors, revocation);
+            return batch ? extendBatch(extender, signatureLevel) : extendDocument(extender, signatureLevel);
+        }
+    }
+
+    private int extendDocument(SignatureExtender extender, SignatureLevel signatureLevel) throws Exception {
+        System.out.println("Extending document '" + documentPath + "' to " + signatureLevel + "...");
+
+        DSSDocument signature = Documents.open(documentPath);
+        DSSDocument extended = detachedContentPath != null
+                ? extender.extendDetached(signature,
+                        Collections.singletonList(StreamingDigester.digest(detachedContentPath, signature)), signatureLevel)
+                : extender.extend(signature, signatureLevel);
+        Documents.write(extended, outputDocumentPath);
+        System.out.println("Extended document saved to: " + outputDocumentPath);
+        return 0;
+    }
+
+    private int extendBatch(SignatureExtender extender, SignatureLevel signatureLevel) throws Exception {
+        if (outputDir == null) {
+            throw new IllegalArgumentException("Batch mode requires --output-dir.");
+        }
+        DocumentBatch batch = manifestPath != null
+                ? DocumentBatch.fromManifest(manifestPath)
+                : DocumentBatch.fromDirectory(inputDir, glob);
+        System.out.println("Extending " + batch.size() + " documents to " + signatureLevel + " into '" + outputDir + "'...");
+
+        BatchReport report = new BatchReport();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> batch.getDocuments().parallelStream()
+                    .forEach(document -> extend(extender, signatureLevel, batch, report, document))).get();
+        } finally {
+            pool.shutdown();
+        }
+        report.finish();
+        report.print(System.out);
+        return report.getFailed() == 0 ? 0 : 1;
+    }
+
+    private void extend(SignatureExtender extender, SignatureLevel signatureLevel, DocumentBatch batch, BatchReport report, Path document) {
+        long start = System.nanoTime();
+        try {
+            DSSDocument extended = extender.extend(Documents.open(document), signatureLevel);
+            Path target = batch.resolveTarget(document, outputDir);
+            Files.createDirectories(target.toAbsolutePath().getParent());
+            Documents.write(extended, target);
+            report.success(document, target, System.nanoTime() - start);
+        } catch (Exception e) {
+            report.failure(document, e, System.nanoTime() - start);
+        }
+    }
+
+    private TimestampSource timestampSource() throws Exception {
+        if (localTsa) {
+            return new TimestampSource(new LocalTimestampAuthority(), tsaConcurrency);
+        }
+        if (tsaUrl != null) {
+            return TimestampSource.online(tsaUrl, tsaConcurrency);
+        }
+        throw new IllegalArgumentException("Either --tsa-url or --local-tsa is required.");
+    }
+
+    private SignatureLevel signatureLevel() {
+        try {
+            return SignatureLevel.valueOf("XAdES_BASELINE_" + level.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown level '" + level + "', expected T, LT or LTA.");
+        }
+    }
+
+    public Path getDocumentPath() {
+      return documentPath;
+    }
+
+    public void setDocumentPath(Path documentPath) {
+      this.documentPath = documentPath;
+    }
+
+    public Path getOutputDocumentPath() {
+      return outputDocumentPath;
+    }
+
+    public void setOutputDocumentPath(Path outputDocumentPath) {
+      this.outputDocumentPath = outputDocumentPath;
+    }
+
+    public Path getDetachedContentPath() {
+      return detachedContentPath;
+    }
+
+    public void setDetachedContentPath(Path detachedContentPath) {
+      this.detachedContentPath = detachedContentPath;
+    }
+
+    public String getLevel() {
+      return level;
+    }
+
+    public void setLevel(String level) {
+      this.level = level;
+    }
+
+    public String getTsaUrl() {
+      return tsaUrl;
+    }
+
+    public void setTsaUrl(String tsaUrl) {
+      this.tsaUrl = tsaUrl;
+    }
+
+    public boolean isLocalTsa() {
+      return localTsa;
+    }
+
+    public void setLocalTsa(boolean localTsa) {
+      this.localTsa = localTsa;
+    }
+
+    public int getTsaConcurrency() {
+      return tsaConcurrency;
+    }
+
+    public void setTsaConcurrency(int tsaConcurrency) {
+      this.tsaConcurrency = tsaConcurrency;
+    }
+
+    public Path getTrustAnchorsPath() {
+      return trustAnchorsPath;
+    }
+
+    public void setTrustAnchorsPath(Path trustAnchorsPath) {
+      this.trustAnchorsPath = trustAnchorsPath;
+    }
+
+    public Path getRevocationDir() {
+      return revocationDir;
+    }
+
+    public void setRevocationDir(Path revocationDir) {
+      this.revocationDir = revocationDir;
+    }
+
+    public Path getMetricsPath() {
+      return metricsPath;
+    }
+
+    public void setMetricsPath(Path metricsPath) {
+      this.metricsPath = metricsPath;
+    }
+
+    public Path getInputDir() {
+      return inputDir;
+    }
+
+    public void setInputDir(Path inputDir) {
+      this.inputDir = inputDir;
+    }
+
+    public String getGlob() {
+      return glob;
+    }
+
+    public void setGlob(String glob) {
+      this.glob = glob;
+    }
+
+    public Path getManifestPath() {
+      return manifestPath;
+    }
+
+    public void setManifestPath(Path manifestPath) {
+      this.manifestPath = manifestPath;
+    }
+
+    public Path getOutputDir() {
+      return outputDir;
+    }
+
+    public void setOutputDir(Path outputDir) {
+      this.outputDir = outputDir;
+    }
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public void setThreads(int threads) {
+      this.threads = threads;
+    }
+}
@@ -1,20 +1,36 @@
 package com.github.luk.pnkdss.commands;
 
+import com.github.luk.pnkdss.utils.Distribution;
 import com.github.luk.pnkdss.utils.Generator;
+import com.github.luk.pnkdss.utils.KeyPairPool;
+import com.github.luk.pnkdss.utils.SyntheticEnvelope;
 
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.spi.DSSUtils;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
-@Command(name = "gen", description = "Generates a sample XML document, a P12 keystore, and a password file.")
+@Command(name = "gen", description = "Generates a sample XML document, a P12 keystore, and a password file; "
+        + "or numbered series of synthetic documents and keystores for load tests.")
 public class GenerateCommand implements Callable<Integer> {
 
+    private static final List<String> KEY_ALGORITHMS = Arrays.asList("RSA", "RSASSA-PSS", "EC", "Ed25519");
+
     @Option(names = {"-d", "--document"}, description = "Path to the output XML document.", required = true)
     private Path documentPath;
 
@@ -24,22 +40,177 @@ public class GenerateCommand implements Callable<Integer> {
     @Option(names = {"-p", "--password"}, description = "Path to the output password file.", required = true)
     private Path passPath;
 
+    @Option(names = {"--documents"}, description = "Number of documents, more than one are numbered like document-007.xml (default: ${DEFAULT-VALUE}).")
+    private int documents = 1;
+
+    @Option(names = {"--keystores"}, description = "Number of keystores, more than one are numbered like keystore-007.p12 (default: ${DEFAULT-VALUE}).")
+    private int keystores = 1;
+
+    @Option(names = {"--key-algorithm"}, description = "Key algorithm of the keystores: RSA, RSASSA-PSS, EC or Ed25519 (default: ${DEFAULT-VALUE}).")
+    private String keyAlgorithm = "RSA";
+
+    @Option(names = {"--key-size"}, description = "RSA modulus length or EC field size (default: 2048 for RSA, 256 for EC, ignored for Ed25519).")
+    private int keySize;
+
+    @Option(names = {"--ca"}, description = "Issues the keystore certificates by a generated CA, its certificate is saved next to the keystores.")
+    private boolean ca;
+
+    @Option(names = {"--key-pool-low"}, description = "Pooled key pairs left when the pool of more than one keystore is refilled (default: number of threads).")
+    private int keyPoolLow;
+
+    @Option(names = {"--key-pool-high"}, description = "Key pairs generated ahead for more than one keystore (default: up to 4 per thread).")
+    private int keyPoolHigh;
+
+    @Option(names = {"--elements"}, description = "Synthetic documents: records in the signed element, as N, MIN-MAX or lognormal:MEDIAN:SIGMA.")
+    private String elements;
+
+    @Option(names = {"--depth"}, description = "Synthetic documents: nesting of each record, as N, MIN-MAX or lognormal:MEDIAN:SIGMA.")
+    private String depth;
+
+    @Option(names = {"--payload-bytes"}, description = "Synthetic documents: text bytes per document, as N, MIN-MAX or lognormal:MEDIAN:SIGMA.")
+    private String payloadBytes;
+
+    @Option(names = {"--seed"}, description = "Seed of the synthetic documents, the same seed gives the same corpus (default: ${DEFAULT-VALUE}).")
+    private long seed = 1;
+
+    @Option(names = {"-t", "--threads"}, description = "Number of generation threads (default: number of processors).")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
     @Override
     public Integer call() throws Exception {
+        if (documents < 1 || keystores < 1) {
+            throw new IllegalArgumentException("--documents and --keystores must be at least 1.");
+        }
+        if (!KEY_ALGORITHMS.contains(keyAlgorithm)) {
+            throw new IllegalArgumentException("Unknown key algorithm '" + keyAlgorithm + "', expected one of " + KEY_ALGORITHMS + ".");
+        }
         System.out.println("Generating files...");
 
-        Files.write(documentPath, Generator.xmlContent.getBytes(StandardCharsets.UTF_8));
-        System.out.println("Generated: " + documentPath);
-
-        Files.write(passPath, Generator.DEFAULT_PASSWORD.getBytes(StandardCharsets.UTF_8));
-        System.out.println("Generated: " + passPath);
-
-        generateP12File(p12Path, Generator.DEFAULT_PASSWORD.toCharArray());
-        System.out.println("Generated: " + p12Path);
+        // the key pool fills while the documents are written
+        KeyPairPool keyPairs = null;
+        if (keystores > 1) {
+            int low = keyPoolLow > 0 ? keyPoolLow : threads;
+            int high = keyPoolHigh > 0 ? keyPoolHigh : Math.max(low + 1, Math.min(keystores, 4 * threads));
+            keyPairs = new KeyPairPool(keyAlgorithm, keySize(), low, high, threads);
+            Generator.usePool(keyPairs);
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            generateDocuments(pool);
+            Files.write(passPath, Generator.DEFAULT_PASSWORD.getBytes(StandardCharsets.UTF_8));
+            System.out.println("Generated: " + passPath);
+            generateKeystores(pool);
+        } finally {
+            pool.shutdown();
+            if (keyPairs != null) {
+                Generator.removePool(keyPairs);
+                keyPairs.close();
+            }
+        }
+        if (keyPairs != null) {
+            System.out.println("Key pool: " + keyPairs.getRequests() + " key pairs taken, "
+                    + keyPairs.getMisses() + " generated on demand.");
+        }
 
         System.out.println("Generation completed.");
         return 0;
     }
+
+    private void generateDocuments(ForkJoinPool pool) throws Exception {
+        if (documents == 1 && elements == null && depth == null && payloadBytes == null) {
+            Files.write(documentPath, Generator.xmlContent.getBytes(StandardCharsets.UTF_8));
+            System.out.println("Generated: " + documentPath);
+            return;
+        }
+        SyntheticEnvelope envelope = new SyntheticEnvelope(
+                elements != null ? Distribution.parse(elements) : Distribution.fixed(1),
+                depth != null ? Distribution.parse(depth) : Distribution.fixed(1),
+                payloadBytes != null ? Distribution.parse(payloadBytes) : Distribution.fixed(12));
+        createParentDirectory(documentPath);
+        long start = System.nanoTime();
+        LongAdder bytes = new LongAdder();
+        pool.submit(() -> IntStream.range(0, documents).parallel().forEach(i -> {
+            try {
+                bytes.add(envelope.write(numbered(documentPath, i, documents), seed, i));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        })).get();
+        if (documents == 1) {
+            System.out.println("Generated: " + documentPath);
+        } else {
+            System.out.println("Generated: " + documents + " documents, " + bytes.sum() + " bytes in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms, " + numbered(documentPath, 0, documents) + " ...");
+        }
+    }
+
+    private void generateKeystores(ForkJoinPool pool) throws Exception {
+        if (keystores == 1 && !ca && keySize == 0 && "RSA".equals(keyAlgorithm)) {
+            generateP12File(p12Path, Generator.DEFAULT_PASSWORD.toCharArray());
+            System.out.println("Generated: " + p12Path);
+            return;
+        }
+        int size = keySize();
+        createParentDirectory(p12Path);
+        KeyStore.PrivateKeyEntry issuer = null;
+        if (ca) {
+            issuer = Generator.createCertificateAuthority(keyAlgorithm, size);
+            Path caPath = p12Path.resolveSibling(stem(p12Path) + "-ca.pem");
+            Files.write(caPath, DSSUtils.convertToPEM(new CertificateToken((X509Certificate) issuer.getCertificate()))
+                    .getBytes(StandardCharsets.US_ASCII));
+            System.out.println("Generated: " + caPath);
+        }
+        KeyStore.PrivateKeyEntry caEntry = issuer;
+        long start = System.nanoTime();
+        pool.submit(() -> IntStream.range(0, keystores).parallel().forEach(i -> {
+            Path target = numbered(p12Path, i, keystores);
+            try (FileOutputStream fos = new FileOutputStream(target.toFile())) {
+                Generator.createP12KeyStore(keyAlgorithm, size, "Example Signer " + i, caEntry)
+                        .store(fos, Generator.DEFAULT_PASSWORD.toCharArray());
+            } catch (Exception e) {
+                throw new IllegalStateException("Cannot generate keystore " + target, e);
+            }
+        })).get();
+        if (keystores == 1) {
+            System.out.println("Generated: " + p12Path);
+        } else {
+            System.out.println("Generated: " + keystores + " " + keyAlgorithm + "-" + size + " keystores in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms, " + numbered(p12Path, 0, keystores) + " ...");
+        }
+    }
+
+    private int keySize() {
+        if ("Ed25519".equals(keyAlgorithm)) {
+            return 255;
+        }
+        return keySize != 0 ? keySize : "EC".equals(keyAlgorithm) ? 256 : 2048;
+    }
+
+    /**
+     * @return path itself for a single file, else the path with a zero-padded index before the extension
+     */
+    static Path numbered(Path path, int index, int count) {
+        if (count == 1) {
+            return path;
+        }
+        String name = path.getFileName().toString();
+        String extension = name.substring(stem(path).length());
+        int width = Integer.toString(count - 1).length();
+        return path.resolveSibling(String.format("%s-%0" + width + "d%s", stem(path), index, extension));
+    }
+
+    private static String stem(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static void createParentDirectory(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+    }
     
     /**
      * Pomocná metoda pro generování P12 souboru na disk.
@@ -78,4 +249,100 @@ public class GenerateCommand implements Callable<Integer> {
     public void setPassPath(Path passPath) {
       this.passPath = passPath;
     }
+
+    public int getDocuments() {
+      return documents;
+    }
+
+    public void setDocuments(int documents) {
+      this.documents = documents;
+    }
+
+    public int getKeystores() {
+      return keystores;
+    }
+
+    public void setKeystores(int keystores) {
+      this.keystores = keystores;
+    }
+
+    public String getKeyAlgorithm() {
+      return keyAlgorithm;
+    }
+
+    public void setKeyAlgorithm(String keyAlgorithm) {
+      this.keyAlgorithm = keyAlgorithm;
+    }
+
+    public int getKeySize() {
+      return keySize;
+    }
+
+    public void setKeySize(int keySize) {
+      this.keySize = keySize;
+    }
+
+    public boolean isCa() {
+      return ca;
+    }
+
+    public void setCa(boolean ca) {
+      this.ca = ca;
+    }
+
+    public String getElements() {
+      return elements;
+    }
+
+    public void setElements(String elements) {
+      this.elements = elements;
+    }
+
+    public String getDepth() {
+      return depth;
+    }
+
+    public void setDepth(String depth) {
+      this.depth = depth;
+    }
+
+    public String getPayloadBytes() {
+      return payloadBytes;
+    }
+
+    public void setPayloadBytes(String payloadBytes) {
+      this.payloadBytes = payloadBytes;
+    }
+
+    public long getSeed() {
+      return seed;
+    }
+
+    public void setSeed(long seed) {
+      this.seed = seed;
+    }
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public void setThreads(int threads) {
+      this.threads = threads;
+    }
+
+    public int getKeyPoolLow() {
+      return keyPoolLow;
+    }
+
+    public void setKeyPoolLow(int keyPoolLow) {
+      this.keyPoolLow = keyPoolLow;
+    }
+
+    public int getKeyPoolHigh() {
+      return keyPoolHigh;
+    }
+
+    public void setKeyPoolHigh(int keyPoolHigh) {
+      this.keyPoolHigh = keyPoolHigh;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,289 @@
+package com.github.luk.pnkdss.commands;
+
+import com.github.luk.pnkdss.utils.CertificateCache;
+import com.github.luk.pnkdss.utils.KeyRegistry;
+import com.github.luk.pnkdss.utils.RevocationStore;
+import com.github.luk.pnkdss.utils.SigningProfile;
+import com.github.luk.pnkdss.utils.SigningProfiles;
+import com.github.luk.pnkdss.utils.SigningServer;
+import com.github.luk.pnkdss.utils.SigningSession;
+import com.github.luk.pnkdss.utils.TokenPool;
+import com.github.luk.pnkdss.utils.TokenProvider;
+import com.github.luk.pnkdss.utils.TrustAnchorStore;
+import com.github.luk.pnkdss.utils.ValidationMode;
+import com.github.luk.pnkdss.utils.VerificationSession;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+@Command(name = "serve", description = "Runs a local HTTP service signing and verifying XML documents with a preloaded P12 keystore. It listens on TCP only: Unix domain sockets need Java 16, the build targets Java 8.")
+public class ServeCommand implements Callable<Integer> {
+
+    @Option(names = {"--profiles"}, description = "Path to a .properties or .yml file with signing profiles.")
+    private Path profilesPath;
+
+    @Option(names = {"--profile"}, description = "Name of the signing profile (default: ${DEFAULT-VALUE}).")
+    private String profileName = SigningProfile.DEFAULT_NAME;
+
+    @Option(names = {"-k", "--keystore"}, description = "Path to a P12 (or .jks) keystore, repeat for more tenants; the tenant is the file name without extension.")
+    private List<Path> keystorePaths = new ArrayList<>();
+
+    @Option(names = {"--keystore-refresh"}, description = "Seconds between checks for changed keystores, 0 disables (default: ${DEFAULT-VALUE}).")
+    private long keystoreRefresh = 60;
+
+    @Option(names = {"-p", "--password"}, description = "Path to the password file for the keystore, or the PIN file for PKCS#11.", required = true)
+    private Path passPath;
+
+    @Option(names = {"--pkcs11-library"}, description = "Signs with a PKCS#11 token (e.g. SoftHSM) instead of a keystore.")
+    private String pkcs11Library;
+
+    @Option(names = {"--pkcs11-slot"}, description = "Index of the PKCS#11 slot (default: ${DEFAULT-VALUE}).")
+    private int pkcs11Slot;
+
+    @Option(names = {"--token-pool-size"}, description = "PKCS#11 sessions kept logged in (default: number of threads).")
+    private int tokenPoolSize;
+
+    @Option(names = {"--host"}, description = "Address to listen on (default: ${DEFAULT-VALUE}).")
+    private String host = "127.0.0.1";
+
+    @Option(names = {"--port"}, description = "Port to listen on (default: ${DEFAULT-VALUE}).")
+    private int port = 8080;
+
+    @Option(names = {"-t", "--threads"}, description = "Number of request threads (default: number of processors).")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    @Option(names = {"--max-in-flight"}, description = "Requests accepted at once before answering 503 (default: ${DEFAULT-VALUE}).")
+    private int maxInFlight = 256;
+
+    @Option(names = {"--warm-up"}, description = "Sample sign/verify rounds run before listening (default: ${DEFAULT-VALUE}).")
+    private int warmUp = 200;
+
+    @Option(names = {"--trust-anchors"}, description = "Directory with trusted PEM/DER certificates or a trusted list XML file.")
+    private Path trustAnchorsPath;
+
+    @Option(names = {"--trust-refresh"}, description = "Seconds between checks for changed trust anchors and revocation data, 0 disables (default: ${DEFAULT-VALUE}).")
+    private long trustRefresh = 300;
+
+    @Option(names = {"--revocation-dir"}, description = "Directory with CRLs (*.crl) and OCSP responses (*.ocsp) used instead of online revocation data.")
+    private Path revocationDir;
+
+    @Option(names = {"--cert-cache-size"}, description = "Signing certificates whose chain outcome is cached (default: ${DEFAULT-VALUE}).")
+    private int certCacheSize = CertificateCache.DEFAULT_MAX_SIZE;
+
+    @Option(names = {"--cert-cache-ttl"}, description = "Seconds a cached chain outcome is used (default: ${DEFAULT-VALUE}).")
+    private long certCacheTtl = CertificateCache.DEFAULT_TTL.getSeconds();
+
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    @Override
+    public Integer call() throws Exception {
+        SigningProfiles profiles = profilesPath != null ? SigningProfiles.load(profilesPath) : SigningProfiles.defaults();
+        try (TrustAnchorStore trustAnchors = trustAnchorsPath != null ? TrustAnchorStore.load(trustAnchorsPath) : null;
+             RevocationStore revocation = revocationDir != null ? RevocationStore.load(revocationDir) : null;
+             KeyRegistry keys = openKeys(profiles.get(profileName));
+             SigningServer server = new SigningServer(keys, profiles,
+                     new VerificationSession(ValidationMode.FULL, new CertificateCache(certCacheSize, Duration.ofSeconds(certCacheTtl)),
+                             trustAnchors, revocation),
+                     new InetSocketAddress(host, port), threads, maxInFlight)) {
+            if (trustAnchors != null && trustRefresh > 0) {
+                trustAnchors.startRefresh(Duration.ofSeconds(trustRefresh));
+            }
+            if (revocation != null && trustRefresh > 0) {
+                revocation.startRefresh(Duration.ofSeconds(trustRefresh));
+            }
+            if (keystoreRefresh > 0) {
+                keys.startRefresh(Duration.ofSeconds(keystoreRefresh));
+            }
+            System.out.println("Warming up...");
+            server.warmUp(warmUp);
+            server.start();
+            System.out.println("Listening on http://" + host + ":" + server.getPort() + " (POST /sign[?profile=name&tenant=id&alias=name], POST /verify[?mode=fast|cached], GET /metrics, GET /health)");
+
+            Runtime.getRuntime().addShutdownHook(new Thread(stopped::countDown));
+            stopped.await();
+        }
+        return 0;
+    }
+
+    private KeyRegistry openKeys(SigningProfile profile) throws Exception {
+        if (pkcs11Library != null) {
+            TokenProvider provider = TokenProvider.pkcs11(pkcs11Library, pkcs11Slot, readPassword());
+            SigningSession session = new SigningSession(new TokenPool(provider, tokenPoolSize > 0 ? tokenPoolSize : threads), profile);
+            return KeyRegistry.of(null, null, session);
+        }
+        if (keystorePaths.isEmpty()) {
+            throw new IllegalArgumentException("Either --keystore or --pkcs11-library is required.");
+        }
+        KeyRegistry keys = new KeyRegistry(profile);
+        char[] password = readPassword();
+        for (Path keystore : keystorePaths) {
+            keys.add(keystore, password, null);
+        }
+        System.out.println("Loaded " + keys.getEntries().size() + " signing keys from " + keystorePaths.size() + " keystores");
+        return keys;
+    }
+
+    private char[] readPassword() throws Exception {
+        return new String(Files.readAllBytes(passPath), StandardCharsets.UTF_8).trim().toCharArray();
+    }
+
+    /**
+     * Stops a running {@link #call()}.
+     */
+    public void stop() {
+        stopped.countDown();
+    }
+
+    public Path getProfilesPath() {
+      return profilesPath;
+    }
+
+    public void setProfilesPath(Path profilesPath) {
+      this.profilesPath = profilesPath;
+    }
+
+    public String getProfileName() {
+      return profileName;
+    }
+
+    public void setProfileName(String profileName) {
+      this.profileName = profileName;
+    }
+
+    public List<Path> getKeystorePaths() {
+      return keystorePaths;
+    }
+
+    public void setKeystorePaths(List<Path> keystorePaths) {
+      this.keystorePaths = keystorePaths;
+    }
+
+    public long getKeystoreRefresh() {
+      return keystoreRefresh;
+    }
+
+    public void setKeystoreRefresh(long keystoreRefresh) {
+      this.keystoreRefresh = keystoreRefresh;
+    }
+
+    public Path getPassPath() {
+      return passPath;
+    }
+
+    public void setPassPath(Path passPath) {
+      this.passPath = passPath;
+    }
+
+    public String getPkcs11Library() {
+      return pkcs11Library;
+    }
+
+    public void setPkcs11Library(String pkcs11Library) {
+      this.pkcs11Library = pkcs11Library;
+    }
+
+    public int getPkcs11Slot() {
+      return pkcs11Slot;
+    }
+
+    public void setPkcs11Slot(int pkcs11Slot) {
+      this.pkcs11Slot = pkcs11Slot;
+    }
+
+    public int getTokenPoolSize() {
+      return tokenPoolSize;
+    }
+
+    public void setTokenPoolSize(int tokenPoolSize) {
+      this.tokenPoolSize = tokenPoolSize;
+    }
+
+    public String getHost() {
+      return host;
+    }
+
+    public void setHost(String host) {
+      this.host = host;
+    }
+
+    public int getPort() {
+      return port;
+    }
+
+    public void setPort(int port) {
+      this.port = port;
+    }
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public void setThreads(int threads) {
+      this.threads = threads;
+    }
+
+    public int getMaxInFlight() {
+      return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+      this.maxInFlight = maxInFlight;
+    }
+
+    public int getWarmUp() {
+      return warmUp;
+    }
+
+    public void setWarmUp(int warmUp) {
+      this.warmUp = warmUp;
+    }
+
+    public Path getTrustAnchorsPath() {
+      return trustAnchorsPath;
+    }
+
+    public void setTrustAnchorsPath(Path trustAnchorsPath) {
+      this.trustAnchorsPath = trustAnchorsPath;
+    }
+
+    public long getTrustRefresh() {
+      return trustRefresh;
+    }
+
+    public void setTrustRefresh(long trustRefresh) {
+      this.trustRefresh = trustRefresh;
+    }
+
+    public Path getRevocationDir() {
+      return revocationDir;
+    }
+
+    public void setRevocationDir(Path revocationDir) {
+      this.revocationDir = revocationDir;
+    }
+
+    public int getCertCacheSize() {
+      return certCacheSize;
+    }
+
+    public void setCertCacheSize(int certCacheSize) {
+      this.certCacheSize = certCacheSize;
+    }
+
+    public long getCertCacheTtl() {
+      return certCacheTtl;
+    }
+
+    public void setCertCacheTtl(long certCacheTtl) {
+      this.certCacheTtl = certCacheTtl;
+    }
+}
@@ -1,45 +1,196 @@
 package com.github.luk.pnkdss.commands;
 
-import com.github.luk.pnkdss.utils.Signer;
+import com.github.luk.pnkdss.utils.BatchReport;
+import com.github.luk.pnkdss.utils.CanonicalizationCache;
+import com.github.luk.pnkdss.utils.DocumentBatch;
+import com.github.luk.pnkdss.utils.Documents;
+import com.github.luk.pnkdss.utils.PnkdssMetrics;
+import com.github.luk.pnkdss.utils.SigningPipeline;
+import com.github.luk.pnkdss.utils.SigningProfile;
+import com.github.luk.pnkdss.utils.SigningProfiles;
+import com.github.luk.pnkdss.utils.SigningSession;
+import com.github.luk.pnkdss.utils.TokenKeyBackend;
+import com.github.luk.pnkdss.utils.TokenPool;
+import com.github.luk.pnkdss.utils.TokenProvider;
+import com.github.luk.pnkdss.utils.StreamingDigester;
+
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.DigestDocument;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
-import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.concurrent.Callable;
 
-@Command(name = "sign", description = "Signs an XML document using a P12 keystore.")
+@Command(name = "sign", description = "Signs an XML document, or a batch of documents, using a P12 keystore.")
 public class SignCommand implements Callable<Integer> {
 
-    @Option(names = {"-d", "--document"}, description = "Path to the input XML document.", required = true)
+    @Option(names = {"-d", "--document"}, description = "Path to the input XML document.")
     private Path inputDocumentPath;
 
-    @Option(names = {"-s", "--signed"}, description = "Path to the output signed XML document.", required = true)
+    @Option(names = {"-s", "--signed"}, description = "Path to the output signed XML document.")
     private Path outputDocumentPath;
 
-    @Option(names = {"-k", "--keystore"}, description = "Path to the P12 keystore.", required = true)
+    @Option(names = {"--detached"}, description = "Creates a detached signature; the document is hashed as a stream and never loaded whole.")
+    private boolean detached;
+
+    @Option(names = {"-i", "--input-dir"}, description = "Batch mode: directory with the input XML documents.")
+    private Path inputDir;
+
+    @Option(names = {"-g", "--glob"}, description = "Batch mode: glob pattern selecting documents in the input directory (default: ${DEFAULT-VALUE}).")
+    private String glob = DocumentBatch.DEFAULT_GLOB;
+
+    @Option(names = {"-m", "--manifest"}, description = "Batch mode: file listing the input XML documents, one per line.")
+    private Path manifestPath;
+
+    @Option(names = {"-o", "--output-dir"}, description = "Batch mode: directory for the signed XML documents.")
+    private Path outputDir;
+
+    @Option(names = {"-t", "--threads"}, description = "Batch mode: number of signing threads (default: number of processors).")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    @Option(names = {"--queue-size"}, description = "Batch mode: documents queued ahead of the signing threads (default: twice the thread count).")
+    private int queueSize;
+
+    @Option(names = {"--key-threads"}, description = "Batch mode: threads for the private key operations; signing threads keep preparing documents meanwhile (default: sign on the signing threads).")
+    private int keyThreads;
+
+    @Option(names = {"--unordered"}, description = "Batch mode: report documents as they complete instead of in input order.")
+    private boolean unordered;
+
+    @Option(names = {"--metrics-file"}, description = "Writes sign/verify metrics in the Prometheus text format to this file at exit.")
+    private Path metricsPath;
+
+    @Option(names = {"--profiles"}, description = "Path to a .properties or .yml file with signing profiles.")
+    private Path profilesPath;
+
+    @Option(names = {"--profile"}, description = "Name of the signing profile (default: ${DEFAULT-VALUE}).")
+    private String profileName = SigningProfile.DEFAULT_NAME;
+
+    @Option(names = {"--c14n-cache"}, description = "Megabytes of canonicalized signed data kept, so an unchanged signed element is not canonicalized again (default: no cache).")
+    private int c14nCacheMegabytes;
+
+    @Option(names = {"-k", "--keystore"}, description = "Path to the P12 (or .jks) keystore.")
     private Path p12Path;
 
-    @Option(names = {"-p", "--password"}, description = "Path to the password file for the keystore.", required = true)
+    @Option(names = {"-p", "--password"}, description = "Path to the password file for the keystore, or the PIN file for PKCS#11.", required = true)
     private Path passPath;
 
+    @Option(names = {"--alias"}, description = "Alias of the signing key (default: the first key).")
+    private String alias;
+
+    @Option(names = {"--pkcs11-library"}, description = "Signs with a PKCS#11 token (e.g. SoftHSM) instead of a keystore.")
+    private String pkcs11Library;
+
+    @Option(names = {"--pkcs11-slot"}, description = "Index of the PKCS#11 slot (default: ${DEFAULT-VALUE}).")
+    private int pkcs11Slot;
+
+    @Option(names = {"--token-pool-size"}, description = "PKCS#11 sessions kept logged in (default: number of threads).")
+    private int tokenPoolSize;
+
     @Override
     public Integer call() throws Exception {
+        if (metricsPath != null) {
+            PnkdssMetrics.dumpOnExit(metricsPath);
+        }
+        if (inputDir != null || manifestPath != null) {
+            return signBatch();
+        }
+        if (inputDocumentPath == null || outputDocumentPath == null) {
+            throw new IllegalArgumentException("Either --document and --signed, or --input-dir/--manifest and --output-dir are required.");
+        }
         System.out.println("Signing document '" + inputDocumentPath + "' and saving to '" + outputDocumentPath + "'...");
 
-        char[] password = new String(Files.readAllBytes(passPath), StandardCharsets.UTF_8).trim().toCharArray();
+        SigningProfile profile = profile();
+        try (SigningSession session = openSession(profile)) {
+            if (detached) {
+                DigestDocument payload = StreamingDigester.digest(inputDocumentPath, session.getDetachedDigestAlgorithm());
+                Documents.write(session.signDetached(payload), outputDocumentPath);
+            } else {
+                session.sign(inputDocumentPath, outputDocumentPath);
+            }
+            System.out.println("Document signed and saved to: " + outputDocumentPath);
+        }
+        if (profile.getCanonicalizationCache() != null) {
+            System.out.println(profile.getCanonicalizationCache());
+        }
+        return 0;
+    }
+
+    private int signBatch() throws Exception {
+        if (outputDir == null) {
+            throw new IllegalArgumentException("Batch mode requires --output-dir.");
+        }
+        DocumentBatch batch = manifestPath != null
+                ? DocumentBatch.fromManifest(manifestPath)
+                : DocumentBatch.fromDirectory(inputDir, glob);
+        System.out.println("Signing " + batch.size() + " documents into '" + outputDir + "'...");
+
+        BatchReport report = new BatchReport();
+        SigningProfile profile = profile();
+        try (SigningSession session = openSession(profile);
+             SigningPipeline<Path> pipeline = new SigningPipeline<>(session,
+                     Documents::open,
+                     (document, signed, error, nanos) -> write(batch, report, document, signed, error, nanos),
+                     threads, queueSize > 0 ? queueSize : 2 * threads, !unordered, keyThreads > 0)) {
+            for (Path document : batch.getDocuments()) {
+                pipeline.submit(document);
+            }
+        }
+        report.finish();
+        report.print(System.out);
+        if (profile.getCanonicalizationCache() != null) {
+            System.out.println(profile.getCanonicalizationCache());
+        }
+        return report.getFailed() == 0 ? 0 : 1;
+    }
 
-        try (InputStream documentIs = Files.newInputStream(inputDocumentPath);
-             InputStream p12Is = Files.newInputStream(p12Path)) {
+    private void write(DocumentBatch batch, BatchReport report, Path document, DSSDocument signed, Throwable error, long nanos) {
+        if (error != null) {
+            report.failure(document, error, nanos);
+            return;
+        }
+        Path target = batch.resolveTarget(document, outputDir);
+        try {
+            Files.createDirectories(target.toAbsolutePath().getParent());
+            Documents.write(signed, target);
+            report.success(document, target, nanos);
+        } catch (Exception e) {
+            report.failure(document, e, nanos);
+        }
+    }
 
-            String signedXml = Signer.sign(documentIs, p12Is, password);
+    private SigningSession openSession(SigningProfile profile) throws Exception {
+        TokenPool tokens;
+        if (pkcs11Library != null) {
+            TokenProvider provider = TokenProvider.pkcs11(pkcs11Library, pkcs11Slot, readPassword());
+            tokens = new TokenPool(provider, tokenPoolSize > 0 ? tokenPoolSize : Math.max(threads, keyThreads), TokenPool.DEFAULT_TIMEOUT, alias);
+        } else if (p12Path != null) {
+            TokenProvider provider = TokenProvider.keyStore(p12Path, readPassword());
+            tokens = PnkdssMetrics.time(PnkdssMetrics.SIGN, "keystore_load", () -> new TokenPool(provider, 1, TokenPool.DEFAULT_TIMEOUT, alias));
+        } else {
+            throw new IllegalArgumentException("Either --keystore or --pkcs11-library is required.");
+        }
+        return new SigningSession(new TokenKeyBackend(tokens, keyThreads), profile);
+    }
 
-            Files.write(outputDocumentPath, signedXml.getBytes(StandardCharsets.UTF_8));
-            System.out.println("Document signed and saved to: " + outputDocumentPath);
+    private SigningProfile profile() throws Exception {
+        SigningProfile profile = loadProfiles().get(profileName);
+        if (c14nCacheMegabytes > 0) {
+            profile = profile.withCanonicalizationCache(
+                    new CanonicalizationCache(CanonicalizationCache.DEFAULT_MAX_SIZE, c14nCacheMegabytes * 1024L * 1024));
         }
-        return 0;
+        return profile;
+    }
+
+    private SigningProfiles loadProfiles() throws Exception {
+        return profilesPath != null ? SigningProfiles.load(profilesPath) : SigningProfiles.defaults();
+    }
+
+    private char[] readPassword() throws Exception {
+        return new String(Files.readAllBytes(passPath), StandardCharsets.UTF_8).trim().toCharArray();
     }
 
     public Path getInputDocumentPath() {
@@ -58,6 +209,110 @@ public class SignCommand implements Callable<Integer> {
       this.outputDocumentPath = outputDocumentPath;
     }
 
+    public boolean isDetached() {
+      return detached;
+    }
+
+    public void setDetached(boolean detached) {
+      this.detached = detached;
+    }
+
+    public Path getInputDir() {
+      return inputDir;
+    }
+
+    public void setInputDir(Path inputDir) {
+      this.inputDir = inputDir;
+    }
+
+    public String getGlob() {
+      return glob;
+    }
+
+    public void setGlob(String glob) {
+      this.glob = glob;
+    }
+
+    public Path getManifestPath() {
+      return manifestPath;
+    }
+
+    public void setManifestPath(Path manifestPath) {
+      this.manifestPath = manifestPath;
+    }
+
+    public Path getOutputDir() {
+      return outputDir;
+    }
+
+    public void setOutputDir(Path outputDir) {
+      this.outputDir = outputDir;
+    }
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public void setThreads(int threads) {
+      this.threads = threads;
+    }
+
+    public int getQueueSize() {
+      return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+      this.queueSize = queueSize;
+    }
+
+    public int getKeyThreads() {
+      return keyThreads;
+    }
+
+    public void setKeyThreads(int keyThreads) {
+      this.keyThreads = keyThreads;
+    }
+
+    public boolean isUnordered() {
+      return unordered;
+    }
+
+    public void setUnordered(boolean unordered) {
+      this.unordered = unordered;
+    }
+
+    public Path getMetricsPath() {
+      return metricsPath;
+    }
+
+    public void setMetricsPath(Path metricsPath) {
+      this.metricsPath = metricsPath;
+    }
+
+    public Path getProfilesPath() {
+      return profilesPath;
+    }
+
+    public void setProfilesPath(Path profilesPath) {
+      this.profilesPath = profilesPath;
+    }
+
+    public String getProfileName() {
+      return profileName;
+    }
+
+    public void setProfileName(String profileName) {
+      this.profileName = profileName;
+    }
+
+    public int getC14nCacheMegabytes() {
+      return c14nCacheMegabytes;
+    }
+
+    public void setC14nCacheMegabytes(int c14nCacheMegabytes) {
+      this.c14nCacheMegabytes = c14nCacheMegabytes;
+    }
+
     public Path getP12Path() {
       return p12Path;
     }
@@ -73,4 +328,36 @@ public class SignCommand implements Callable<Integer> {
     public void setPassPath(Path passPath) {
       this.passPath = passPath;
     }
+
+    public String getAlias() {
+      return alias;
+    }
+
+    public void setAlias(String alias) {
+      this.alias = alias;
+    }
+
+    public String getPkcs11Library() {
+      return pkcs11Library;
+    }
+
+    public void setPkcs11Library(String pkcs11Library) {
+      this.pkcs11Library = pkcs11Library;
+    }
+
+    public int getPkcs11Slot() {
+      return pkcs11Slot;
+    }
+
+    public void setPkcs11Slot(int pkcs11Slot) {
+      this.pkcs11Slot = pkcs11Slot;
+    }
+
+    public int getTokenPoolSize() {
+      return tokenPoolSize;
+    }
+
+    public void setTokenPoolSize(int tokenPoolSize) {
+      this.tokenPoolSize = tokenPoolSize;
+    }
 }
\ No newline at end of file
@@ -1,48 +1,191 @@
 package com.github.luk.pnkdss.commands;
 
+import com.github.luk.pnkdss.utils.CertificateCache;
+import com.github.luk.pnkdss.utils.DocumentBatch;
+import com.github.luk.pnkdss.utils.Documents;
+import com.github.luk.pnkdss.utils.PnkdssMetrics;
+import com.github.luk.pnkdss.utils.RevocationStore;
 import com.github.luk.pnkdss.utils.SignatureResult;
-import com.github.luk.pnkdss.utils.Validator;
+import com.github.luk.pnkdss.utils.StreamingDigester;
+import com.github.luk.pnkdss.utils.TrustAnchorStore;
+import com.github.luk.pnkdss.utils.ValidationMode;
+import com.github.luk.pnkdss.utils.VerificationReport;
+import com.github.luk.pnkdss.utils.VerificationSession;
+import eu.europa.esig.dss.model.DSSDocument;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
-import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 
-@Command(name = "verify", description = "Verifies a signed XML document and extracts the signing certificate.")
+@Command(name = "verify", description = "Verifies a signed XML document and extracts the signing certificate, or verifies a batch of documents.")
 public class VerifyCommand implements Callable<Integer> {
 
-    @Option(names = {"-s", "--signed"}, description = "Path to the signed XML document.", required = true)
+    @Option(names = {"-s", "--signed"}, description = "Path to the signed XML document.")
     private Path documentPath;
 
-    @Option(names = {"-c", "--certificate"}, description = "Path to the output certificate file (PEM format).", required = true)
+    @Option(names = {"-c", "--certificate"}, description = "Path to the output certificate file (PEM format).")
     private Path certOutputPath;
 
+    @Option(names = {"--detached-content"}, description = "Path to the payload of a detached signature.")
+    private Path detachedContentPath;
+
+    @Option(names = {"--fast"}, description = "Checks only the signature value and the references, reports are not built.")
+    private boolean fast;
+
+    @Option(names = {"--cached-chains"}, description = "Reuses the cached chain outcome of a signing certificate instead of running the validation policy again. Crypto constraints and certificate validity are then only checked when the outcome is cached.")
+    private boolean cachedChains;
+
+    @Option(names = {"--detailed-report"}, description = "Writes the DSS detailed report (XML) of the document to this file.")
+    private Path detailedReportPath;
+
+    @Option(names = {"--trust-anchors"}, description = "Directory with trusted PEM/DER certificates or a trusted list XML file.")
+    private Path trustAnchorsPath;
+
+    @Option(names = {"--revocation-dir"}, description = "Directory with CRLs (*.crl) and OCSP responses (*.ocsp) used instead of online revocation data.")
+    private Path revocationDir;
+
+    @Option(names = {"--cert-cache-size"}, description = "Signing certificates whose chain outcome is cached (default: ${DEFAULT-VALUE}).")
+    private int certCacheSize = CertificateCache.DEFAULT_MAX_SIZE;
+
+    @Option(names = {"--cert-cache-ttl"}, description = "Seconds a cached chain outcome is used (default: ${DEFAULT-VALUE}).")
+    private long certCacheTtl = CertificateCache.DEFAULT_TTL.getSeconds();
+
+    @Option(names = {"--metrics-file"}, description = "Writes sign/verify metrics in the Prometheus text format to this file at exit.")
+    private Path metricsPath;
+
+    @Option(names = {"-i", "--input-dir"}, description = "Batch mode: directory with the signed XML documents.")
+    private Path inputDir;
+
+    @Option(names = {"-g", "--glob"}, description = "Batch mode: glob pattern selecting documents in the input directory (default: ${DEFAULT-VALUE}).")
+    private String glob = DocumentBatch.DEFAULT_GLOB;
+
+    @Option(names = {"-m", "--manifest"}, description = "Batch mode: file listing the signed XML documents, one per line.")
+    private Path manifestPath;
+
+    @Option(names = {"-r", "--report"}, description = "Batch mode: output file for the JSON lines report (default: standard output).")
+    private Path reportPath;
+
+    @Option(names = {"-t", "--threads"}, description = "Batch mode: number of verification threads (default: number of processors).")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
     @Override
     public Integer call() throws Exception {
+        if (metricsPath != null) {
+            PnkdssMetrics.dumpOnExit(metricsPath);
+        }
+        boolean batch = inputDir != null || manifestPath != null;
+        if (!batch && (documentPath == null || certOutputPath == null)) {
+            throw new IllegalArgumentException("Either --signed and --certificate, or --input-dir/--manifest are required.");
+        }
+        try (TrustAnchorStore trustAnchors = trustAnchorsPath != null ? TrustAnchorStore.load(trustAnchorsPath) : null;
+             RevocationStore revocation = revocationDir != null ? RevocationStore.load(revocationDir) : null;
+             CertificateCache certificateCache = new CertificateCache(certCacheSize, Duration.ofSeconds(certCacheTtl))) {
+            VerificationSession session = new VerificationSession(validationMode(), certificateCache, trustAnchors, revocation);
+            return batch ? verifyBatch(session) : verifyDocument(session);
+        }
+    }
+
+    private int verifyDocument(VerificationSession session) throws Exception {
         System.out.println("Verifying document: " + documentPath);
 
-        try (InputStream documentIs = Files.newInputStream(documentPath)) {
-            SignatureResult sr = Validator.check(documentIs);
-
-            System.out.println("\n--- Signature Verification Result ---");
-            if (sr.isResultOK()) {
-                System.out.println("Signature is mathematically valid.");
-                if (sr.getPem() != null) {
-                    Files.write(certOutputPath, sr.getPem().getBytes(StandardCharsets.UTF_8));
-                    System.out.println("Signing certificate saved to: " + certOutputPath);
-                } else {
-                    System.err.println("Error: Signature is valid, but the certificate in PEM format was not found in SignatureResult.");
-                }
+        DSSDocument signature = Documents.open(documentPath);
+        SignatureResult sr = detachedContentPath != null
+                ? session.checkDetached(signature, StreamingDigester.digest(detachedContentPath, signature))
+                : session.checkDocument(signature);
+
+        System.out.println("\n--- Signature Verification Result ---");
+        if (!sr.getTimestamp().isEmpty()) {
+            System.out.println("Signature timestamp: " + sr.getTimestamp());
+        }
+        if (!sr.getSignatureAlgorithm().isEmpty()) {
+            System.out.println("Signature algorithm: " + sr.getSignatureAlgorithm());
+        }
+        if (sr.isResultOK()) {
+            System.out.println("Signature is mathematically valid.");
+            if (sr.getPem() != null) {
+                Files.write(certOutputPath, sr.getPem().getBytes(StandardCharsets.UTF_8));
+                System.out.println("Signing certificate saved to: " + certOutputPath);
             } else {
-                System.out.println("Signature IS NOT mathematically valid!");
+                System.err.println("Error: Signature is valid, but the certificate in PEM format was not found in SignatureResult.");
             }
+        } else {
+            System.out.println("Signature IS NOT mathematically valid!");
+        }
+        if (detailedReportPath != null) {
+            // built only now in the fast mode
+            Files.write(detailedReportPath, sr.getXmlDetailedReport().getBytes(StandardCharsets.UTF_8));
+            System.out.println("Detailed report saved to: " + detailedReportPath);
         }
         return 0;
     }
 
+    private int verifyBatch(VerificationSession session) throws Exception {
+        DocumentBatch batch = manifestPath != null
+                ? DocumentBatch.fromManifest(manifestPath)
+                : DocumentBatch.fromDirectory(inputDir, glob);
+
+        if (reportPath == null) {
+            // standard output is flushed, not closed
+            Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+            return verifyBatch(batch, session, out);
+        }
+        try (Writer out = Files.newBufferedWriter(reportPath, StandardCharsets.UTF_8)) {
+            return verifyBatch(batch, session, out);
+        }
+    }
+
+    private int verifyBatch(DocumentBatch batch, VerificationSession session, Writer out) throws Exception {
+        VerificationReport report = new VerificationReport(out);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> batch.getDocuments().parallelStream().forEach(document -> verify(session, report, document))).get();
+        } finally {
+            pool.shutdown();
+        }
+        String summary = report.summary();
+        out.write(summary + "\n");
+        out.flush();
+        if (reportPath != null) {
+            System.out.println(summary);
+            System.out.println(session.getCertificateCache());
+        }
+        return report.getErrors() == 0 && report.getInvalid() == 0 ? 0 : 1;
+    }
+
+    private static void verify(VerificationSession session, VerificationReport report, Path document) {
+        long start = System.nanoTime();
+        SignatureResult sr = null;
+        Exception failure = null;
+        try {
+            sr = session.checkDocument(Documents.open(document));
+        } catch (Exception e) {
+            failure = e;
+        }
+        long nanos = System.nanoTime() - start;
+        try {
+            if (failure == null) {
+                report.record(document, sr, nanos);
+            } else {
+                report.error(document, failure, nanos);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ValidationMode validationMode() {
+        return fast ? ValidationMode.SIGNATURE_ONLY : cachedChains ? ValidationMode.CACHED_CHAIN : ValidationMode.FULL;
+    }
+
     public Path getDocumentPath() {
       return documentPath;
     }
@@ -58,4 +201,116 @@ public class VerifyCommand implements Callable<Integer> {
     public void setCertOutputPath(Path certOutputPath) {
       this.certOutputPath = certOutputPath;
     }
-}
\ No newline at end of file
+
+    public Path getDetachedContentPath() {
+      return detachedContentPath;
+    }
+
+    public void setDetachedContentPath(Path detachedContentPath) {
+      this.detachedContentPath = detachedContentPath;
+    }
+
+    public boolean isFast() {
+      return fast;
+    }
+
+    public void setFast(boolean fast) {
+      this.fast = fast;
+    }
+
+    public boolean isCachedChains() {
+      return cachedChains;
+    }
+
+    public void setCachedChains(boolean cachedChains) {
+      this.cachedChains = cachedChains;
+    }
+
+    public Path getDetailedReportPath() {
+      return detailedReportPath;
+    }
+
+    public void setDetailedReportPath(Path detailedReportPath) {
+      this.detailedReportPath = detailedReportPath;
+    }
+
+    public Path getTrustAnchorsPath() {
+      return trustAnchorsPath;
+    }
+
+    public void setTrustAnchorsPath(Path trustAnchorsPath) {
+      this.trustAnchorsPath = trustAnchorsPath;
+    }
+
+    public Path getRevocationDir() {
+      return revocationDir;
+    }
+
+    public void setRevocationDir(Path revocationDir) {
+      this.revocationDir = revocationDir;
+    }
+
+    public int getCertCacheSize() {
+      return certCacheSize;
+    }
+
+    public void setCertCacheSize(int certCacheSize) {
+      this.certCacheSize = certCacheSize;
+    }
+
+    public long getCertCacheTtl() {
+      return certCacheTtl;
+    }
+
+    public void setCertCacheTtl(long certCacheTtl) {
+      this.certCacheTtl = certCacheTtl;
+    }
+
+    public Path getMetricsPath() {
+      return metricsPath;
+    }
+
+    public void setMetricsPath(Path metricsPath) {
+      this.metricsPath = metricsPath;
+    }
+
+    public Path getInputDir() {
+      return inputDir;
+    }
+
+    public void setInputDir(Path inputDir) {
+      this.inputDir = inputDir;
+    }
+
+    public String getGlob() {
+      return glob;
+    }
+
+    public void setGlob(String glob) {
+      this.glob = glob;
+    }
+
+    public Path getManifestPath() {
+      return manifestPath;
+    }
+
+    public void setManifestPath(Path manifestPath) {
+      this.manifestPath = manifestPath;
+    }
+
+    public Path getReportPath() {
+      return reportPath;
+    }
+
+    public void setReportPath(Path reportPath) {
+      this.reportPath = reportPath;
+    }
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public void setThreads(int threads) {
+      this.threads = threads;
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.luk.pnkdss.utils;
+
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-document outcome of a batch run and its overall throughput.
+ */
+public class BatchReport {
+
+	public static class Entry {
+
+		private final Path source;
+		private final Path target;
+		private final Throwable error;
+		private final long nanos;
+
+		Entry(Path source, Path target, Throwable error, long nanos) {
+			this.source = source;
+			this.target = target;
+			this.error = error;
+			this.nanos = nanos;
+		}
+
+		public Path getSource() {
+			return source;
+		}
+
+		public Path getTarget() {
+			return target;
+		}
+
+		public Throwable getError() {
+			return error;
+		}
+
+		public boolean isOK() {
+			return error == null;
+		}
+
+		public long getMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(nanos);
+		}
+	}
+
+	private final List<Entry> entries = new ArrayList<>();
+	private final long started = System.nanoTime();
+	private long finished;
+
+	public synchronized void success(Path source, Path target, long nanos) {
+		entries.add(new Entry(source, target, null, nanos));
+	}
+
+	public synchronized void failure(Path source, Throwable error, long nanos) {
+		entries.add(new Entry(source, null, error, nanos));
+	}
+
+	public synchronized void finish() {
+		finished = System.nanoTime();
+	}
+
+	public synchronized List<Entry> getEntries() {
+		return Collections.unmodifiableList(new ArrayList<>(entries));
+	}
+
+	public synchronized int getSucceeded() {
+		return (int) entries.stream().filter(Entry::isOK).count();
+	}
+
+	public synchronized int getFailed() {
+		return entries.size() - getSucceeded();
+	}
+
+	/**
+	 * @return documents per second, measured until {@link #finish()}
+	 */
+	public synchronized double getThroughput() {
+		long elapsed = (finished == 0 ? System.nanoTime() : finished) - started;
+		return elapsed <= 0 ? 0 : entries.size() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+	}
+
+	public synchronized double getElapsedSeconds() {
+		long elapsed = (finished == 0 ? System.nanoTime() : finished) - started;
+		return elapsed / (double) TimeUnit.SECONDS.toNanos(1);
+	}
+
+	public synchronized void print(PrintStream out) {
+		for (Entry entry : entries) {
+			if (entry.isOK()) {
+				out.println("OK     " + entry.getSource() + " -> " + entry.getTarget() + " (" + entry.getMillis() + " ms)");
+			} else {
+				out.println("FAILED " + entry.getSource() + ": " + entry.getError());
+			}
+		}
+		out.println(String.format(Locale.ROOT, "Processed %d documents (%d OK, %d failed) in %.3f s, %.1f documents/s",
+				entries.size(), getSucceeded(), getFailed(), getElapsedSeconds(), getThroughput()));
+	}
+}
@@ -0,0 +1,293 @@
+package com.github.luk.pnkdss.utils;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import eu.europa.esig.dss.xades.reference.CanonicalizationTransform;
+import eu.europa.esig.dss.xades.reference.DSSTransform;
+import eu.europa.esig.dss.xades.reference.DSSTransformOutput;
+
+/**
+ * Bounded LRU cache of canonicalized signed data, keyed by the SHA-256 digest
+ * of the referenced subtree: names, namespaces, attributes and text of the
+ * subtree, the namespace declarations in scope, the transforms applied before
+ * the canonicalization and the canonicalization method. An envelope whose
+ * signed element did not change since it was last signed is not canonicalized
+ * again, the digest is taken over the cached bytes. DSS canonicalizes the
+ * reference once for the data to sign and once for the signed document, so
+ * every signature hits the cache at least once.
+ * <p>
+ * Entries never go stale, they are evicted only by the entry and byte
+ * limits. The cache is thread-safe and can be shared by the profiles of a
+ * process, see {@link SigningProfile#withCanonicalizationCache}; different
+ * transform chains never share an entry.
+ */
+public class CanonicalizationCache implements AutoCloseable {
+
+	public static final int DEFAULT_MAX_SIZE = 1000;
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	private final int maxSize;
+	private final long maxBytes;
+	private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private final PnkdssMetrics.Meters meters;
+
+	public CanonicalizationCache() {
+		this(DEFAULT_MAX_SIZE, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * @param maxSize  entries kept, the least recently used one is evicted first
+	 * @param maxBytes canonicalized bytes kept, larger results are not cached
+	 */
+	public CanonicalizationCache(int maxSize, long maxBytes) {
+		if (maxSize < 1 || maxBytes < 1) {
+			throw new IllegalArgumentException("Cache size must be positive: " + maxSize + " entries, " + maxBytes + " bytes");
+		}
+		this.maxSize = maxSize;
+		this.maxBytes = maxBytes;
+		this.meters = PnkdssMetrics.monitorCache("canonicalization", this, CanonicalizationCache::getHits,
+				CanonicalizationCache::getMisses, CanonicalizationCache::getEvictions, CanonicalizationCache::size);
+	}
+
+	/**
+	 * @param canonicalization canonicalization method URI
+	 * @param preceding        transforms applied before the canonicalization,
+	 *                         each as its algorithm URI and parameters, e.g.
+	 *                         the XPath of a filter
+	 * @return transform canonicalizing through this cache, written to the
+	 *         signature like a plain {@link CanonicalizationTransform}
+	 */
+	public DSSTransform transform(String canonicalization, String... preceding) {
+		return new CachedCanonicalization(canonicalization, preceding);
+	}
+
+	synchronized byte[] get(String key) {
+		byte[] canonicalized = entries.get(key);
+		if (canonicalized == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return canonicalized;
+	}
+
+	synchronized void put(String key, byte[] canonicalized) {
+		if (canonicalized.length > maxBytes) {
+			return;
+		}
+		byte[] previous = entries.put(key, canonicalized);
+		bytes += canonicalized.length - (previous != null ? previous.length : 0);
+		Iterator<byte[]> eldest = entries.values().iterator();
+		while (entries.size() > maxSize || bytes > maxBytes) {
+			bytes -= eldest.next().length;
+			eldest.remove();
+			evictions++;
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Removes the statistics of the cache from the metrics registry.
+	 */
+	@Override
+	public void close() {
+		meters.close();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return canonicalized bytes held
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return entries removed because of the entry or byte limit
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized double getHitRate() {
+		long requests = hits + misses;
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(Locale.ROOT,
+				"Canonicalization cache: %d entries, %d bytes, %d hits, %d misses, %d evictions, hit rate %.1f %%",
+				entries.size(), bytes, hits, misses, evictions, 100 * getHitRate());
+	}
+
+	/**
+	 * Same algorithm and output as the DSS transform, looked up before it runs.
+	 */
+	private final class CachedCanonicalization extends CanonicalizationTransform {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String canonicalization;
+		private final String[] preceding;
+
+		CachedCanonicalization(String canonicalization, String[] preceding) {
+			super(canonicalization);
+			this.canonicalization = canonicalization;
+			this.preceding = preceding.clone();
+		}
+
+		@Override
+		public DSSTransformOutput performTransform(DSSTransformOutput input) {
+			String key = key(input);
+			byte[] canonicalized = get(key);
+			if (canonicalized == null) {
+				canonicalized = super.performTransform(input).getBytes();
+				put(key, canonicalized);
+			}
+			return new DSSTransformOutput(canonicalized);
+		}
+
+		private String key(DSSTransformOutput input) {
+			Hash hash = new Hash();
+			hash.add(preceding.length);
+			for (String transform : preceding) {
+				hash.add(transform);
+			}
+			hash.add(canonicalization);
+			Node node = input.getNode();
+			if (node == null) {
+				hash.add(input.getBytes());
+				return hash.key();
+			}
+			// inclusive canonicalization copies the declarations of the ancestors
+			for (Node parent = node.getParentNode(); parent != null; parent = parent.getParentNode()) {
+				NamedNodeMap attributes = parent.getAttributes();
+				for (int i = 0; attributes != null && i < attributes.getLength(); i++) {
+					String name = attributes.item(i).getNodeName();
+					if (name.startsWith("xmlns") || name.startsWith("xml:")) {
+						hash.add(name);
+						hash.add(attributes.item(i).getNodeValue());
+					}
+				}
+				hash.add(-1);
+			}
+			// iterative, signed elements may be nested deeper than the stack allows
+			Node current = node;
+			while (current != null) {
+				hash.add(current);
+				if (current.getFirstChild() != null) {
+					current = current.getFirstChild();
+					continue;
+				}
+				while (current != node && current.getNextSibling() == null) {
+					current = current.getParentNode();
+					hash.add(-2);
+				}
+				current = current == node ? null : current.getNextSibling();
+			}
+			return hash.key();
+		}
+	}
+
+	/**
+	 * SHA-256 over a length prefixed encoding of the subtree, so a cached
+	 * entry can not be hit by a crafted document. Small values are buffered.
+	 */
+	private static final class Hash {
+		private final MessageDigest digest;
+		private final ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+		Hash() {
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		void add(int value) {
+			if (buffer.remaining() < Integer.BYTES) {
+				flush();
+			}
+			buffer.putInt(value);
+		}
+
+		void add(String value) {
+			if (value == null) {
+				add(-3);
+				return;
+			}
+			add(value.length());
+			for (int i = 0; i < value.length(); i++) {
+				if (buffer.remaining() < Character.BYTES) {
+					flush();
+				}
+				buffer.putChar(value.charAt(i));
+			}
+		}
+
+		void add(byte[] value) {
+			add(value.length);
+			flush();
+			digest.update(value);
+		}
+
+		void add(Node node) {
+			add(node.getNodeType());
+			add(node.getNamespaceURI());
+			add(node.getNodeName());
+			if (node.getNodeType() != Node.ELEMENT_NODE) {
+				add(node.getNodeValue());
+				return;
+			}
+			NamedNodeMap attributes = node.getAttributes();
+			add(attributes.getLength());
+			for (int i = 0; i < attributes.getLength(); i++) {
+				Attr attribute = (Attr) attributes.item(i);
+				add(attribute.getNamespaceURI());
+				add(attribute.getName());
+				add(attribute.getValue());
+			}
+		}
+
+		String key() {
+			flush();
+			return Base64.getEncoder().encodeToString(digest.digest());
+		}
+
+		private void flush() {
+			digest.update(buffer.array(), 0, buffer.position());
+			buffer.clear();
+		}
+	}
+}
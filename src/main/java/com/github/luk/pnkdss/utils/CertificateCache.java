@@ -0,0 +1,163 @@
+package com.github.luk.pnkdss.utils;
+
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.model.x509.CertificateToken;
+
+/**
+ * Bounded LRU cache of {@link CertificateInfo} keyed by the SHA-256 digest of
+ * the certificate. Entries expire after the TTL, so a changed trust or
+ * revocation status is picked up eventually.
+ * <p>
+ * The cache is thread-safe and meant to be shared by all verifications of a
+ * process.
+ */
+public class CertificateCache implements AutoCloseable {
+
+	public static final int DEFAULT_MAX_SIZE = 1000;
+	public static final Duration DEFAULT_TTL = Duration.ofHours(1);
+
+	private static final class Entry {
+		final CertificateInfo info;
+		final long expiresAt;
+
+		Entry(CertificateInfo info, long expiresAt) {
+			this.info = info;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private final int maxSize;
+	private final long ttlNanos;
+	private final LongSupplier clock;
+	private final LinkedHashMap<String, Entry> entries;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private final PnkdssMetrics.Meters meters;
+
+	public CertificateCache() {
+		this(DEFAULT_MAX_SIZE, DEFAULT_TTL);
+	}
+
+	/**
+	 * @param maxSize entries kept, the least recently used one is evicted first
+	 * @param ttl     how long an entry is used after it was stored
+	 */
+	public CertificateCache(int maxSize, Duration ttl) {
+		this(maxSize, ttl, System::nanoTime);
+	}
+
+	CertificateCache(int maxSize, Duration ttl, LongSupplier clock) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+		}
+		this.maxSize = maxSize;
+		this.ttlNanos = ttl.toNanos();
+		this.clock = clock;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() > CertificateCache.this.maxSize) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+		this.meters = PnkdssMetrics.monitorCache("certificate", this, CertificateCache::getHits, CertificateCache::getMisses,
+				CertificateCache::getEvictions, CertificateCache::size);
+	}
+
+	/**
+	 * @return cached info, or {@code null} if absent or expired
+	 */
+	public synchronized CertificateInfo get(CertificateToken certificate) {
+		String key = key(certificate);
+		Entry entry = entries.get(key);
+		if (entry != null && entry.expiresAt - clock.getAsLong() <= 0) {
+			entries.remove(key);
+			evictions++;
+			entry = null;
+		}
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.info;
+	}
+
+	/**
+	 * @return cached info, created and stored if absent
+	 */
+	public CertificateInfo getOrCreate(CertificateToken certificate) {
+		CertificateInfo info = get(certificate);
+		if (info == null) {
+			info = CertificateInfo.of(certificate);
+			put(info);
+		}
+		return info;
+	}
+
+	/**
+	 * Stores the info, replacing a previous one and restarting its TTL.
+	 */
+	public synchronized void put(CertificateInfo info) {
+		entries.put(key(info.getCertificate()), new Entry(info, clock.getAsLong() + ttlNanos));
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Removes the statistics of the cache from the metrics registry.
+	 */
+	@Override
+	public void close() {
+		meters.close();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return entries removed because of the size limit or the TTL
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized double getHitRate() {
+		long requests = hits + misses;
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(Locale.ROOT, "Certificate cache: %d entries, %d hits, %d misses, %d evictions, hit rate %.1f %%",
+				entries.size(), hits, misses, evictions, 100 * getHitRate());
+	}
+
+	static String key(CertificateToken certificate) {
+		return Base64.getEncoder().encodeToString(certificate.getDigest(DigestAlgorithm.SHA256));
+	}
+}
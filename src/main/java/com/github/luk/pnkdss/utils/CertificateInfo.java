@@ -0,0 +1,87 @@
+package com.github.luk.pnkdss.utils;
+
+import java.util.Collections;
+import java.util.List;
+
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.spi.DSSUtils;
+
+/**
+ * What {@link VerificationSession} knows about a signing certificate. The
+ * chain and trust outcome are present once a full validation has run.
+ */
+public final class CertificateInfo {
+
+	private final CertificateToken certificate;
+	private final String pem;
+	private final String subject;
+	private final String issuer;
+	private final List<CertificateToken> chain;
+	private final boolean trusted;
+	private final String indication;
+
+	private CertificateInfo(CertificateToken certificate, String pem, String subject, String issuer,
+			List<CertificateToken> chain, boolean trusted, String indication) {
+		this.certificate = certificate;
+		this.pem = pem;
+		this.subject = subject;
+		this.issuer = issuer;
+		this.chain = chain;
+		this.trusted = trusted;
+		this.indication = indication;
+	}
+
+	/**
+	 * @return info without the chain outcome
+	 */
+	public static CertificateInfo of(CertificateToken certificate) {
+		return new CertificateInfo(certificate, DSSUtils.convertToPEM(certificate),
+				certificate.getSubject().getRFC2253(), certificate.getIssuer().getRFC2253(),
+				Collections.singletonList(certificate), false, null);
+	}
+
+	/**
+	 * @param chain      signing certificate first
+	 * @param indication outcome of the chain, trust and revocation checks, the
+	 *                   indication of a valid signature by this certificate
+	 */
+	public CertificateInfo withChain(List<CertificateToken> chain, boolean trusted, String indication) {
+		return new CertificateInfo(certificate, pem, subject, issuer,
+				Collections.unmodifiableList(chain), trusted, indication);
+	}
+
+	public CertificateToken getCertificate() {
+		return certificate;
+	}
+
+	public String getPem() {
+		return pem;
+	}
+
+	public String getSubject() {
+		return subject;
+	}
+
+	public String getIssuer() {
+		return issuer;
+	}
+
+	public List<CertificateToken> getChain() {
+		return chain;
+	}
+
+	public boolean isTrusted() {
+		return trusted;
+	}
+
+	/**
+	 * @return {@code null} until a full validation evaluated the chain
+	 */
+	public String getIndication() {
+		return indication;
+	}
+
+	public boolean isChainEvaluated() {
+		return indication != null;
+	}
+}
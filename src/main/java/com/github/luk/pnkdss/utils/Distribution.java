@@ -0,0 +1,78 @@
+package com.github.luk.pnkdss.utils;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Distribution of a non-negative size, written as {@code N} (fixed),
+ * {@code MIN-MAX} (uniform) or {@code lognormal:MEDIAN:SIGMA}, the usual
+ * shape of real document sizes.
+ */
+public final class Distribution {
+
+	private enum Kind {
+		FIXED, UNIFORM, LOGNORMAL
+	}
+
+	private final String spec;
+	private final Kind kind;
+	private final double a;
+	private final double b;
+
+	private Distribution(String spec, Kind kind, double a, double b) {
+		this.spec = spec;
+		this.kind = kind;
+		this.a = a;
+		this.b = b;
+	}
+
+	public static Distribution fixed(long value) {
+		return parse(Long.toString(value));
+	}
+
+	public static Distribution parse(String spec) {
+		String s = spec.trim().toLowerCase(Locale.ROOT);
+		try {
+			if (s.startsWith("lognormal:")) {
+				String[] parts = s.split(":");
+				if (parts.length == 3) {
+					double median = Double.parseDouble(parts[1]);
+					double sigma = Double.parseDouble(parts[2]);
+					if (median > 0 && sigma >= 0) {
+						return new Distribution(spec, Kind.LOGNORMAL, Math.log(median), sigma);
+					}
+				}
+			} else if (s.indexOf('-') > 0) {
+				long min = Long.parseLong(s.substring(0, s.indexOf('-')));
+				long max = Long.parseLong(s.substring(s.indexOf('-') + 1));
+				if (min >= 0 && min <= max) {
+					return new Distribution(spec, Kind.UNIFORM, min, max);
+				}
+			} else {
+				long value = Long.parseLong(s);
+				if (value >= 0) {
+					return new Distribution(spec, Kind.FIXED, value, value);
+				}
+			}
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		throw new IllegalArgumentException("Invalid distribution '" + spec + "', expected N, MIN-MAX or lognormal:MEDIAN:SIGMA.");
+	}
+
+	public long sample(Random random) {
+		switch (kind) {
+		case UNIFORM:
+			return (long) a + (long) (random.nextDouble() * (b - a + 1));
+		case LOGNORMAL:
+			return Math.round(Math.exp(a + b * random.nextGaussian()));
+		default:
+			return (long) a;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return spec;
+	}
+}
@@ -0,0 +1,85 @@
+package com.github.luk.pnkdss.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Set of input documents for batch processing, taken from a directory (filtered
+ * by a glob) or from a manifest file.
+ */
+public class DocumentBatch {
+
+	public static final String DEFAULT_GLOB = "*.xml";
+
+	private final Path baseDir;
+	private final List<Path> documents;
+
+	private DocumentBatch(Path baseDir, List<Path> documents) {
+		this.baseDir = baseDir;
+		this.documents = Collections.unmodifiableList(documents);
+	}
+
+	/**
+	 * @param dir  directory searched recursively
+	 * @param glob pattern matched against the file name or the path relative to dir
+	 */
+	public static DocumentBatch fromDirectory(Path dir, String glob) throws IOException {
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + (glob == null ? DEFAULT_GLOB : glob));
+		try (Stream<Path> files = Files.walk(dir)) {
+			List<Path> documents = files
+					.filter(Files::isRegularFile)
+					.filter(p -> matcher.matches(dir.relativize(p)) || matcher.matches(p.getFileName()))
+					.sorted()
+					.collect(Collectors.toList());
+			return new DocumentBatch(dir, documents);
+		}
+	}
+
+	/**
+	 * @param manifest file with one document path per line, blank lines and lines
+	 *                 starting with '#' are skipped, relative paths are resolved
+	 *                 against the manifest directory
+	 */
+	public static DocumentBatch fromManifest(Path manifest) throws IOException {
+		Path baseDir = manifest.toAbsolutePath().getParent();
+		List<Path> documents = new ArrayList<>();
+		for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+			String entry = line.trim();
+			if (entry.isEmpty() || entry.startsWith("#")) {
+				continue;
+			}
+			documents.add(baseDir.resolve(entry));
+		}
+		return new DocumentBatch(baseDir, documents);
+	}
+
+	public List<Path> getDocuments() {
+		return documents;
+	}
+
+	public int size() {
+		return documents.size();
+	}
+
+	/**
+	 * @return target path in outputDir keeping the document path relative to the
+	 *         batch base directory, or just its file name for documents outside it
+	 */
+	public Path resolveTarget(Path document, Path outputDir) {
+		Path absolute = document.toAbsolutePath().normalize();
+		Path base = baseDir.toAbsolutePath().normalize();
+		if (absolute.startsWith(base)) {
+			return outputDir.resolve(base.relativize(absolute).toString());
+		}
+		return outputDir.resolve(document.getFileName().toString());
+	}
+}
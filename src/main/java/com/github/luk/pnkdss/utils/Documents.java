@@ -0,0 +1,68 @@
+package com.github.luk.pnkdss.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.concurrent.ThreadLocalRandom;
+
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.FileDocument;
+
+/**
+ * File backed documents, read by DSS as a stream instead of being copied to
+ * the heap first.
+ */
+public final class Documents {
+
+	private Documents() {
+	}
+
+	/**
+	 * @param path existing file
+	 * @return document streamed from the file on demand
+	 * @throws NoSuchFileException if the file does not exist
+	 */
+	public static DSSDocument open(Path path) throws NoSuchFileException {
+		if (!Files.isRegularFile(path)) {
+			throw new NoSuchFileException(path.toString());
+		}
+		return new FileDocument(path.toFile());
+	}
+
+	/**
+	 * Writes the document to a temporary file next to the target and moves it
+	 * into place once complete, so a failure midway never leaves a truncated
+	 * document behind. The file keeps the permissions of the target it
+	 * replaces, a new file gets the default ones.
+	 *
+	 * @param target file replaced by the document
+	 */
+	public static void write(DSSDocument document, Path target) throws IOException {
+		Path directory = target.toAbsolutePath().getParent();
+		Path temporary = directory.resolve("." + target.getFileName() + "."
+				+ Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp");
+		// unlike a temporary file, not restricted to the owner
+		OutputStream out = Files.newOutputStream(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		try {
+			try (OutputStream os = out) {
+				document.writeTo(os);
+			}
+			if (Files.exists(target) && Files.getFileAttributeView(target, PosixFileAttributeView.class) != null) {
+				Files.setPosixFilePermissions(temporary, Files.getPosixFilePermissions(target));
+			}
+			try {
+				Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+}
@@ -1,6 +1,9 @@
 package com.github.luk.pnkdss.utils;
 
 import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyUsage;
 import org.bouncycastle.cert.X509v3CertificateBuilder;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
 import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
@@ -10,15 +13,22 @@ import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
 import org.springframework.stereotype.Component;
 
 import java.math.BigInteger;
+import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.KeyStore;
+import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
+import java.security.PublicKey;
 import java.security.SecureRandom;
 import java.security.Security;
+import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
 import java.util.Date;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 @Component
@@ -26,6 +36,17 @@ public class Generator {
 
     public static final String DEFAULT_PASSWORD = UUID.randomUUID().toString();
 
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    private static final Map<String, KeyPairPool> pools = new ConcurrentHashMap<>();
+
+    static {
+        if (Security.getProvider("BC") == null) {
+          Security.addProvider(new BouncyCastleProvider());
+          System.out.println("Bouncy Castle provider registered.");
+        }
+    }
+
     public static String xmlContent = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n"
             + "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:urn=\"urn:com:github:luk:pnkdss\">\n"
             + "  <soapenv:Header />\n" + "  <soapenv:Body>\n" + "    <urn:data urn:id=\"signedData\">\n"
@@ -39,34 +60,144 @@ public class Generator {
      * @throws Exception If an error occurs during KeyStore creation.
      */
     public static KeyStore createP12KeyStore() throws Exception {
-        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
-        keyPairGenerator.initialize(2048, new SecureRandom());
-        KeyPair keyPair = keyPairGenerator.generateKeyPair();
-        PrivateKey privateKey = keyPair.getPrivate();
-
-        X500Name issuer = new X500Name("C=US, O=ExampleCorp, CN=Example Signer, E=signer@example.com");
-        BigInteger serial = BigInteger.valueOf(System.currentTimeMillis());
-        Date notBefore = new Date(System.currentTimeMillis());
-        Date notAfter = new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(365)); // 365 days validity
+        return createP12KeyStore("RSA", 2048);
+    }
 
-        X509v3CertificateBuilder certBuilder = new JcaX509v3CertificateBuilder(issuer, serial, notBefore, notAfter, issuer,
-                keyPair.getPublic());
+    /**
+     * Creates a PKCS12 KeyStore with a self-signed certificate.
+     *
+     * @param keyAlgorithm "RSA", "RSASSA-PSS" (an RSA key, its certificate is signed with RSA-PSS), "EC" or "Ed25519"
+     * @param keySize      RSA modulus length, or EC field size (256, 384 or 521), ignored for Ed25519
+     * @return A KeyStore containing a generated key pair and certificate.
+     * @throws Exception If an error occurs during KeyStore creation.
+     */
+    public static KeyStore createP12KeyStore(String keyAlgorithm, int keySize) throws Exception {
+        return createP12KeyStore(keyAlgorithm, keySize, "Example Signer", null);
+    }
 
-        ContentSigner contentSigner = new JcaContentSignerBuilder("SHA256WithRSA").build(privateKey);
-        if (Security.getProvider("BC") == null) {
-          Security.addProvider(new BouncyCastleProvider());
-          System.out.println("Bouncy Castle provider registered.");
+    /**
+     * Creates a PKCS12 KeyStore with a certificate issued by a CA from
+     * {@link #createCertificateAuthority}, the chain holds both certificates.
+     *
+     * @param commonName CN of the certificate
+     * @param issuer     issuing CA, or {@code null} for a self-signed certificate
+     * @return A KeyStore containing a generated key pair and certificate chain.
+     * @throws Exception If an error occurs during KeyStore creation.
+     */
+    public static KeyStore createP12KeyStore(String keyAlgorithm, int keySize, String commonName,
+            KeyStore.PrivateKeyEntry issuer) throws Exception {
+        KeyPair keyPair = generateKeyPair(keyAlgorithm, keySize);
+        X500Name subject = name(commonName);
+        X509Certificate certificate;
+        Certificate[] chain;
+        if (issuer == null) {
+            certificate = certificate(subject, keyPair.getPublic(), subject, keyPair.getPrivate(),
+                    certificateSignatureAlgorithm(keyAlgorithm), false);
+            chain = new Certificate[]{certificate};
+        } else {
+            X509Certificate caCertificate = (X509Certificate) issuer.getCertificate();
+            certificate = certificate(subject, keyPair.getPublic(),
+                    X500Name.getInstance(caCertificate.getSubjectX500Principal().getEncoded()), issuer.getPrivateKey(),
+                    caCertificate.getSigAlgName(), false);
+            chain = new Certificate[]{certificate, caCertificate};
         }
-        X509Certificate certificate = new JcaX509CertificateConverter().setProvider("BC")
-                .getCertificate(certBuilder.build(contentSigner));
 
         KeyStore p12KeyStore = KeyStore.getInstance("PKCS12");
         p12KeyStore.load(null, null);
 
         String alias = "1";
 
-        p12KeyStore.setKeyEntry(alias, privateKey, DEFAULT_PASSWORD.toCharArray(), new java.security.cert.Certificate[]{certificate});
+        p12KeyStore.setKeyEntry(alias, keyPair.getPrivate(), DEFAULT_PASSWORD.toCharArray(), chain);
 
         return p12KeyStore;
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates a self-signed CA that issues the certificates of
+     * {@link #createP12KeyStore(String, int, String, KeyStore.PrivateKeyEntry)}.
+     *
+     * @return The CA key and certificate.
+     * @throws Exception If an error occurs during key or certificate creation.
+     */
+    public static KeyStore.PrivateKeyEntry createCertificateAuthority(String keyAlgorithm, int keySize) throws Exception {
+        KeyPair keyPair = generateKeyPair(keyAlgorithm, keySize);
+        X500Name subject = name("Example CA");
+        X509Certificate certificate = certificate(subject, keyPair.getPublic(), subject, keyPair.getPrivate(),
+                certificateSignatureAlgorithm(keyAlgorithm), true);
+        return new KeyStore.PrivateKeyEntry(keyPair.getPrivate(), new Certificate[]{certificate});
+    }
+
+    /**
+     * Makes the keystore creation take key pairs of the pool's type from the
+     * pool instead of generating them.
+     */
+    public static void usePool(KeyPairPool pool) {
+        pools.put(pool.getKey(), pool);
+    }
+
+    public static void removePool(KeyPairPool pool) {
+        pools.remove(pool.getKey(), pool);
+    }
+
+    private static KeyPair generateKeyPair(String keyAlgorithm, int keySize) throws Exception {
+        KeyPairPool pool = pools.get(keyAlgorithm + "-" + keySize);
+        if (pool != null) {
+            return pool.take();
+        }
+        return keyPairGenerator(keyAlgorithm, keySize).generateKeyPair();
+    }
+
+    static KeyPairGenerator keyPairGenerator(String keyAlgorithm, int keySize) throws GeneralSecurityException {
+        KeyPairGenerator keyPairGenerator;
+        if ("EC".equals(keyAlgorithm)) {
+            keyPairGenerator = KeyPairGenerator.getInstance("EC");
+            keyPairGenerator.initialize(new ECGenParameterSpec("secp" + keySize + "r1"), RANDOM.get());
+        } else if ("Ed25519".equals(keyAlgorithm)) {
+            // Bouncy Castle before Java 15
+            keyPairGenerator = KeyPairGenerator.getInstance("Ed25519");
+        } else if ("RSA".equals(keyAlgorithm) || "RSASSA-PSS".equals(keyAlgorithm)) {
+            // a plain RSA key serves both RSA and RSA-PSS signatures
+            keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+            keyPairGenerator.initialize(keySize, RANDOM.get());
+        } else {
+            throw new NoSuchAlgorithmException("Unsupported key algorithm " + keyAlgorithm);
+        }
+        return keyPairGenerator;
+    }
+
+    private static String certificateSignatureAlgorithm(String keyAlgorithm) {
+        switch (keyAlgorithm) {
+        case "EC":
+            return "SHA256withECDSA";
+        case "Ed25519":
+            return "Ed25519";
+        case "RSASSA-PSS":
+            return "SHA256withRSAandMGF1";
+        default:
+            return "SHA256WithRSA";
+        }
+    }
+
+    private static X500Name name(String commonName) {
+        return new X500Name("C=US, O=ExampleCorp, CN=" + commonName + ", E=signer@example.com");
+    }
+
+    private static X509Certificate certificate(X500Name subject, PublicKey publicKey, X500Name issuer, PrivateKey issuerKey,
+            String signatureAlgorithm, boolean ca) throws Exception {
+        // random serials, certificates generated in parallel must not share issuer and serial
+        BigInteger serial = new BigInteger(63, RANDOM.get());
+        Date notBefore = new Date(System.currentTimeMillis());
+        Date notAfter = new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(365)); // 365 days validity
+
+        X509v3CertificateBuilder certBuilder = new JcaX509v3CertificateBuilder(issuer, serial, notBefore, notAfter, subject,
+                publicKey);
+        if (ca) {
+            certBuilder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+            certBuilder.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+        }
+
+        ContentSigner contentSigner = new JcaContentSignerBuilder(signatureAlgorithm).build(issuerKey);
+        return new JcaX509CertificateConverter().setProvider("BC")
+                .getCertificate(certBuilder.build(contentSigner));
+    }
+}
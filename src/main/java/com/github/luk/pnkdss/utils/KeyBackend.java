@@ -0,0 +1,36 @@
+package com.github.luk.pnkdss.utils;
+
+import java.util.concurrent.CompletableFuture;
+
+import eu.europa.esig.dss.enumerations.SignatureAlgorithm;
+import eu.europa.esig.dss.model.SignatureValue;
+import eu.europa.esig.dss.model.ToBeSigned;
+import eu.europa.esig.dss.model.x509.CertificateToken;
+
+/**
+ * Holder of the signing key. The private key operation completes
+ * asynchronously, so it may run on other threads or in another process while
+ * the caller prepares further documents, see
+ * {@link SigningSession#signAsync(eu.europa.esig.dss.model.DSSDocument, SigningProfile, java.util.concurrent.Executor)}.
+ */
+public interface KeyBackend extends AutoCloseable {
+
+	CertificateToken getSigningCertificate();
+
+	CertificateToken[] getCertificateChain();
+
+	/**
+	 * @param signatureAlgorithm e.g. RSA-PSS or ECDSA with the digest of the profile
+	 * @return the signature value, completed exceptionally if the key
+	 *         operation fails
+	 */
+	CompletableFuture<SignatureValue> sign(ToBeSigned dataToSign, SignatureAlgorithm signatureAlgorithm);
+
+	default boolean isHealthy() {
+		return true;
+	}
+
+	@Override
+	default void close() {
+	}
+}
@@ -0,0 +1,199 @@
+package com.github.luk.pnkdss.utils;
+
+import java.io.Closeable;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Key pairs generated ahead of time by background workers. The pool is
+ * filled up to the high watermark; once it drops to the low watermark the
+ * workers refill it. A key is taken without waiting, an empty pool makes the
+ * caller generate the key itself.
+ * <p>
+ * Each worker keeps its own initialized {@link KeyPairGenerator}.
+ * <p>
+ * Metrics (tag {@code key}, e.g. RSA-2048): {@code pnkdss.keypool.depth},
+ * {@code pnkdss.keypool.wait} and {@code pnkdss.keypool.misses}.
+ */
+public class KeyPairPool implements Closeable {
+
+	private static Logger log = LoggerFactory.getLogger(KeyPairPool.class);
+
+	private final String algorithm;
+	private final int keySize;
+	private final int lowWatermark;
+	private final int highWatermark;
+	private final BlockingQueue<KeyPair> keys;
+	private final ExecutorService workers;
+	private final ThreadLocal<KeyPairGenerator> generators;
+	private final AtomicInteger pending = new AtomicInteger();
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder missed = new LongAdder();
+	private final Timer waitTimer;
+	private final Counter misses;
+	private final PnkdssMetrics.Meters meters;
+	private volatile boolean closed;
+
+	/**
+	 * Starts filling the pool right away.
+	 *
+	 * @param algorithm     "RSA", "RSASSA-PSS", "EC" or "Ed25519", see {@link Generator#createP12KeyStore(String, int)}
+	 * @param keySize       RSA modulus length, or EC field size
+	 * @param lowWatermark  keys left in the pool when the refill starts
+	 * @param highWatermark keys in a full pool
+	 * @param workers       generating threads
+	 */
+	public KeyPairPool(String algorithm, int keySize, int lowWatermark, int highWatermark, int workers) {
+		if (lowWatermark < 0 || highWatermark <= lowWatermark || workers < 1) {
+			throw new IllegalArgumentException("Invalid key pool: low watermark " + lowWatermark + ", high watermark "
+					+ highWatermark + ", " + workers + " workers");
+		}
+		try {
+			Generator.keyPairGenerator(algorithm, keySize);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalArgumentException("Unsupported key " + algorithm + "-" + keySize, e);
+		}
+		this.algorithm = algorithm;
+		this.keySize = keySize;
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+		this.keys = new ArrayBlockingQueue<>(highWatermark);
+		AtomicInteger threads = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(workers, r -> {
+			Thread t = new Thread(r, "pnkdss-keygen-" + threads.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		this.generators = ThreadLocal.withInitial(() -> {
+			try {
+				return Generator.keyPairGenerator(algorithm, keySize);
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+
+		this.meters = PnkdssMetrics.meters("key", getKey());
+		this.waitTimer = meters.add(Timer.builder("pnkdss.keypool.wait").tags(meters.getTags()).register(PnkdssMetrics.registry()));
+		this.misses = meters.add(Counter.builder("pnkdss.keypool.misses").tags(meters.getTags()).register(PnkdssMetrics.registry()));
+		meters.add(Gauge.builder("pnkdss.keypool.depth", keys, BlockingQueue::size).tags(meters.getTags())
+				.register(PnkdssMetrics.registry()));
+		refill();
+	}
+
+	/**
+	 * @return key type of the pool, e.g. RSA-2048
+	 */
+	public String getKey() {
+		return algorithm + "-" + keySize;
+	}
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	public int getKeySize() {
+		return keySize;
+	}
+
+	/**
+	 * @return key pairs ready in the pool
+	 */
+	public int size() {
+		return keys.size();
+	}
+
+	/**
+	 * @return key pairs taken from this pool
+	 */
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	/**
+	 * @return key pairs the callers generated themselves on an empty pool
+	 */
+	public long getMisses() {
+		return missed.sum();
+	}
+
+	/**
+	 * Takes a key pair from the pool, or generates one if the pool is empty.
+	 */
+	public KeyPair take() {
+		long start = System.nanoTime();
+		try {
+			KeyPair keyPair = keys.poll();
+			if (keyPair == null) {
+				missed.increment();
+				misses.increment();
+				keyPair = generators.get().generateKeyPair();
+			}
+			requests.increment();
+			return keyPair;
+		} finally {
+			waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			refill();
+		}
+	}
+
+	private void refill() {
+		while (!closed) {
+			int scheduled = pending.get();
+			int available = keys.size() + scheduled;
+			if (available > lowWatermark) {
+				return;
+			}
+			int missing = highWatermark - available;
+			if (pending.compareAndSet(scheduled, scheduled + missing)) {
+				for (int i = 0; i < missing; i++) {
+					try {
+						workers.execute(this::generate);
+					} catch (RejectedExecutionException e) {
+						// closed meanwhile
+						pending.decrementAndGet();
+					}
+				}
+				return;
+			}
+		}
+	}
+
+	private void generate() {
+		try {
+			if (!closed) {
+				keys.offer(generators.get().generateKeyPair());
+			}
+		} catch (RuntimeException e) {
+			log.warn("Can not generate a " + getKey() + " key pair", e);
+		} finally {
+			pending.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Stops the workers, drops the pooled keys and removes the pool's meters.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		workers.shutdownNow();
+		keys.clear();
+		meters.close();
+	}
+}
@@ -0,0 +1,360 @@
+package com.github.luk.pnkdss.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.utils.Utils;
+
+/**
+ * Signing keys of several tenants, preloaded from keystores. Every alias of
+ * every keystore gets its own {@link SigningSession}, looked up by alias,
+ * SHA-256 certificate fingerprint or tenant without opening a keystore.
+ * <p>
+ * {@link #refresh()} reloads keystores whose file changed and swaps the
+ * index at once. A request holds its key with {@link #acquire(String, String, String)}
+ * until {@link Entry#release()}; a replaced session is closed when its last
+ * holder releases it, so requests already signing with it complete.
+ */
+public class KeyRegistry implements AutoCloseable {
+
+	private static Logger log = LoggerFactory.getLogger(KeyRegistry.class);
+
+	/**
+	 * A preloaded signing key.
+	 */
+	public static final class Entry {
+		private final String tenant;
+		private final String alias;
+		private final String fingerprint;
+		private final SigningSession session;
+		private int leases;
+		private boolean retired;
+		private boolean closed;
+
+		Entry(String tenant, String alias, SigningSession session) {
+			this.tenant = tenant;
+			this.alias = alias;
+			this.fingerprint = fingerprint(session.getSigningCertificate());
+			this.session = session;
+		}
+
+		public String getTenant() {
+			return tenant;
+		}
+
+		public String getAlias() {
+			return alias;
+		}
+
+		/**
+		 * @return lower case hex SHA-256 of the certificate
+		 */
+		public String getFingerprint() {
+			return fingerprint;
+		}
+
+		public SigningSession getSession() {
+			return session;
+		}
+
+		/**
+		 * Ends a lease taken by {@link KeyRegistry#acquire(String, String, String)}.
+		 */
+		public synchronized void release() {
+			if (leases == 0) {
+				throw new IllegalStateException("Signing key " + alias + " is not acquired");
+			}
+			leases--;
+			if (retired && leases == 0) {
+				close();
+			}
+		}
+
+		synchronized boolean lease() {
+			if (retired) {
+				return false;
+			}
+			leases++;
+			return true;
+		}
+
+		synchronized void retire() {
+			retired = true;
+			if (leases == 0) {
+				close();
+			}
+		}
+
+		synchronized boolean isClosed() {
+			return closed;
+		}
+
+		synchronized void close() {
+			if (!closed) {
+				closed = true;
+				session.close();
+			}
+		}
+	}
+
+	private static final class Keystore {
+		final Path file;
+		final char[] password;
+		final String tenant;
+		final long lastModified;
+		final long size;
+		final List<Entry> entries;
+
+		Keystore(Path file, char[] password, String tenant, long lastModified, long size, List<Entry> entries) {
+			this.file = file;
+			this.password = password;
+			this.tenant = tenant;
+			this.lastModified = lastModified;
+			this.size = size;
+			this.entries = entries;
+		}
+	}
+
+	private static final class Index {
+		final List<Entry> entries;
+		final Map<String, List<Entry>> byAlias = new HashMap<>();
+		final Map<String, Entry> byFingerprint = new HashMap<>();
+		final Map<String, List<Entry>> byTenant = new HashMap<>();
+
+		Index(List<Entry> entries) {
+			this.entries = entries;
+			for (Entry entry : entries) {
+				byAlias.computeIfAbsent(entry.alias, k -> new ArrayList<>()).add(entry);
+				byFingerprint.putIfAbsent(entry.fingerprint, entry);
+				byTenant.computeIfAbsent(entry.tenant, k -> new ArrayList<>()).add(entry);
+			}
+		}
+	}
+
+	private final SigningProfile profile;
+	private final Map<Path, Keystore> keystores = new LinkedHashMap<>();
+	private final List<Entry> retired = new ArrayList<>();
+	private volatile Index index = new Index(Collections.emptyList());
+	private ScheduledExecutorService refresher;
+
+	/**
+	 * @param profile default profile of the sessions
+	 */
+	public KeyRegistry(SigningProfile profile) {
+		this.profile = profile;
+	}
+
+	/**
+	 * Registry of a single session, e.g. one opened on a PKCS#11 token.
+	 */
+	public static KeyRegistry of(String tenant, String alias, SigningSession session) {
+		KeyRegistry registry = new KeyRegistry(SigningProfile.DEFAULT);
+		registry.index = new Index(Collections.singletonList(new Entry(tenant, alias, session)));
+		return registry;
+	}
+
+	/**
+	 * Loads every private key of the keystore.
+	 *
+	 * @param tenant tenant of the keys, {@code null} for the file name without extension
+	 */
+	public synchronized void add(Path keystore, char[] password, String tenant) throws IOException {
+		String name = tenant != null ? tenant : tenantOf(keystore);
+		Keystore previous = keystores.put(keystore, load(keystore, password, name));
+		rebuildIndex();
+		if (previous != null) {
+			for (Entry entry : previous.entries) {
+				entry.retire();
+			}
+			retired.addAll(previous.entries);
+		}
+	}
+
+	/**
+	 * @return the entries, in the order the keystores were added
+	 */
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(index.entries);
+	}
+
+	/**
+	 * Picks a key by fingerprint, or by tenant and/or alias. Without any
+	 * criteria the first key is used.
+	 *
+	 * @throws IllegalArgumentException if no key or more than one key matches
+	 */
+	public Entry select(String tenant, String alias, String fingerprint) {
+		Index index = this.index;
+		if (fingerprint != null) {
+			Entry entry = index.byFingerprint.get(fingerprint.toLowerCase(Locale.ROOT).replace(":", ""));
+			if (entry == null) {
+				throw new IllegalArgumentException("Unknown certificate fingerprint '" + fingerprint + "'");
+			}
+			return entry;
+		}
+		List<Entry> candidates;
+		if (tenant != null) {
+			candidates = index.byTenant.get(tenant);
+			if (candidates == null) {
+				throw new IllegalArgumentException("Unknown tenant '" + tenant + "'");
+			}
+			if (alias != null) {
+				List<Entry> withAlias = new ArrayList<>();
+				for (Entry entry : candidates) {
+					if (alias.equals(entry.alias)) {
+						withAlias.add(entry);
+					}
+				}
+				candidates = withAlias;
+			}
+		} else if (alias != null) {
+			candidates = index.byAlias.getOrDefault(alias, Collections.emptyList());
+		} else {
+			candidates = index.entries;
+		}
+		if (candidates.isEmpty()) {
+			throw new IllegalArgumentException("Unknown signing key '" + (alias != null ? alias : tenant) + "'");
+		}
+		if (candidates.size() > 1 && (tenant != null || alias != null)) {
+			throw new IllegalArgumentException("Signing key is ambiguous, " + candidates.size()
+					+ " keys match tenant '" + tenant + "' and alias '" + alias + "'");
+		}
+		return candidates.get(0);
+	}
+
+	/**
+	 * Like {@link #select(String, String, String)}, the session of the entry
+	 * stays open until {@link Entry#release()} even if a refresh replaces it.
+	 */
+	public Entry acquire(String tenant, String alias, String fingerprint) {
+		while (true) {
+			Entry entry = select(tenant, alias, fingerprint);
+			if (entry.lease()) {
+				return entry;
+			}
+			// replaced since the lookup, the index already holds its successor
+		}
+	}
+
+	/**
+	 * Reloads keystores whose file changed.
+	 *
+	 * @return {@code true} if a keystore was reloaded
+	 */
+	public synchronized boolean refresh() {
+		retired.removeIf(Entry::isClosed);
+
+		List<Entry> replaced = new ArrayList<>();
+		for (Map.Entry<Path, Keystore> loaded : keystores.entrySet()) {
+			Keystore keystore = loaded.getValue();
+			try {
+				if (Files.getLastModifiedTime(keystore.file).toMillis() == keystore.lastModified
+						&& Files.size(keystore.file) == keystore.size) {
+					continue;
+				}
+				loaded.setValue(load(keystore.file, keystore.password, keystore.tenant));
+				replaced.addAll(keystore.entries);
+				log.info("Reloaded keystore " + keystore.file);
+			} catch (Exception e) {
+				// a keystore being rewritten is picked up by a later refresh
+				log.warn("Can not reload keystore " + keystore.file, e);
+			}
+		}
+		if (replaced.isEmpty()) {
+			return false;
+		}
+		// retired only once they can no longer be selected
+		rebuildIndex();
+		for (Entry entry : replaced) {
+			entry.retire();
+		}
+		retired.addAll(replaced);
+		return true;
+	}
+
+	/**
+	 * Refreshes the registry periodically on a daemon thread.
+	 */
+	public synchronized void startRefresh(Duration interval) {
+		if (refresher != null) {
+			throw new IllegalStateException("Refresh already started");
+		}
+		refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "pnkdss-key-refresh");
+			t.setDaemon(true);
+			return t;
+		});
+		refresher.scheduleWithFixedDelay(this::refresh, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public synchronized void close() {
+		if (refresher != null) {
+			refresher.shutdownNow();
+			refresher = null;
+		}
+		for (Entry entry : retired) {
+			entry.close();
+		}
+		for (Entry entry : index.entries) {
+			entry.close();
+		}
+	}
+
+	private Keystore load(Path file, char[] password, String tenant) throws IOException {
+		long lastModified = Files.getLastModifiedTime(file).toMillis();
+		long size = Files.size(file);
+		TokenProvider provider = TokenProvider.keyStore(file, password);
+		List<Entry> entries = new ArrayList<>();
+		try {
+			for (String alias : TokenPool.aliases(provider)) {
+				TokenPool tokens = new TokenPool(provider, 1, TokenPool.DEFAULT_TIMEOUT, alias);
+				entries.add(new Entry(tenant, alias, new SigningSession(tokens, profile)));
+			}
+		} catch (IOException | RuntimeException e) {
+			for (Entry entry : entries) {
+				entry.session.close();
+			}
+			throw e;
+		}
+		if (entries.isEmpty()) {
+			throw new IllegalArgumentException("No private key in " + file);
+		}
+		return new Keystore(file, password, tenant, lastModified, size, entries);
+	}
+
+	private void rebuildIndex() {
+		List<Entry> entries = new ArrayList<>();
+		for (Keystore keystore : keystores.values()) {
+			entries.addAll(keystore.entries);
+		}
+		index = new Index(entries);
+	}
+
+	private static String tenantOf(Path keystore) {
+		String name = keystore.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		return dot > 0 ? name.substring(0, dot) : name;
+	}
+
+	static String fingerprint(CertificateToken certificate) {
+		return Utils.toHex(certificate.getDigest(DigestAlgorithm.SHA256)).toLowerCase(Locale.ROOT);
+	}
+}
@@ -0,0 +1,115 @@
+package com.github.luk.pnkdss.utils;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.tsp.TSPAlgorithms;
+import org.bouncycastle.tsp.TimeStampRequest;
+import org.bouncycastle.tsp.TimeStampRequestGenerator;
+import org.bouncycastle.tsp.TimeStampResponse;
+import org.bouncycastle.tsp.TimeStampResponseGenerator;
+import org.bouncycastle.tsp.TimeStampTokenGenerator;
+
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.model.DSSException;
+import eu.europa.esig.dss.model.TimestampBinary;
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.spi.x509.tsp.TSPSource;
+
+/**
+ * RFC 3161 time-stamping authority running in the process, with a generated
+ * self-signed certificate. Stands in for a real TSA in tests and offline
+ * demos, its timestamps are not trusted by anybody else.
+ */
+public class LocalTimestampAuthority implements TSPSource {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Policy OID of the issued tokens, from the documentation arc. */
+	private static final String POLICY = "1.2.3.4.1";
+
+	private final transient X509Certificate certificate;
+	private final transient TimeStampResponseGenerator generator;
+	private final AtomicLong serial = new AtomicLong();
+	private final AtomicLong requests = new AtomicLong();
+
+	public LocalTimestampAuthority() {
+		try {
+			KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+			keyPairGenerator.initialize(2048, new SecureRandom());
+			KeyPair keyPair = keyPairGenerator.generateKeyPair();
+
+			X500Name name = new X500Name("C=US, O=ExampleCorp, CN=Local Timestamp Authority");
+			Date notBefore = new Date(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1));
+			Date notAfter = new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(365));
+			JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(name,
+					BigInteger.valueOf(System.currentTimeMillis()), notBefore, notAfter, name, keyPair.getPublic());
+			// RFC 3161 requires the critical extended key usage timeStamping
+			builder.addExtension(Extension.extendedKeyUsage, true, new ExtendedKeyUsage(KeyPurposeId.id_kp_timeStamping));
+			this.certificate = new JcaX509CertificateConverter()
+					.getCertificate(builder.build(new JcaContentSignerBuilder("SHA256WithRSA").build(keyPair.getPrivate())));
+
+			TimeStampTokenGenerator tokenGenerator = new TimeStampTokenGenerator(
+					new JcaSimpleSignerInfoGeneratorBuilder().build("SHA256WithRSA", keyPair.getPrivate(), certificate),
+					new JcaDigestCalculatorProviderBuilder().build().get(new AlgorithmIdentifier(NISTObjectIdentifiers.id_sha256)),
+					new ASN1ObjectIdentifier(POLICY));
+			tokenGenerator.addCertificates(new JcaCertStore(Collections.singletonList(certificate)));
+			this.generator = new TimeStampResponseGenerator(tokenGenerator, TSPAlgorithms.ALLOWED);
+		} catch (Exception e) {
+			throw new IllegalStateException("Can not create the local timestamp authority", e);
+		}
+	}
+
+	@Override
+	public TimestampBinary getTimeStampResponse(DigestAlgorithm digestAlgorithm, byte[] digest) {
+		requests.incrementAndGet();
+		try {
+			TimeStampRequestGenerator requestGenerator = new TimeStampRequestGenerator();
+			requestGenerator.setCertReq(true);
+			TimeStampRequest request = requestGenerator.generate(new ASN1ObjectIdentifier(digestAlgorithm.getOid()), digest);
+			TimeStampResponse response;
+			// the token generator is not thread safe
+			synchronized (generator) {
+				response = generator.generate(request, BigInteger.valueOf(serial.incrementAndGet()), new Date());
+			}
+			response.validate(request);
+			return new TimestampBinary(response.getTimeStampToken().getEncoded());
+		} catch (Exception e) {
+			throw new DSSException("Local timestamp authority failed", e);
+		}
+	}
+
+	/**
+	 * @return certificate of the authority, to be trusted by the validation
+	 */
+	public CertificateToken getCertificate() {
+		return new CertificateToken(certificate);
+	}
+
+	/**
+	 * @return timestamp requests answered so far
+	 */
+	public long getRequestCount() {
+		return requests.get();
+	}
+}
@@ -0,0 +1,223 @@
+package com.github.luk.pnkdss.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+
+/**
+ * Timers and failure counters of the sign, verify and extend paths, in one
+ * process wide Prometheus registry.
+ * <p>
+ * {@code pnkdss.phase} times each phase (tags {@code operation} and
+ * {@code phase}), {@code pnkdss.operation} the whole operation and
+ * {@code pnkdss.failures} counts failures by {@code cause}. Caches report
+ * {@code pnkdss.cache.requests} (tags {@code cache} and {@code result}),
+ * {@code pnkdss.cache.evictions} and {@code pnkdss.cache.size}. Meters of a
+ * cache or pool carry an {@code instance} tag and are removed when it closes.
+ */
+public final class PnkdssMetrics {
+
+	private static Logger log = LoggerFactory.getLogger(PnkdssMetrics.class);
+
+	public static final String SIGN = "sign";
+	public static final String VERIFY = "verify";
+	public static final String EXTEND = "extend";
+
+	private static final PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+
+	private static final AtomicInteger instances = new AtomicInteger();
+
+	/**
+	 * Measured code, may throw a checked exception.
+	 */
+	@FunctionalInterface
+	public interface Phase<T, E extends Exception> {
+		T run() throws E;
+	}
+
+	private PnkdssMetrics() {
+	}
+
+	public static MeterRegistry registry() {
+		return registry;
+	}
+
+	/**
+	 * Meters of one cache or pool. Each instance gets its own {@code instance}
+	 * tag, so two pools never report through the same meter.
+	 */
+	public static final class Meters implements AutoCloseable {
+		private final Tags tags;
+		private final List<Meter> meters = new CopyOnWriteArrayList<>();
+
+		private Meters(Tags tags) {
+			this.tags = tags.and("instance", String.valueOf(instances.incrementAndGet()));
+		}
+
+		/**
+		 * @return tags to register the meters of the instance with
+		 */
+		public Tags getTags() {
+			return tags;
+		}
+
+		public <M extends Meter> M add(M meter) {
+			meters.add(meter);
+			return meter;
+		}
+
+		/**
+		 * Removes the meters from the registry.
+		 */
+		@Override
+		public void close() {
+			for (Meter meter : meters) {
+				registry.remove(meter);
+			}
+			meters.clear();
+		}
+	}
+
+	/**
+	 * @param tags key value pairs identifying the instance, e.g. its alias
+	 */
+	public static Meters meters(String... tags) {
+		return new Meters(Tags.of(tags));
+	}
+
+	/**
+	 * Runs and times one phase of an operation.
+	 */
+	public static <T, E extends Exception> T time(String operation, String phase, Phase<T, E> body) throws E {
+		long start = System.nanoTime();
+		try {
+			return body.run();
+		} finally {
+			phaseTimer(operation, phase).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Runs and times a whole operation, counting its failures by cause.
+	 */
+	public static <T, E extends Exception> T timeOperation(String operation, Phase<T, E> body) throws E {
+		long start = System.nanoTime();
+		try {
+			return body.run();
+		} catch (Exception e) {
+			failure(operation, e);
+			throw e;
+		} finally {
+			operationTimer(operation).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Records a phase measured elsewhere, e.g. one completing asynchronously.
+	 */
+	public static void record(String operation, String phase, long nanos) {
+		phaseTimer(operation, phase).record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Records an operation measured elsewhere.
+	 *
+	 * @param error failure of the operation, or {@code null}
+	 */
+	public static void recordOperation(String operation, long nanos, Throwable error) {
+		if (error != null) {
+			failure(operation, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+		}
+		operationTimer(operation).record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public static void failure(String operation, Throwable cause) {
+		failure(operation, cause.getClass().getSimpleName());
+	}
+
+	/**
+	 * @param cause exception name or validation indication, keep the set of values small
+	 */
+	public static void failure(String operation, String cause) {
+		Counter.builder("pnkdss.failures")
+				.tag("operation", operation)
+				.tag("cause", cause)
+				.register(registry)
+				.increment();
+	}
+
+	/**
+	 * Exposes the statistics of a cache. The registry keeps only a weak
+	 * reference to the cache.
+	 *
+	 * @return meters of the cache, to be closed with the cache
+	 */
+	public static <C> Meters monitorCache(String cache, C instance, ToDoubleFunction<C> hits, ToDoubleFunction<C> misses,
+			ToDoubleFunction<C> evictions, ToDoubleFunction<C> size) {
+		Meters meters = meters("cache", cache);
+		meters.add(FunctionCounter.builder("pnkdss.cache.requests", instance, hits)
+				.tags(meters.getTags()).tag("result", "hit").register(registry));
+		meters.add(FunctionCounter.builder("pnkdss.cache.requests", instance, misses)
+				.tags(meters.getTags()).tag("result", "miss").register(registry));
+		meters.add(FunctionCounter.builder("pnkdss.cache.evictions", instance, evictions)
+				.tags(meters.getTags()).register(registry));
+		meters.add(Gauge.builder("pnkdss.cache.size", instance, size)
+				.tags(meters.getTags()).register(registry));
+		return meters;
+	}
+
+	private static Timer operationTimer(String operation) {
+		return Timer.builder("pnkdss.operation")
+				.tag("operation", operation)
+				.publishPercentileHistogram()
+				.register(registry);
+	}
+
+	private static Timer phaseTimer(String operation, String phase) {
+		return Timer.builder("pnkdss.phase")
+				.tag("operation", operation)
+				.tag("phase", phase)
+				.publishPercentileHistogram()
+				.register(registry);
+	}
+
+	/**
+	 * @return all metrics in the Prometheus text format
+	 */
+	public static String scrape() {
+		return registry.scrape();
+	}
+
+	/**
+	 * Writes the metrics to the file when the JVM exits.
+	 */
+	public static void dumpOnExit(Path file) {
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				Files.write(file, scrape().getBytes(StandardCharsets.UTF_8));
+			} catch (IOException e) {
+				log.error("Can not write metrics to " + file, e);
+			}
+		}, "pnkdss-metrics-dump"));
+	}
+}
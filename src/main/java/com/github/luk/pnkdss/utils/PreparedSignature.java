@@ -0,0 +1,59 @@
+package com.github.luk.pnkdss.utils;
+
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.enumerations.SignatureAlgorithm;
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.SignatureValue;
+import eu.europa.esig.dss.model.ToBeSigned;
+import eu.europa.esig.dss.xades.XAdESSignatureParameters;
+import eu.europa.esig.dss.xades.signature.XAdESService;
+
+/**
+ * First phase of a signature: the document with its parameters and the data
+ * to be signed. The parameters carry the signing time, so the same instance
+ * has to be completed with the signature value of its data.
+ */
+public final class PreparedSignature {
+
+	private final XAdESService service;
+	private final DSSDocument document;
+	private final XAdESSignatureParameters parameters;
+	private final ToBeSigned dataToSign;
+
+	PreparedSignature(XAdESService service, DSSDocument document, XAdESSignatureParameters parameters) {
+		this.service = service;
+		this.document = document;
+		this.parameters = parameters;
+		this.dataToSign = PnkdssMetrics.time(PnkdssMetrics.SIGN, "data_to_sign",
+				() -> service.getDataToSign(document, parameters));
+	}
+
+	public DSSDocument getDocument() {
+		return document;
+	}
+
+	public ToBeSigned getDataToSign() {
+		return dataToSign;
+	}
+
+	public DigestAlgorithm getDigestAlgorithm() {
+		return parameters.getDigestAlgorithm();
+	}
+
+	/**
+	 * @return algorithm of the key operation completing this signature
+	 */
+	public SignatureAlgorithm getSignatureAlgorithm() {
+		return parameters.getSignatureAlgorithm();
+	}
+
+	/**
+	 * Second phase, embeds the signature value into the document.
+	 *
+	 * @return signed document
+	 */
+	public DSSDocument complete(SignatureValue signatureValue) {
+		return PnkdssMetrics.time(PnkdssMetrics.SIGN, "sign_document",
+				() -> service.signDocument(document, parameters, signatureValue));
+	}
+}
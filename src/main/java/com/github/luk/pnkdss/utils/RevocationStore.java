@@ -0,0 +1,341 @@
+package com.github.luk.pnkdss.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.SingleResp;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.europa.esig.dss.crl.CRLUtils;
+import eu.europa.esig.dss.crl.CRLValidity;
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.spi.x509.revocation.crl.CRLSource;
+import eu.europa.esig.dss.spi.x509.revocation.crl.CRLToken;
+import eu.europa.esig.dss.spi.x509.revocation.ocsp.OCSPSource;
+import eu.europa.esig.dss.spi.x509.revocation.ocsp.OCSPToken;
+
+/**
+ * Revocation data read from a local directory, for hosts without network
+ * access. {@code *.crl} files hold CRLs (DER or PEM), {@code *.ocsp} files
+ * hold DER encoded OCSP responses.
+ * <p>
+ * Parsed data is kept in memory and indexed by issuer and serial number.
+ * {@link #refresh()} parses only the files that were added or modified since
+ * the previous load, lookups always see a complete index.
+ */
+public class RevocationStore implements AutoCloseable {
+
+	private static Logger log = LoggerFactory.getLogger(RevocationStore.class);
+
+	private static final class LoadedFile {
+		final long lastModified;
+		final long size;
+		final LoadedCrl crl;
+		final BasicOCSPResp ocsp;
+
+		LoadedFile(long lastModified, long size, LoadedCrl crl, BasicOCSPResp ocsp) {
+			this.lastModified = lastModified;
+			this.size = size;
+			this.crl = crl;
+			this.ocsp = ocsp;
+		}
+	}
+
+	private static final class LoadedCrl {
+		final Path file;
+		final byte[] encoded;
+		final X509CRL crl;
+		final Map<BigInteger, Date> revoked;
+		/** DSS validity per issuer, the CRL signature is verified only once */
+		final Map<String, CRLValidity> validities = new ConcurrentHashMap<>();
+
+		LoadedCrl(Path file, byte[] encoded, X509CRL crl) {
+			this.file = file;
+			this.encoded = encoded;
+			this.crl = crl;
+			Map<BigInteger, Date> revoked = new HashMap<>();
+			if (crl.getRevokedCertificates() != null) {
+				for (X509CRLEntry entry : crl.getRevokedCertificates()) {
+					revoked.put(entry.getSerialNumber(), entry.getRevocationDate());
+				}
+			}
+			this.revoked = revoked;
+		}
+
+		CRLValidity validity(CertificateToken issuer) throws IOException {
+			CRLValidity validity = validities.get(issuer.getDSSIdAsString());
+			if (validity == null) {
+				validity = CRLUtils.buildCRLValidity(CRLUtils.buildCRLBinary(encoded), issuer);
+				validities.put(issuer.getDSSIdAsString(), validity);
+			}
+			return validity;
+		}
+	}
+
+	private static final class OcspResponse {
+		final Path file;
+		final BasicOCSPResp response;
+		final SingleResp single;
+
+		OcspResponse(Path file, BasicOCSPResp response, SingleResp single) {
+			this.file = file;
+			this.response = response;
+			this.single = single;
+		}
+	}
+
+	private static final class Index {
+		final Map<String, LoadedCrl> crlsByIssuer;
+		final Map<BigInteger, List<OcspResponse>> ocspBySerial;
+		final long version;
+
+		Index(Map<String, LoadedCrl> crlsByIssuer, Map<BigInteger, List<OcspResponse>> ocspBySerial, long version) {
+			this.crlsByIssuer = crlsByIssuer;
+			this.ocspBySerial = ocspBySerial;
+			this.version = version;
+		}
+	}
+
+	private final Path directory;
+	private final Map<Path, LoadedFile> files = new HashMap<>();
+	private volatile Index index = new Index(Collections.emptyMap(), Collections.emptyMap(), 0);
+	private ScheduledExecutorService refresher;
+
+	private RevocationStore(Path directory) throws IOException {
+		this.directory = directory;
+		refresh();
+	}
+
+	public static RevocationStore load(Path directory) throws IOException {
+		return new RevocationStore(directory);
+	}
+
+	/**
+	 * @return changes whenever the data was reloaded
+	 */
+	public long getVersion() {
+		return index.version;
+	}
+
+	public CRLSource getCrlSource() {
+		return new CRLSource() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public CRLToken getRevocationToken(CertificateToken certificate, CertificateToken issuer) {
+				return getCrlToken(certificate, issuer);
+			}
+		};
+	}
+
+	public OCSPSource getOcspSource() {
+		return new OCSPSource() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public OCSPToken getRevocationToken(CertificateToken certificate, CertificateToken issuer) {
+				return getOcspToken(certificate, issuer);
+			}
+		};
+	}
+
+	/**
+	 * Looks the serial number up in the CRL of the issuer, without any DSS
+	 * processing.
+	 *
+	 * @return revocation date, or {@code null} if not revoked or no CRL is known
+	 */
+	public Date findRevocation(X500Principal issuer, BigInteger serialNumber) {
+		LoadedCrl crl = index.crlsByIssuer.get(issuer.getName(X500Principal.CANONICAL));
+		return crl != null ? crl.revoked.get(serialNumber) : null;
+	}
+
+	private CRLToken getCrlToken(CertificateToken certificate, CertificateToken issuer) {
+		if (issuer == null) {
+			return null;
+		}
+		LoadedCrl crl = index.crlsByIssuer.get(certificate.getIssuerX500Principal().getName(X500Principal.CANONICAL));
+		if (crl == null) {
+			return null;
+		}
+		try {
+			CRLToken token = new CRLToken(certificate, crl.validity(issuer));
+			token.setSourceURL(crl.file.toUri().toString());
+			return token;
+		} catch (IOException e) {
+			log.warn("Can not use CRL " + crl.file, e);
+			return null;
+		}
+	}
+
+	private OCSPToken getOcspToken(CertificateToken certificate, CertificateToken issuer) {
+		if (issuer == null) {
+			return null;
+		}
+		OcspResponse latest = null;
+		for (OcspResponse response : index.ocspBySerial.getOrDefault(certificate.getSerialNumber(), Collections.emptyList())) {
+			if (isIssuedFor(response, issuer)
+					&& (latest == null || response.single.getThisUpdate().after(latest.single.getThisUpdate()))) {
+				latest = response;
+			}
+		}
+		if (latest == null) {
+			return null;
+		}
+		OCSPToken token = new OCSPToken(latest.response, latest.single, certificate, issuer);
+		token.setSourceURL(latest.file.toUri().toString());
+		return token;
+	}
+
+	private static boolean isIssuedFor(OcspResponse response, CertificateToken issuer) {
+		try {
+			return response.single.getCertID().matchesIssuer(new X509CertificateHolder(issuer.getEncoded()),
+					new JcaDigestCalculatorProviderBuilder().build());
+		} catch (Exception e) {
+			log.warn("Can not match OCSP response " + response.file, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Parses new and modified files and drops removed ones.
+	 *
+	 * @return {@code true} if anything changed
+	 */
+	public synchronized boolean refresh() throws IOException {
+		List<Path> current = revocationFiles(directory);
+		boolean changed = files.keySet().retainAll(current);
+		for (Path file : current) {
+			long lastModified = Files.getLastModifiedTime(file).toMillis();
+			long size = Files.size(file);
+			LoadedFile loaded = files.get(file);
+			if (loaded != null && loaded.lastModified == lastModified && loaded.size == size) {
+				continue;
+			}
+			LoadedFile parsed;
+			try {
+				parsed = parse(file, lastModified, size);
+			} catch (Exception e) {
+				// keep the previous content of a file being rewritten
+				log.warn("Can not parse revocation data " + file, e);
+				continue;
+			}
+			if (parsed == null) {
+				changed |= files.remove(file) != null;
+				continue;
+			}
+			files.put(file, parsed);
+			changed = true;
+		}
+		if (changed) {
+			rebuildIndex();
+			log.info("Loaded revocation data from " + files.size() + " files in " + directory);
+		}
+		return changed;
+	}
+
+	private void rebuildIndex() {
+		Map<String, LoadedCrl> crlsByIssuer = new HashMap<>();
+		Map<BigInteger, List<OcspResponse>> ocspBySerial = new HashMap<>();
+		for (Map.Entry<Path, LoadedFile> entry : files.entrySet()) {
+			LoadedFile loaded = entry.getValue();
+			if (loaded.crl != null) {
+				// the most recent CRL of an issuer wins
+				crlsByIssuer.merge(loaded.crl.crl.getIssuerX500Principal().getName(X500Principal.CANONICAL), loaded.crl,
+						(a, b) -> a.crl.getThisUpdate().after(b.crl.getThisUpdate()) ? a : b);
+			} else {
+				for (SingleResp single : loaded.ocsp.getResponses()) {
+					ocspBySerial.computeIfAbsent(single.getCertID().getSerialNumber(), k -> new ArrayList<>())
+							.add(new OcspResponse(entry.getKey(), loaded.ocsp, single));
+				}
+			}
+		}
+		index = new Index(crlsByIssuer, ocspBySerial, index.version + 1);
+	}
+
+	/**
+	 * @return {@code null} for an OCSP error response, which has no status to index
+	 */
+	private static LoadedFile parse(Path file, long lastModified, long size) throws Exception {
+		byte[] encoded = Files.readAllBytes(file);
+		if (file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".crl")) {
+			X509CRL crl = (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(new ByteArrayInputStream(encoded));
+			// DSS parses DER only, PEM input is re-encoded
+			return new LoadedFile(lastModified, size, new LoadedCrl(file, crl.getEncoded(), crl), null);
+		}
+		OCSPResp response = new OCSPResp(encoded);
+		BasicOCSPResp basic = response.getStatus() == OCSPResp.SUCCESSFUL ? (BasicOCSPResp) response.getResponseObject() : null;
+		if (basic == null) {
+			log.warn("Skipping OCSP response " + file + " with status " + response.getStatus());
+			return null;
+		}
+		return new LoadedFile(lastModified, size, null, basic);
+	}
+
+	private static List<Path> revocationFiles(Path directory) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(Files::isRegularFile)
+					.filter(file -> {
+						String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+						return name.endsWith(".crl") || name.endsWith(".ocsp");
+					})
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Refreshes the store periodically on a daemon thread.
+	 */
+	public synchronized void startRefresh(Duration interval) {
+		if (refresher != null) {
+			throw new IllegalStateException("Refresh already started");
+		}
+		refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "pnkdss-revocation-refresh");
+			t.setDaemon(true);
+			return t;
+		});
+		refresher.scheduleWithFixedDelay(() -> {
+			try {
+				refresh();
+			} catch (Exception e) {
+				log.warn("Can not refresh revocation data from " + directory, e);
+			}
+		}, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public synchronized void close() {
+		if (refresher != null) {
+			refresher.shutdownNow();
+			refresher = null;
+		}
+	}
+}
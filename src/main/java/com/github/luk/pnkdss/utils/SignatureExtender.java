@@ -0,0 +1,77 @@
+package com.github.luk.pnkdss.utils;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import eu.europa.esig.dss.enumerations.SignatureLevel;
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.spi.x509.tsp.TSPSource;
+import eu.europa.esig.dss.validation.CertificateVerifier;
+import eu.europa.esig.dss.validation.CommonCertificateVerifier;
+import eu.europa.esig.dss.xades.XAdESSignatureParameters;
+import eu.europa.esig.dss.xades.signature.XAdESService;
+
+/**
+ * Upgrades signed documents to XAdES-T, -LT or -LTA. The service is shared,
+ * one extender serves many threads.
+ * <p>
+ * -LT and -LTA embed the certificate chain and revocation data; with no
+ * network access the revocation data comes from a {@link RevocationStore}.
+ */
+public class SignatureExtender {
+
+	private static final Set<SignatureLevel> LEVELS = EnumSet.of(SignatureLevel.XAdES_BASELINE_T,
+			SignatureLevel.XAdES_BASELINE_LT, SignatureLevel.XAdES_BASELINE_LTA);
+
+	static {
+		// parse with per thread builders instead of a new factory per document
+		XmlParsers.install();
+	}
+
+	private final XAdESService service;
+
+	/**
+	 * @param tspSource    authority of the signature timestamps, see {@link TimestampSource}
+	 * @param trustAnchors trust anchors of the embedded chains, may be {@code null}
+	 * @param revocation   local CRLs and OCSP responses, may be {@code null}
+	 */
+	public SignatureExtender(TSPSource tspSource, TrustAnchorStore trustAnchors, RevocationStore revocation) {
+		CertificateVerifier certificateVerifier = new CommonCertificateVerifier();
+		certificateVerifier.setAIASource(null);
+		if (trustAnchors != null) {
+			certificateVerifier.setTrustedCertSources(trustAnchors.getTrustedSource());
+		}
+		if (revocation != null) {
+			certificateVerifier.setCrlSource(revocation.getCrlSource());
+			certificateVerifier.setOcspSource(revocation.getOcspSource());
+		}
+		this.service = new XAdESService(certificateVerifier);
+		this.service.setTspSource(tspSource);
+	}
+
+	/**
+	 * @param signedDocument enveloped or enveloping signature
+	 * @param level          XAdES-T, -LT or -LTA
+	 */
+	public DSSDocument extend(DSSDocument signedDocument, SignatureLevel level) {
+		return extendDetached(signedDocument, Collections.emptyList(), level);
+	}
+
+	/**
+	 * @param detachedContents signed payload of a detached signature
+	 */
+	public DSSDocument extendDetached(DSSDocument signature, List<DSSDocument> detachedContents, SignatureLevel level) {
+		if (!LEVELS.contains(level)) {
+			throw new IllegalArgumentException("Signatures can only be extended to " + LEVELS + ", not " + level);
+		}
+		return PnkdssMetrics.timeOperation(PnkdssMetrics.EXTEND, () -> {
+			XAdESSignatureParameters parameters = new XAdESSignatureParameters();
+			parameters.setSignatureLevel(level);
+			parameters.setDetachedContents(detachedContents);
+			parameters.setEn319132(false);
+			return PnkdssMetrics.time(PnkdssMetrics.EXTEND, "extend_document", () -> service.extendDocument(signature, parameters));
+		});
+	}
+}
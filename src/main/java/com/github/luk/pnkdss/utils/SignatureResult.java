@@ -1,5 +1,12 @@
 package com.github.luk.pnkdss.utils;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import eu.europa.esig.dss.validation.reports.Reports;
+
 public class SignatureResult {
 
 	protected boolean ResultOK;
@@ -11,6 +18,12 @@ public class SignatureResult {
 	protected String text;
 	protected String payload;
 	protected String timestamp;
+	protected String signatureId;
+	protected String counterSignatureOf;
+	protected String signatureAlgorithm;
+	private List<SignatureResult> signatures = new ArrayList<>();
+	private Supplier<Reports> reportsSupplier;
+	private Reports reports;
 	
 	public SignatureResult() {
     	setChain(false);
@@ -22,6 +35,9 @@ public class SignatureResult {
         setSubject("");
         setPayload("");
         setTimestamp("");
+        setSignatureId("");
+        setCounterSignatureOf("");
+        setSignatureAlgorithm("");
 	}
 	
 	public String getPayload() {
@@ -82,4 +98,85 @@ public class SignatureResult {
 	public void setText(String text) {
 		this.text = text;
 	}
+
+	public String getSignatureId() {
+		return signatureId;
+	}
+
+	public void setSignatureId(String signatureId) {
+		this.signatureId = signatureId;
+	}
+
+	/**
+	 * @return id of the counter-signed signature, empty for a signature of the document
+	 */
+	public String getCounterSignatureOf() {
+		return counterSignatureOf;
+	}
+
+	public void setCounterSignatureOf(String counterSignatureOf) {
+		this.counterSignatureOf = counterSignatureOf;
+	}
+
+	/**
+	 * @return DSS name of the signature algorithm, e.g. ECDSA_SHA256 or RSA_SSA_PSS_SHA256_MGF1
+	 */
+	public String getSignatureAlgorithm() {
+		return signatureAlgorithm;
+	}
+
+	public void setSignatureAlgorithm(String signatureAlgorithm) {
+		this.signatureAlgorithm = signatureAlgorithm;
+	}
+
+	/**
+	 * The document result is valid only if every signature is; its other
+	 * fields describe the first signature, or the first invalid one.
+	 *
+	 * @return results of all signatures and counter-signatures, in document order
+	 */
+	public List<SignatureResult> getSignatures() {
+		return Collections.unmodifiableList(signatures);
+	}
+
+	public void setSignatures(List<SignatureResult> signatures) {
+		this.signatures = new ArrayList<>(signatures);
+	}
+
+	/**
+	 * @param reportsSupplier called at most once, on the first report request
+	 */
+	public synchronized void setReports(Supplier<Reports> reportsSupplier) {
+		this.reportsSupplier = reportsSupplier;
+		this.reports = null;
+	}
+
+	/**
+	 * @return DSS reports, built now if the validation did not need them
+	 */
+	public synchronized Reports getReports() {
+		if (reports == null && reportsSupplier != null) {
+			reports = reportsSupplier.get();
+			reportsSupplier = null;
+		}
+		return reports;
+	}
+
+	public String getXmlDetailedReport() {
+		Reports reports = getReports();
+		return reports != null ? reports.getXmlDetailedReport() : null;
+	}
+
+	public String getXmlSimpleReport() {
+		Reports reports = getReports();
+		return reports != null ? reports.getXmlSimpleReport() : null;
+	}
+
+	/**
+	 * @return ETSI TS 119 102-2 validation report
+	 */
+	public String getXmlValidationReport() {
+		Reports reports = getReports();
+		return reports != null ? reports.getXmlValidationReport() : null;
+	}
 }
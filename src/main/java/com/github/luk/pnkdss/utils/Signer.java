@@ -2,29 +2,12 @@ package com.github.luk.pnkdss.utils;
 
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
-import java.security.KeyStore.PasswordProtection;
-import java.util.ArrayList;
-import java.util.List;
-
-import javax.xml.crypto.dsig.CanonicalizationMethod;
 
 import org.springframework.stereotype.Component;
 
 import eu.europa.esig.dss.enumerations.DigestAlgorithm;
-import eu.europa.esig.dss.enumerations.SignatureLevel;
-import eu.europa.esig.dss.enumerations.SignaturePackaging;
-import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.enumerations.EncryptionAlgorithm;
 import eu.europa.esig.dss.model.InMemoryDocument;
-import eu.europa.esig.dss.model.SignatureValue;
-import eu.europa.esig.dss.model.ToBeSigned;
-import eu.europa.esig.dss.token.Pkcs12SignatureToken;
-import eu.europa.esig.dss.validation.CommonCertificateVerifier;
-import eu.europa.esig.dss.xades.XAdESSignatureParameters;
-import eu.europa.esig.dss.xades.reference.CanonicalizationTransform;
-import eu.europa.esig.dss.xades.reference.DSSReference;
-import eu.europa.esig.dss.xades.reference.DSSTransform;
-import eu.europa.esig.dss.xades.reference.EnvelopedSignatureTransform;
-import eu.europa.esig.dss.xades.signature.XAdESService;
 
 @Component
 public class Signer {
@@ -38,59 +21,66 @@ public class Signer {
 	public static String sign(InputStream document, InputStream keystore, char[] password)
 			throws Exception {
 
-		DSSDocument binaryInMemoryDocument = new InMemoryDocument(document);
-
-		Pkcs12SignatureToken token = new Pkcs12SignatureToken(
-				keystore, new PasswordProtection(password)
-		);
-
-		XAdESSignatureParameters parameters = new XAdESSignatureParameters();
-		parameters.setXPathLocationString("//*[@*[local-name()='id']='signedData']/*[last()]");
-		parameters.setSignatureLevel(SignatureLevel.XAdES_BASELINE_B);
-		parameters.setSignaturePackaging(SignaturePackaging.ENVELOPED);
-
-		List<DSSReference> references = new ArrayList<>();
-		// Initialize and configure ds:Reference based on the provided signer document
-		DSSReference dssReference = new DSSReference();
-		dssReference.setContents(binaryInMemoryDocument);
-		dssReference.setId("r-" + binaryInMemoryDocument.hashCode());
-		List<DSSTransform> transforms = new ArrayList<DSSTransform>();
-		DSSTransform envelopedTransform = new EnvelopedSignatureTransform();
-		transforms.add(envelopedTransform);
-		DSSTransform canonicalization = new CanonicalizationTransform(CanonicalizationMethod.EXCLUSIVE_WITH_COMMENTS);
-		transforms.add(canonicalization);
-		dssReference.setTransforms(transforms);
-		// set empty URI to cover the whole document
-		dssReference.setUri("#signedData");
-		dssReference.setDigestMethodAlgorithm(DigestAlgorithm.SHA256);
-		references.add(dssReference);
-		// set references
-		parameters.setReferences(references);
-		parameters.setXPathElementPlacement(
-				XAdESSignatureParameters.XPathElementPlacement.XPathAfter
-		);
-		parameters.setEn319132(false);
-
-		parameters.setSigningCertificate(token.getKeys().get(0).getCertificate());
-		parameters.setCertificateChain(token.getKeys().get(0).getCertificateChain());
+		try (SigningSession session = new SigningSession(keystore, password)) {
+			return session.sign(document);
+		}
+	}
 
-		CommonCertificateVerifier commonCertificateVerifier = new CommonCertificateVerifier();
+	/**
+	 * @param document document
+	 * @param keystore p12 form, one key
+	 * @param password for keystore
+	 * @param profile  e.g. {@link SigningProfile#PARALLEL} for a document that gets further signatures
+	 * @return signed document
+	 */
+	public static String sign(InputStream document, InputStream keystore, char[] password, SigningProfile profile)
+			throws Exception {
 
-		XAdESService service = new XAdESService(commonCertificateVerifier);
+		try (SigningSession session = new SigningSession(keystore, password, profile)) {
+			return session.sign(document);
+		}
+	}
 
-		ToBeSigned dataToSign = service.getDataToSign(binaryInMemoryDocument, parameters);
+	/**
+	 * @param document            document
+	 * @param keystore            p12 form, one key
+	 * @param password            for keystore
+	 * @param digestAlgorithm     digest of the reference and the signature
+	 * @param encryptionAlgorithm e.g. RSASSA_PSS for an RSA key, null for the algorithm of the key
+	 * @return signed document
+	 */
+	public static String sign(InputStream document, InputStream keystore, char[] password,
+			DigestAlgorithm digestAlgorithm, EncryptionAlgorithm encryptionAlgorithm) throws Exception {
 
-		SignatureValue signatureValue = token.sign(dataToSign, parameters.getDigestAlgorithm(), token.getKeys().get(0));
+		return sign(document, keystore, password, SigningProfile.DEFAULT.withAlgorithms(digestAlgorithm, encryptionAlgorithm));
+	}
 
-		token.close();
+	/**
+	 * @param signedDocument document signed with {@link SigningProfile#PARALLEL}
+	 * @param keystore       p12 form, one key
+	 * @param password       for keystore
+	 * @return document with one more parallel signature
+	 */
+	public static String addSignature(InputStream signedDocument, InputStream keystore, char[] password)
+			throws Exception {
 
-		DSSDocument signedDocument = service.signDocument(
-				binaryInMemoryDocument, parameters, signatureValue
-		);
+		return sign(signedDocument, keystore, password, SigningProfile.PARALLEL);
+	}
 
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		signedDocument.writeTo(baos);
+	/**
+	 * @param signedDocument signed document
+	 * @param signatureId    id of the signature to counter-sign, null for the first one
+	 * @param keystore       p12 form, one key
+	 * @param password       for keystore
+	 * @return document with the counter-signature
+	 */
+	public static String counterSign(InputStream signedDocument, String signatureId, InputStream keystore, char[] password)
+			throws Exception {
 
-		return baos.toString("UTF-8");
+		try (SigningSession session = new SigningSession(keystore, password)) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			session.counterSign(new InMemoryDocument(signedDocument), signatureId).writeTo(baos);
+			return baos.toString("UTF-8");
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,226 @@
+package com.github.luk.pnkdss.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.europa.esig.dss.model.DSSDocument;
+
+/**
+ * Signs documents concurrently with a fixed number of workers sharing one
+ * {@link SigningSession}.
+ * <p>
+ * The key material and the XAdES service are shared, every document gets its
+ * own parameters, {@code ToBeSigned} and {@code SignatureValue} confined to the
+ * worker thread. {@link #submit(Object)} blocks while the input queue is full.
+ * Results are handed to the {@link ResultHandler} from a single thread, either
+ * in submission order or in completion order.
+ * <p>
+ * In the asynchronous mode a worker does not wait for the private key
+ * operation, it prepares the next document while the session's
+ * {@link KeyBackend} signs. The queue capacity then also bounds the documents
+ * waiting for the key backend.
+ *
+ * @param <K> key identifying a document, e.g. its path
+ */
+public class SigningPipeline<K> implements AutoCloseable {
+
+	private static Logger log = LoggerFactory.getLogger(SigningPipeline.class);
+
+	/** Marks the end of submitted documents for the output thread. */
+	private static final Future<?> END = new CompletableFuture<>();
+
+	@FunctionalInterface
+	public interface DocumentLoader<K> {
+		DSSDocument load(K key) throws Exception;
+	}
+
+	@FunctionalInterface
+	public interface ResultHandler<K> {
+		/**
+		 * @param signed signed document, null on failure
+		 * @param error  failure, null on success
+		 * @param nanos  time spent loading and signing the document
+		 */
+		void handle(K key, DSSDocument signed, Throwable error, long nanos) throws Exception;
+	}
+
+	private static final class Result<K> {
+		final K key;
+		final DSSDocument signed;
+		final Throwable error;
+		final long nanos;
+
+		Result(K key, DSSDocument signed, Throwable error, long nanos) {
+			this.key = key;
+			this.signed = signed;
+			this.error = error;
+			this.nanos = nanos;
+		}
+	}
+
+	private final SigningSession session;
+	private final DocumentLoader<K> loader;
+	private final ResultHandler<K> handler;
+	private final boolean ordered;
+	private final boolean async;
+	private final Semaphore capacity;
+	private final ThreadPoolExecutor workers;
+	private final CompletionService<Result<K>> completion;
+	private final BlockingQueue<Future<Result<K>>> pending = new LinkedBlockingQueue<>();
+	private final BlockingQueue<Result<K>> done = new LinkedBlockingQueue<>();
+	private final Thread emitter;
+	private int submitted;
+	private volatile boolean closed;
+
+	/**
+	 * @param session       shared signing session
+	 * @param workerCount   number of signing threads
+	 * @param queueCapacity documents waiting for a worker before submit blocks
+	 * @param ordered       deliver results in submission order
+	 */
+	public SigningPipeline(SigningSession session, DocumentLoader<K> loader, ResultHandler<K> handler,
+			int workerCount, int queueCapacity, boolean ordered) {
+		this(session, loader, handler, workerCount, queueCapacity, ordered, false);
+	}
+
+	/**
+	 * @param async prepare and complete signatures on the workers while the
+	 *              key backend signs, see {@link SigningSession#signAsync(DSSDocument, java.util.concurrent.Executor)}
+	 */
+	public SigningPipeline(SigningSession session, DocumentLoader<K> loader, ResultHandler<K> handler,
+			int workerCount, int queueCapacity, boolean ordered, boolean async) {
+		if (workerCount < 1 || queueCapacity < 1) {
+			throw new IllegalArgumentException("Worker count and queue capacity must be positive.");
+		}
+		this.session = session;
+		this.loader = loader;
+		this.handler = handler;
+		this.ordered = ordered;
+		this.async = async;
+		this.capacity = new Semaphore(workerCount + queueCapacity);
+		AtomicInteger threadNumber = new AtomicInteger();
+		this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(workerCount + queueCapacity), r -> {
+					Thread t = new Thread(r, "pnkdss-signer-" + threadNumber.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+		this.completion = new ExecutorCompletionService<>(workers);
+		this.emitter = new Thread(this::emit, "pnkdss-signer-output");
+		this.emitter.setDaemon(true);
+		this.emitter.start();
+	}
+
+	/**
+	 * Queues a document for signing, blocks while the queue is full.
+	 */
+	public synchronized void submit(K key) throws InterruptedException {
+		if (closed) {
+			throw new IllegalStateException("Pipeline is closed.");
+		}
+		capacity.acquire();
+		if (async) {
+			pending.add(signAsync(key));
+		} else {
+			Callable<Result<K>> task = () -> signOne(key);
+			// completion order is only tracked when it is used, ordered output waits on the futures directly
+			pending.add(ordered ? workers.submit(task) : completion.submit(task));
+		}
+		submitted++;
+	}
+
+	private Result<K> signOne(K key) {
+		long start = System.nanoTime();
+		try {
+			DSSDocument signed = session.signDocument(loader.load(key));
+			return new Result<>(key, signed, null, System.nanoTime() - start);
+		} catch (Throwable e) {
+			return new Result<>(key, null, e, System.nanoTime() - start);
+		}
+	}
+
+	private CompletableFuture<Result<K>> signAsync(K key) {
+		long start = System.nanoTime();
+		CompletableFuture<Result<K>> result = CompletableFuture
+				.supplyAsync(() -> {
+					try {
+						return loader.load(key);
+					} catch (Exception e) {
+						throw new CompletionException(e);
+					}
+				}, workers)
+				.thenCompose(document -> session.signAsync(document, workers))
+				.handle((signed, error) -> new Result<>(key, signed,
+						error instanceof CompletionException && error.getCause() != null ? error.getCause() : error,
+						System.nanoTime() - start));
+		if (!ordered) {
+			result.thenAccept(done::add);
+		}
+		return result;
+	}
+
+	private void emit() {
+		try {
+			while (true) {
+				Future<Result<K>> future = pending.take();
+				if (future == END) {
+					return;
+				}
+				Result<K> result = ordered ? future.get() : async ? done.take() : completion.take().get();
+				try {
+					handler.handle(result.key, result.signed, result.error, result.nanos);
+				} catch (Exception e) {
+					log.error("Result handler failed for " + result.key, e);
+				} finally {
+					capacity.release();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// signOne never throws
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Future<Result<K>> end() {
+		return (Future<Result<K>>) END;
+	}
+
+	public synchronized int getSubmitted() {
+		return submitted;
+	}
+
+	/**
+	 * Waits until every submitted document has been handled and stops the workers.
+	 */
+	@Override
+	public void close() throws InterruptedException {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		pending.add(end());
+		emitter.join();
+		workers.shutdown();
+		workers.awaitTermination(1, TimeUnit.MINUTES);
+	}
+}
@@ -0,0 +1,268 @@
+package com.github.luk.pnkdss.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.crypto.dsig.CanonicalizationMethod;
+import javax.xml.xpath.XPathExpressionException;
+
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.enumerations.EncryptionAlgorithm;
+import eu.europa.esig.dss.enumerations.SignatureAlgorithm;
+import eu.europa.esig.dss.enumerations.SignatureLevel;
+import eu.europa.esig.dss.enumerations.SignaturePackaging;
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.xades.XAdESSignatureParameters;
+import eu.europa.esig.dss.xades.XAdESSignatureParameters.XPathElementPlacement;
+import eu.europa.esig.dss.xades.reference.CanonicalizationTransform;
+import eu.europa.esig.dss.xades.reference.DSSReference;
+import eu.europa.esig.dss.xades.reference.DSSTransform;
+import eu.europa.esig.dss.xades.reference.EnvelopedSignatureTransform;
+import eu.europa.esig.dss.xades.reference.XPathTransform;
+
+/**
+ * Immutable description of how documents are signed. Everything that does not
+ * depend on the document (transforms, validated XPath, algorithms) is prepared
+ * once, only the reference is created per document.
+ * <p>
+ * The signature algorithm follows the signing key (RSA, ECDSA or EdDSA) unless
+ * the profile names one, e.g. RSASSA_PSS for RSA keys.
+ */
+public final class SigningProfile {
+
+	public static final String DEFAULT_NAME = "default";
+
+	/** The signature layout pnkdss has always produced. */
+	public static final SigningProfile DEFAULT = new SigningProfile(DEFAULT_NAME,
+			SignatureLevel.XAdES_BASELINE_B,
+			"//*[@*[local-name()='id']='signedData']/*[last()]",
+			XPathElementPlacement.XPathAfter,
+			"#signedData",
+			CanonicalizationMethod.EXCLUSIVE_WITH_COMMENTS,
+			DigestAlgorithm.SHA256);
+
+	public static final String PARALLEL_NAME = "parallel";
+
+	/**
+	 * The default layout for documents carrying several parallel signatures:
+	 * every signature excludes all signatures from its signed data, so adding
+	 * one does not break the others.
+	 */
+	public static final SigningProfile PARALLEL = new SigningProfile(PARALLEL_NAME,
+			DEFAULT.getSignatureLevel(),
+			DEFAULT.getXPathLocation(),
+			DEFAULT.getXPathPlacement(),
+			DEFAULT.getReferenceUri(),
+			DEFAULT.getCanonicalization(),
+			DEFAULT.getDigestAlgorithm(),
+			true,
+			DEFAULT.getEncryptionAlgorithm());
+
+	/** Signatures inside the signed element, of any signer, are not signed. */
+	private static final String EXCLUDE_SIGNATURES = "not(ancestor-or-self::ds:Signature)";
+
+	private final String name;
+	private final SignatureLevel signatureLevel;
+	private final String xPathLocation;
+	private final XPathElementPlacement xPathPlacement;
+	private final String referenceUri;
+	private final String canonicalization;
+	private final DigestAlgorithm digestAlgorithm;
+	private final boolean parallelSignatures;
+	private final EncryptionAlgorithm encryptionAlgorithm;
+	private final CanonicalizationCache canonicalizationCache;
+	private final List<DSSTransform> transforms;
+
+	/**
+	 * @param xPathLocation    where the enveloped signature is placed
+	 * @param referenceUri     signed element, e.g. {@code #signedData}
+	 * @param canonicalization canonicalization method URI applied to the reference
+	 * @throws IllegalArgumentException if the XPath expression does not compile
+	 */
+	public SigningProfile(String name, SignatureLevel signatureLevel, String xPathLocation,
+			XPathElementPlacement xPathPlacement, String referenceUri, String canonicalization,
+			DigestAlgorithm digestAlgorithm) {
+		this(name, signatureLevel, xPathLocation, xPathPlacement, referenceUri, canonicalization, digestAlgorithm, false);
+	}
+
+	/**
+	 * @param parallelSignatures exclude every signature from the signed data
+	 *                           instead of only the enveloped one
+	 */
+	public SigningProfile(String name, SignatureLevel signatureLevel, String xPathLocation,
+			XPathElementPlacement xPathPlacement, String referenceUri, String canonicalization,
+			DigestAlgorithm digestAlgorithm, boolean parallelSignatures) {
+		this(name, signatureLevel, xPathLocation, xPathPlacement, referenceUri, canonicalization, digestAlgorithm,
+				parallelSignatures, null);
+	}
+
+	/**
+	 * @param encryptionAlgorithm signature algorithm used with the digest, e.g.
+	 *                            RSASSA_PSS, {@code null} for the one of the key
+	 */
+	public SigningProfile(String name, SignatureLevel signatureLevel, String xPathLocation,
+			XPathElementPlacement xPathPlacement, String referenceUri, String canonicalization,
+			DigestAlgorithm digestAlgorithm, boolean parallelSignatures, EncryptionAlgorithm encryptionAlgorithm) {
+		this(name, signatureLevel, xPathLocation, xPathPlacement, referenceUri, canonicalization, digestAlgorithm,
+				parallelSignatures, encryptionAlgorithm, null);
+	}
+
+	private SigningProfile(String name, SignatureLevel signatureLevel, String xPathLocation,
+			XPathElementPlacement xPathPlacement, String referenceUri, String canonicalization,
+			DigestAlgorithm digestAlgorithm, boolean parallelSignatures, EncryptionAlgorithm encryptionAlgorithm,
+			CanonicalizationCache canonicalizationCache) {
+		this.name = name;
+		this.signatureLevel = signatureLevel;
+		this.xPathLocation = xPathLocation;
+		this.xPathPlacement = xPathPlacement;
+		this.referenceUri = referenceUri;
+		this.canonicalization = canonicalization;
+		this.digestAlgorithm = digestAlgorithm;
+		this.parallelSignatures = parallelSignatures;
+		this.encryptionAlgorithm = encryptionAlgorithm;
+		this.canonicalizationCache = canonicalizationCache;
+
+		if (encryptionAlgorithm != null && encryptionAlgorithm != EncryptionAlgorithm.EDDSA
+				&& SignatureAlgorithm.getAlgorithm(encryptionAlgorithm, digestAlgorithm) == null) {
+			throw new IllegalArgumentException("Profile '" + name + "' has no signature algorithm for "
+					+ encryptionAlgorithm + " with " + digestAlgorithm);
+		}
+		try {
+			// DSS takes the location as a string, compile it once here so a broken profile fails at load time
+			XmlParsers.xPath().compile(xPathLocation);
+		} catch (XPathExpressionException e) {
+			throw new IllegalArgumentException("Profile '" + name + "' has an invalid XPath: " + xPathLocation, e);
+		}
+
+		// transforms are stateless, the same instances serve every document
+		List<DSSTransform> transforms = new ArrayList<>();
+		DSSTransform exclusion = parallelSignatures ? new XPathTransform(EXCLUDE_SIGNATURES) : new EnvelopedSignatureTransform();
+		transforms.add(exclusion);
+		// the cache must tell the exclusions apart, both see the same element
+		transforms.add(canonicalizationCache != null
+				? canonicalizationCache.transform(canonicalization,
+						parallelSignatures ? exclusion.getAlgorithm() + " " + EXCLUDE_SIGNATURES : exclusion.getAlgorithm())
+				: new CanonicalizationTransform(canonicalization));
+		this.transforms = Collections.unmodifiableList(transforms);
+	}
+
+	/**
+	 * Parameters can not be shared between documents, only the profile is.
+	 */
+	public XAdESSignatureParameters createParameters(DSSDocument document, CertificateToken signingCertificate,
+			CertificateToken[] certificateChain) {
+		XAdESSignatureParameters parameters = new XAdESSignatureParameters();
+		parameters.setXPathLocationString(xPathLocation);
+		parameters.setSignatureLevel(signatureLevel);
+		parameters.setSignaturePackaging(SignaturePackaging.ENVELOPED);
+
+		List<DSSReference> references = new ArrayList<>();
+		// Initialize and configure ds:Reference based on the provided signer document
+		DSSReference dssReference = new DSSReference();
+		dssReference.setContents(document);
+		dssReference.setId("r-" + document.hashCode());
+		dssReference.setTransforms(new ArrayList<>(transforms));
+		dssReference.setUri(referenceUri);
+		dssReference.setDigestMethodAlgorithm(digestAlgorithm);
+		references.add(dssReference);
+		parameters.setReferences(references);
+		parameters.setXPathElementPlacement(xPathPlacement);
+		parameters.setEn319132(false);
+
+		parameters.setSigningCertificate(signingCertificate);
+		parameters.setCertificateChain(certificateChain);
+		applyAlgorithms(parameters);
+		return parameters;
+	}
+
+	/**
+	 * Sets the digest and signature algorithm, after the signing certificate.
+	 *
+	 * @throws IllegalArgumentException if the profile's algorithm does not fit the signing key
+	 */
+	public void applyAlgorithms(XAdESSignatureParameters parameters) {
+		parameters.setDigestAlgorithm(digestAlgorithm);
+		if (encryptionAlgorithm != null) {
+			EncryptionAlgorithm keyAlgorithm = parameters.getEncryptionAlgorithm();
+			if (keyAlgorithm != null && !encryptionAlgorithm.isEquivalent(keyAlgorithm)) {
+				throw new IllegalArgumentException("Profile '" + name + "' signs with " + encryptionAlgorithm
+						+ ", the signing key is " + keyAlgorithm);
+			}
+			parameters.setEncryptionAlgorithm(encryptionAlgorithm);
+		}
+		if (parameters.getEncryptionAlgorithm() == EncryptionAlgorithm.EDDSA && parameters.getSignatureAlgorithm() == null) {
+			// Ed25519 hashes with SHA-512 itself, the profile's digest stays on the reference
+			parameters.setDigestAlgorithm(DigestAlgorithm.SHA512);
+		}
+	}
+
+	/**
+	 * @return copy of this profile with other algorithms
+	 */
+	public SigningProfile withAlgorithms(DigestAlgorithm digestAlgorithm, EncryptionAlgorithm encryptionAlgorithm) {
+		return new SigningProfile(name, signatureLevel, xPathLocation, xPathPlacement, referenceUri, canonicalization,
+				digestAlgorithm, parallelSignatures, encryptionAlgorithm, canonicalizationCache);
+	}
+
+	/**
+	 * @param canonicalizationCache cache of the canonicalized signed data,
+	 *                              {@code null} to canonicalize every time
+	 * @return copy of this profile canonicalizing through the cache
+	 */
+	public SigningProfile withCanonicalizationCache(CanonicalizationCache canonicalizationCache) {
+		return new SigningProfile(name, signatureLevel, xPathLocation, xPathPlacement, referenceUri, canonicalization,
+				digestAlgorithm, parallelSignatures, encryptionAlgorithm, canonicalizationCache);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public SignatureLevel getSignatureLevel() {
+		return signatureLevel;
+	}
+
+	public String getXPathLocation() {
+		return xPathLocation;
+	}
+
+	public XPathElementPlacement getXPathPlacement() {
+		return xPathPlacement;
+	}
+
+	public String getReferenceUri() {
+		return referenceUri;
+	}
+
+	public String getCanonicalization() {
+		return canonicalization;
+	}
+
+	public DigestAlgorithm getDigestAlgorithm() {
+		return digestAlgorithm;
+	}
+
+	public boolean isParallelSignatures() {
+		return parallelSignatures;
+	}
+
+	/**
+	 * @return signature algorithm of the profile, {@code null} if it follows the key
+	 */
+	public EncryptionAlgorithm getEncryptionAlgorithm() {
+		return encryptionAlgorithm;
+	}
+
+	/**
+	 * @return cache of the canonicalized signed data, {@code null} if none
+	 */
+	public CanonicalizationCache getCanonicalizationCache() {
+		return canonicalizationCache;
+	}
+
+	public List<DSSTransform> getTransforms() {
+		return transforms;
+	}
+}
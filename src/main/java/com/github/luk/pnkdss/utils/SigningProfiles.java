@@ -0,0 +1,140 @@
+package com.github.luk.pnkdss.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.yaml.snakeyaml.Yaml;
+
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.enumerations.EncryptionAlgorithm;
+import eu.europa.esig.dss.enumerations.SignatureLevel;
+import eu.europa.esig.dss.xades.XAdESSignatureParameters.XPathElementPlacement;
+
+/**
+ * Named {@link SigningProfile}s, loaded once from a properties or YAML file.
+ * <p>
+ * Every profile is a set of {@code pnkdss.profiles.<name>.<key>} entries, keys
+ * missing in a profile are taken from {@link SigningProfile#DEFAULT}:
+ *
+ * <pre>
+ * pnkdss:
+ *   profiles:
+ *     invoice:
+ *       level: XAdES_BASELINE_B
+ *       xpath: //*[@*[local-name()='id']='signedData']/*[last()]
+ *       placement: XPathAfter
+ *       reference-uri: "#signedData"
+ *       canonicalization: http://www.w3.org/2001/10/xml-exc-c14n#WithComments
+ *       digest: SHA256
+ *       parallel-signatures: false
+ *       signature: RSASSA_PSS
+ * </pre>
+ *
+ * {@code signature} is an {@link EncryptionAlgorithm} name (RSA, RSASSA_PSS,
+ * ECDSA or EDDSA), without it the algorithm follows the signing key.
+ *
+ * The {@link SigningProfile#PARALLEL} profile is always available as well.
+ */
+public class SigningProfiles {
+
+	public static final String PREFIX = "pnkdss.profiles.";
+
+	private final Map<String, SigningProfile> profiles;
+
+	private SigningProfiles(Map<String, SigningProfile> profiles) {
+		this.profiles = Collections.unmodifiableMap(profiles);
+	}
+
+	/**
+	 * @return only the {@link SigningProfile#DEFAULT} profile
+	 */
+	public static SigningProfiles defaults() {
+		return load(new Properties());
+	}
+
+	/**
+	 * @param file .properties, .yml or .yaml file
+	 */
+	public static SigningProfiles load(Path file) throws IOException {
+		Properties properties = new Properties();
+		String fileName = file.getFileName().toString();
+		if (fileName.endsWith(".yml") || fileName.endsWith(".yaml")) {
+			try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				flatten("", new Yaml().load(reader), properties);
+			}
+		} else {
+			try (InputStream is = Files.newInputStream(file)) {
+				properties.load(is);
+			}
+		}
+		return load(properties);
+	}
+
+	public static SigningProfiles load(Properties properties) {
+		Set<String> names = new TreeSet<>();
+		for (String key : properties.stringPropertyNames()) {
+			if (key.startsWith(PREFIX) && key.indexOf('.', PREFIX.length()) > 0) {
+				names.add(key.substring(PREFIX.length(), key.indexOf('.', PREFIX.length())));
+			}
+		}
+		Map<String, SigningProfile> profiles = new LinkedHashMap<>();
+		profiles.put(SigningProfile.DEFAULT_NAME, SigningProfile.DEFAULT);
+		profiles.put(SigningProfile.PARALLEL_NAME, SigningProfile.PARALLEL);
+		for (String name : names) {
+			profiles.put(name, profile(name, properties));
+		}
+		return new SigningProfiles(profiles);
+	}
+
+	private static SigningProfile profile(String name, Properties properties) {
+		SigningProfile base = SigningProfile.DEFAULT;
+		String prefix = PREFIX + name + ".";
+		return new SigningProfile(name,
+				SignatureLevel.valueOf(properties.getProperty(prefix + "level", base.getSignatureLevel().name())),
+				properties.getProperty(prefix + "xpath", base.getXPathLocation()),
+				XPathElementPlacement.valueOf(properties.getProperty(prefix + "placement", base.getXPathPlacement().name())),
+				properties.getProperty(prefix + "reference-uri", base.getReferenceUri()),
+				properties.getProperty(prefix + "canonicalization", base.getCanonicalization()),
+				DigestAlgorithm.valueOf(properties.getProperty(prefix + "digest", base.getDigestAlgorithm().name())),
+				Boolean.parseBoolean(properties.getProperty(prefix + "parallel-signatures", String.valueOf(base.isParallelSignatures()))),
+				properties.containsKey(prefix + "signature")
+						? EncryptionAlgorithm.valueOf(properties.getProperty(prefix + "signature"))
+						: base.getEncryptionAlgorithm());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void flatten(String prefix, Object value, Properties properties) {
+		if (value instanceof Map) {
+			for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) value).entrySet()) {
+				flatten(prefix + entry.getKey() + ".", entry.getValue(), properties);
+			}
+		} else if (value != null) {
+			properties.setProperty(prefix.substring(0, prefix.length() - 1), String.valueOf(value));
+		}
+	}
+
+	/**
+	 * @throws IllegalArgumentException for an unknown profile
+	 */
+	public SigningProfile get(String name) {
+		SigningProfile profile = profiles.get(name == null ? SigningProfile.DEFAULT_NAME : name);
+		if (profile == null) {
+			throw new IllegalArgumentException("Unknown signing profile '" + name + "', known profiles: " + profiles.keySet());
+		}
+		return profile;
+	}
+
+	public Set<String> getNames() {
+		return profiles.keySet();
+	}
+}
@@ -0,0 +1,249 @@
+package com.github.luk.pnkdss.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.InMemoryDocument;
+import eu.europa.esig.dss.spi.DSSUtils;
+
+/**
+ * Local HTTP endpoint keeping the signing keys of a {@link KeyRegistry} and a
+ * {@link VerificationSession} warm between requests.
+ * <ul>
+ * <li>{@code POST /sign[?profile=name][&tenant=id][&alias=name][&fingerprint=sha256]} - request body is the XML
+ * document, response is the signed document; the key is picked with {@link KeyRegistry#select(String, String, String)}</li>
+ * <li>{@code POST /verify[?mode=fast|cached]} - request body is the signed document, response is a JSON result;
+ * {@code fast} is {@link ValidationMode#SIGNATURE_ONLY}, {@code cached} is {@link ValidationMode#CACHED_CHAIN}</li>
+ * <li>{@code GET /health} - returns {@code OK}, or {@code 503} if the signing token is not available</li>
+ * <li>{@code GET /metrics} - {@link PnkdssMetrics} in the Prometheus text format</li>
+ * </ul>
+ * Requests are handled by a fixed pool of threads, connections are kept alive
+ * so clients can send requests back to back. Requests exceeding the in-flight
+ * limit are rejected with {@code 503} when they are dispatched, before their
+ * body is read, instead of queuing without bound.
+ */
+public class SigningServer implements AutoCloseable {
+
+	private static Logger log = LoggerFactory.getLogger(SigningServer.class);
+
+	@FunctionalInterface
+	private interface Handler {
+		void handle(HttpExchange exchange) throws Exception;
+	}
+
+	private final KeyRegistry keys;
+	private final SigningProfiles profiles;
+	private final VerificationSession verificationSession;
+	/** Set while the dispatcher thread answers a request the pool rejected. */
+	private static final ThreadLocal<Boolean> REJECTED = new ThreadLocal<>();
+
+	private final ThreadPoolExecutor executor;
+	private final HttpServer server;
+
+	/**
+	 * @param address     address to listen on, use a loopback address
+	 * @param threads     number of request threads
+	 * @param maxInFlight requests accepted at once, including those waiting for
+	 *                    a thread, at least the number of threads
+	 */
+	public SigningServer(SigningSession signingSession, SigningProfiles profiles, VerificationSession verificationSession,
+			InetSocketAddress address, int threads, int maxInFlight) throws IOException {
+		this(KeyRegistry.of(null, null, signingSession), profiles, verificationSession, address, threads, maxInFlight);
+	}
+
+	/**
+	 * @param keys signing keys, requests pick one by tenant, alias or fingerprint
+	 */
+	public SigningServer(KeyRegistry keys, SigningProfiles profiles, VerificationSession verificationSession,
+			InetSocketAddress address, int threads, int maxInFlight) throws IOException {
+		this.keys = keys;
+		this.profiles = profiles;
+		this.verificationSession = verificationSession;
+		AtomicInteger threadNumber = new AtomicInteger();
+		BlockingQueue<Runnable> queue = maxInFlight > threads
+				? new ArrayBlockingQueue<>(maxInFlight - threads)
+				: new SynchronousQueue<>();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, queue, r -> {
+			Thread t = new Thread(r, "pnkdss-server-" + threadNumber.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}, (r, pool) -> {
+			// the dispatcher runs the exchange itself, the handler only answers 503
+			REJECTED.set(Boolean.TRUE);
+			try {
+				r.run();
+			} finally {
+				REJECTED.remove();
+			}
+		});
+		this.server = HttpServer.create(address, maxInFlight);
+		this.server.setExecutor(executor);
+		this.server.createContext("/sign", limited(this::sign));
+		this.server.createContext("/verify", limited(this::verify));
+		this.server.createContext("/metrics", exchange -> respond(exchange, 200, "text/plain; version=0.0.4",
+				PnkdssMetrics.scrape().getBytes(StandardCharsets.UTF_8)));
+		this.server.createContext("/health", exchange -> {
+			if (isHealthy()) {
+				respond(exchange, 200, "text/plain", "OK".getBytes(StandardCharsets.UTF_8));
+			} else {
+				respond(exchange, 503, "text/plain", "Signing token not available".getBytes(StandardCharsets.UTF_8));
+			}
+		});
+	}
+
+	/**
+	 * Signs and verifies the sample document, so that the first requests do
+	 * not pay for class loading and JIT compilation.
+	 */
+	public void warmUp(int iterations) throws Exception {
+		KeyRegistry.Entry key = keys.acquire(null, null, null);
+		try {
+			for (int i = 0; i < iterations; i++) {
+				DSSDocument signed = key.getSession().signDocument(
+						new InMemoryDocument(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)));
+				verificationSession.checkDocument(signed);
+			}
+		} finally {
+			key.release();
+		}
+	}
+
+	private boolean isHealthy() {
+		for (KeyRegistry.Entry entry : keys.getEntries()) {
+			if (!entry.getSession().isHealthy()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void start() {
+		server.start();
+		log.info("Listening on " + server.getAddress());
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	private HttpHandler limited(Handler handler) {
+		return exchange -> {
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				respond(exchange, 405, "text/plain", "Use POST".getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			if (REJECTED.get() != null) {
+				respond(exchange, 503, "text/plain", "Too many requests in flight".getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			try {
+				handler.handle(exchange);
+			} catch (Exception e) {
+				log.warn("Request " + exchange.getRequestURI() + " failed", e);
+				respond(exchange, 400, "text/plain", String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+			}
+		};
+	}
+
+	private void sign(HttpExchange exchange) throws Exception {
+		String profile = queryParameter(exchange, "profile");
+		InMemoryDocument document = new InMemoryDocument(readBody(exchange));
+		KeyRegistry.Entry key = keys.acquire(queryParameter(exchange, "tenant"), queryParameter(exchange, "alias"),
+				queryParameter(exchange, "fingerprint"));
+		DSSDocument signed;
+		try {
+			signed = profile == null
+					? key.getSession().signDocument(document)
+					: key.getSession().signDocument(document, profiles.get(profile));
+		} finally {
+			key.release();
+		}
+		// with its length, so a client notices a response cut off midway;
+		// DSS returns the signed document in memory, the bytes are not copied
+		byte[] body = signed instanceof InMemoryDocument ? ((InMemoryDocument) signed).getBytes() : DSSUtils.toByteArray(signed);
+		respond(exchange, 200, "application/xml", body);
+	}
+
+	private void verify(HttpExchange exchange) throws Exception {
+		String modeName = queryParameter(exchange, "mode");
+		ValidationMode mode = "fast".equals(modeName) ? ValidationMode.SIGNATURE_ONLY
+				: "cached".equals(modeName) ? ValidationMode.CACHED_CHAIN : ValidationMode.FULL;
+		SignatureResult sr = verificationSession.checkDocument(new InMemoryDocument(readBody(exchange)), mode);
+		StringBuilder signatures = new StringBuilder();
+		for (SignatureResult signature : sr.getSignatures()) {
+			signatures.append(signatures.length() == 0 ? "" : ",")
+					.append("{\"id\":").append(VerificationReport.quote(signature.getSignatureId()))
+					.append(",\"counterSignatureOf\":").append(VerificationReport.quote(signature.getCounterSignatureOf()))
+					.append(",\"valid\":").append(signature.isResultOK())
+					.append(",\"indication\":").append(VerificationReport.quote(signature.getText()))
+					.append(",\"signatureAlgorithm\":").append(VerificationReport.quote(signature.getSignatureAlgorithm()))
+					.append(",\"subject\":").append(VerificationReport.quote(signature.getSubject())).append("}");
+		}
+		String json = "{\"valid\":" + sr.isResultOK()
+				+ ",\"indication\":" + VerificationReport.quote(sr.getText())
+				+ ",\"timestamp\":" + VerificationReport.quote(sr.getTimestamp())
+				+ ",\"pem\":" + VerificationReport.quote(sr.getPem())
+				+ ",\"signatures\":[" + signatures + "]}";
+		respond(exchange, 200, "application/json", json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String queryParameter(HttpExchange exchange, String name) throws IOException {
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query == null) {
+			return null;
+		}
+		for (String parameter : query.split("&")) {
+			int eq = parameter.indexOf('=');
+			if (eq > 0 && name.equals(parameter.substring(0, eq))) {
+				return URLDecoder.decode(parameter.substring(eq + 1), "UTF-8");
+			}
+		}
+		return null;
+	}
+
+	private static byte[] readBody(HttpExchange exchange) throws IOException {
+		try (InputStream is = exchange.getRequestBody()) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				baos.write(buffer, 0, read);
+			}
+			return baos.toByteArray();
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(body);
+		}
+	}
+
+	@Override
+	public void close() throws InterruptedException {
+		server.stop(1);
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+	}
+}
@@ -0,0 +1,331 @@
+package com.github.luk.pnkdss.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.enumerations.SignatureAlgorithm;
+import eu.europa.esig.dss.enumerations.SignatureLevel;
+import eu.europa.esig.dss.enumerations.SignaturePackaging;
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.DigestDocument;
+import eu.europa.esig.dss.model.InMemoryDocument;
+import eu.europa.esig.dss.model.SignatureValue;
+import eu.europa.esig.dss.model.ToBeSigned;
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.spi.DSSUtils;
+import eu.europa.esig.dss.validation.AdvancedSignature;
+import eu.europa.esig.dss.validation.CommonCertificateVerifier;
+import eu.europa.esig.dss.xades.XAdESSignatureParameters;
+import eu.europa.esig.dss.xades.signature.XAdESCounterSignatureParameters;
+import eu.europa.esig.dss.xades.signature.XAdESService;
+import eu.europa.esig.dss.xades.validation.XMLDocumentValidator;
+
+/**
+ * Keeps an opened token, its key entry and the XAdES service, so that many
+ * documents can be signed without reloading them. A session may be used by
+ * several threads at once, see {@link SigningPipeline}.
+ * <p>
+ * Besides the blocking {@code sign} methods the two phases of a signature are
+ * available separately, see {@link #prepare(DSSDocument, SigningProfile)} and
+ * {@link #signAsync(DSSDocument, SigningProfile, Executor)}.
+ * <p>
+ * Signing an already signed document adds a parallel signature, the document
+ * has to be signed with a profile that excludes signatures from the signed
+ * data from the start, see {@link SigningProfile#PARALLEL}.
+ * {@link #counterSign(DSSDocument, String)} signs an existing signature.
+ */
+public class SigningSession implements Closeable {
+
+	static {
+		// parse with per thread builders instead of a new factory per document
+		XmlParsers.install();
+	}
+
+	private final KeyBackend keyBackend;
+	private final CertificateToken signingCertificate;
+	private final CertificateToken[] certificateChain;
+	private final XAdESService service;
+	private final SigningProfile profile;
+
+	/**
+	 * @param keystore p12 form, first key is used
+	 * @param password for keystore
+	 */
+	public SigningSession(InputStream keystore, char[] password) {
+		this(keystore, password, SigningProfile.DEFAULT);
+	}
+
+	/**
+	 * @param keystore p12 form, first key is used
+	 * @param password for keystore
+	 * @param profile  default profile of the session
+	 */
+	public SigningSession(InputStream keystore, char[] password, SigningProfile profile) {
+		this(openPool(keystore, password), profile);
+	}
+
+	/**
+	 * @param tokens  connections to the token, closed with the session
+	 * @param profile default profile of the session
+	 */
+	public SigningSession(TokenPool tokens, SigningProfile profile) {
+		this(new TokenKeyBackend(tokens, 0), profile);
+	}
+
+	/**
+	 * @param keyBackend holder of the signing key, closed with the session
+	 * @param profile    default profile of the session
+	 */
+	public SigningSession(KeyBackend keyBackend, SigningProfile profile) {
+		this.keyBackend = keyBackend;
+		this.signingCertificate = keyBackend.getSigningCertificate();
+		this.certificateChain = keyBackend.getCertificateChain();
+		this.service = new XAdESService(new CommonCertificateVerifier());
+		this.profile = profile;
+	}
+
+	private static TokenPool openPool(InputStream keystore, char[] password) {
+		return PnkdssMetrics.time(PnkdssMetrics.SIGN, "keystore_load", () -> {
+			try {
+				return new TokenPool(TokenProvider.keyStore(DSSUtils.toByteArray(keystore), "PKCS12", password), 1);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	/**
+	 * @param keystore path to p12 keystore
+	 * @param password for keystore
+	 */
+	public static SigningSession open(Path keystore, char[] password) throws Exception {
+		return open(keystore, password, SigningProfile.DEFAULT);
+	}
+
+	/**
+	 * @param keystore path to p12 (or jks) keystore
+	 * @param password for keystore
+	 * @param profile  default profile of the session
+	 */
+	public static SigningSession open(Path keystore, char[] password, SigningProfile profile) throws Exception {
+		return new SigningSession(PnkdssMetrics.time(PnkdssMetrics.SIGN, "keystore_load",
+				() -> new TokenPool(TokenProvider.keyStore(keystore, password), 1)), profile);
+	}
+
+	/**
+	 * @param document document
+	 * @return signed document
+	 */
+	public String sign(InputStream document) throws Exception {
+		DSSDocument signedDocument = signDocument(new InMemoryDocument(document));
+
+		return PnkdssMetrics.time(PnkdssMetrics.SIGN, "serialization", () -> {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			signedDocument.writeTo(baos);
+			return baos.toString("UTF-8");
+		});
+	}
+
+	/**
+	 * Streams the document from and the signed document to the file system
+	 * without intermediate copies on the heap. The signed document replaces
+	 * the target only once it is written completely, see
+	 * {@link Documents#write(DSSDocument, Path)}.
+	 *
+	 * @param document path to the document
+	 * @param signed   path to the signed document
+	 */
+	public void sign(Path document, Path signed) throws Exception {
+		DSSDocument signedDocument = signDocument(Documents.open(document));
+
+		PnkdssMetrics.time(PnkdssMetrics.SIGN, "serialization", () -> {
+			Documents.write(signedDocument, signed);
+			return null;
+		});
+	}
+
+	/**
+	 * Signs completely before the first byte is written, a failure of the
+	 * signature leaves the stream untouched.
+	 *
+	 * @param document document
+	 * @param signed   receives the signed document, left open
+	 */
+	public void sign(DSSDocument document, OutputStream signed) throws Exception {
+		DSSDocument signedDocument = signDocument(document);
+		PnkdssMetrics.time(PnkdssMetrics.SIGN, "serialization", () -> {
+			signedDocument.writeTo(signed);
+			return null;
+		});
+	}
+
+	/**
+	 * @param document document
+	 * @return signed document
+	 */
+	public DSSDocument signDocument(DSSDocument document) {
+		return signDocument(document, profile);
+	}
+
+	/**
+	 * @param document document
+	 * @param profile  profile used instead of the session default
+	 * @return signed document
+	 */
+	public DSSDocument signDocument(DSSDocument document, SigningProfile profile) {
+		return PnkdssMetrics.timeOperation(PnkdssMetrics.SIGN, () -> sign(prepare(document, profile)));
+	}
+
+	/**
+	 * First phase of a signature, see {@link PreparedSignature#complete(SignatureValue)}.
+	 *
+	 * @param document document
+	 * @param profile  profile of the signature
+	 */
+	public PreparedSignature prepare(DSSDocument document, SigningProfile profile) {
+		return new PreparedSignature(service, document, profile.createParameters(document, signingCertificate, certificateChain));
+	}
+
+	/**
+	 * @see #signAsync(DSSDocument, SigningProfile, Executor)
+	 */
+	public CompletableFuture<DSSDocument> signAsync(DSSDocument document, Executor executor) {
+		return signAsync(document, profile, executor);
+	}
+
+	/**
+	 * Signs without blocking the calling thread. The document is prepared and
+	 * completed on the executor, the key operation runs in the key backend,
+	 * so the executor threads prepare further documents meanwhile.
+	 *
+	 * @param executor threads for the XML work
+	 * @return signed document
+	 */
+	public CompletableFuture<DSSDocument> signAsync(DSSDocument document, SigningProfile profile, Executor executor) {
+		long start = System.nanoTime();
+		CompletableFuture<DSSDocument> signed = CompletableFuture
+				.supplyAsync(() -> prepare(document, profile), executor)
+				.thenCompose(prepared -> {
+					long keyStart = System.nanoTime();
+					return keyBackend.sign(prepared.getDataToSign(), prepared.getSignatureAlgorithm())
+							.whenComplete((value, error) -> PnkdssMetrics.record(PnkdssMetrics.SIGN, "private_key_sign",
+									System.nanoTime() - keyStart))
+							.thenApplyAsync(prepared::complete, executor);
+				});
+		return signed.whenComplete((result, error) -> PnkdssMetrics.recordOperation(PnkdssMetrics.SIGN,
+				System.nanoTime() - start, error));
+	}
+
+	/**
+	 * Signs the prepared document, waiting for the key backend.
+	 */
+	private DSSDocument sign(PreparedSignature prepared) {
+		return prepared.complete(signatureValue(prepared.getDataToSign(), prepared.getSignatureAlgorithm()));
+	}
+
+	private SignatureValue signatureValue(ToBeSigned dataToSign, SignatureAlgorithm signatureAlgorithm) {
+		return PnkdssMetrics.time(PnkdssMetrics.SIGN, "private_key_sign", () -> {
+			try {
+				return keyBackend.sign(dataToSign, signatureAlgorithm).join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw e;
+			}
+		});
+	}
+
+	/**
+	 * Counter-signs a signature of the document. Other signatures, and the
+	 * signed data, are left as they are.
+	 *
+	 * @param signedDocument document with at least one signature
+	 * @param signatureId    id of the signature to counter-sign, {@code null} for the first one
+	 * @return document with the counter-signature
+	 */
+	public DSSDocument counterSign(DSSDocument signedDocument, String signatureId) {
+		XAdESCounterSignatureParameters parameters = new XAdESCounterSignatureParameters();
+		parameters.setSignatureLevel(SignatureLevel.XAdES_BASELINE_B);
+		parameters.setEn319132(false);
+		parameters.setSigningCertificate(signingCertificate);
+		parameters.setCertificateChain(certificateChain);
+		profile.applyAlgorithms(parameters);
+
+		return PnkdssMetrics.timeOperation(PnkdssMetrics.SIGN, () -> {
+			parameters.setSignatureIdToCounterSign(signatureId != null ? signatureId : firstSignatureId(signedDocument));
+			ToBeSigned dataToSign = PnkdssMetrics.time(PnkdssMetrics.SIGN, "data_to_sign",
+					() -> service.getDataToBeCounterSigned(signedDocument, parameters));
+			SignatureValue signatureValue = signatureValue(dataToSign, parameters.getSignatureAlgorithm());
+			return PnkdssMetrics.time(PnkdssMetrics.SIGN, "sign_document",
+					() -> service.counterSignSignature(signedDocument, parameters, signatureValue));
+		});
+	}
+
+	private static String firstSignatureId(DSSDocument signedDocument) {
+		List<AdvancedSignature> signatures = new XMLDocumentValidator(signedDocument).getSignatures();
+		if (signatures.isEmpty()) {
+			throw new IllegalArgumentException("The document has no signature to counter-sign.");
+		}
+		return signatures.get(0).getId();
+	}
+
+	/**
+	 * Creates a detached signature over a payload known only by its digest, see
+	 * {@link StreamingDigester}.
+	 *
+	 * @param payload digest of the detached payload, its name is the reference URI,
+	 *                computed with {@link #getDetachedDigestAlgorithm()}
+	 * @return detached signature
+	 */
+	public DSSDocument signDetached(DigestDocument payload) {
+		XAdESSignatureParameters parameters = detachedParameters();
+		return PnkdssMetrics.timeOperation(PnkdssMetrics.SIGN, () -> sign(new PreparedSignature(service, payload, parameters)));
+	}
+
+	/**
+	 * @return digest algorithm of the reference to a detached payload, the
+	 *         profile's digest also when the key hashes with another one
+	 */
+	public DigestAlgorithm getDetachedDigestAlgorithm() {
+		return detachedParameters().getReferenceDigestAlgorithm();
+	}
+
+	private XAdESSignatureParameters detachedParameters() {
+		XAdESSignatureParameters parameters = new XAdESSignatureParameters();
+		parameters.setSignatureLevel(profile.getSignatureLevel());
+		parameters.setSignaturePackaging(SignaturePackaging.DETACHED);
+		parameters.setEn319132(false);
+		parameters.setSigningCertificate(signingCertificate);
+		parameters.setCertificateChain(certificateChain);
+		profile.applyAlgorithms(parameters);
+		parameters.setReferenceDigestAlgorithm(profile.getDigestAlgorithm());
+		return parameters;
+	}
+
+	public CertificateToken getSigningCertificate() {
+		return signingCertificate;
+	}
+
+	/**
+	 * @return {@code false} if the token no longer lists the signing key
+	 */
+	public boolean isHealthy() {
+		return keyBackend.isHealthy();
+	}
+
+	@Override
+	public void close() {
+		keyBackend.close();
+	}
+}
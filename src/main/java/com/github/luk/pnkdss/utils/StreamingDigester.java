@@ -0,0 +1,144 @@
+package com.github.luk.pnkdss.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import javax.xml.crypto.dsig.XMLSignature;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import eu.europa.esig.dss.DomUtils;
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.DigestDocument;
+
+/**
+ * Computes the digest of a detached payload chunk by chunk, so the payload is
+ * never held in memory. The result is a {@link DigestDocument} which can be
+ * signed with {@link SigningSession#signDetached(DigestDocument)}.
+ * <p>
+ * An instance is not thread-safe, feed it from one thread.
+ */
+public class StreamingDigester {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final DigestAlgorithm digestAlgorithm;
+	private final MessageDigest messageDigest;
+	private long length;
+
+	public StreamingDigester(DigestAlgorithm digestAlgorithm) {
+		this.digestAlgorithm = digestAlgorithm;
+		try {
+			this.messageDigest = MessageDigest.getInstance(digestAlgorithm.getJavaName());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("Unsupported digest algorithm " + digestAlgorithm, e);
+		}
+	}
+
+	public StreamingDigester update(byte[] chunk, int offset, int len) {
+		messageDigest.update(chunk, offset, len);
+		length += len;
+		return this;
+	}
+
+	public StreamingDigester update(ByteBuffer chunk) {
+		length += chunk.remaining();
+		messageDigest.update(chunk);
+		return this;
+	}
+
+	public StreamingDigester update(InputStream stream) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int read;
+		while ((read = stream.read(buffer)) != -1) {
+			update(buffer, 0, read);
+		}
+		return this;
+	}
+
+	/**
+	 * @return bytes digested so far
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Completes the digest, the digester can not be used afterwards.
+	 *
+	 * @param name name of the payload, used as the reference URI
+	 */
+	public DigestDocument finish(String name) {
+		String digest = Base64.getEncoder().encodeToString(messageDigest.digest());
+		return new DigestDocument(digestAlgorithm, digest, name);
+	}
+
+	/**
+	 * @param payload file digested in constant memory
+	 */
+	public static DigestDocument digest(Path payload, DigestAlgorithm digestAlgorithm) throws IOException {
+		try (InputStream is = Files.newInputStream(payload)) {
+			return new StreamingDigester(digestAlgorithm).update(is).finish(payload.getFileName().toString());
+		}
+	}
+
+	/**
+	 * @param payload   file digested in constant memory
+	 * @param signature detached signature over the payload, its reference
+	 *                  gives the digest algorithm
+	 */
+	public static DigestDocument digest(Path payload, DSSDocument signature) throws IOException {
+		return digest(payload, referenceDigestAlgorithm(signature, payload.getFileName().toString()));
+	}
+
+	/**
+	 * @param name name of the payload, the URI of its reference
+	 * @throws IllegalArgumentException if the signature has no reference to
+	 *                                  a detached payload
+	 */
+	static DigestAlgorithm referenceDigestAlgorithm(DSSDocument signature, String name) {
+		NodeList references = DomUtils.buildDOM(signature).getElementsByTagNameNS(XMLSignature.XMLNS, "Reference");
+		Element detached = null;
+		for (int i = 0; i < references.getLength(); i++) {
+			Element reference = (Element) references.item(i);
+			String uri = reference.getAttribute("URI");
+			if (uri.equals(name)) {
+				detached = reference;
+				break;
+			}
+			if (detached == null && !uri.isEmpty() && !uri.startsWith("#")) {
+				detached = reference;
+			}
+		}
+		if (detached == null) {
+			throw new IllegalArgumentException("The signature has no reference to a detached payload.");
+		}
+		Element digestMethod = (Element) detached.getElementsByTagNameNS(XMLSignature.XMLNS, "DigestMethod").item(0);
+		return DigestAlgorithm.forXML(digestMethod.getAttribute("Algorithm"));
+	}
+
+	/**
+	 * Digests the payload on the given executor, so hashing can overlap with
+	 * signing of other documents.
+	 */
+	public static CompletableFuture<DigestDocument> digestAsync(Path payload, DigestAlgorithm digestAlgorithm, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return digest(payload, digestAlgorithm);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+	}
+}
@@ -0,0 +1,81 @@
+package com.github.luk.pnkdss.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * SOAP envelopes of random shape for load tests. Like
+ * {@link Generator#xmlContent} they carry the signed {@code urn:data} element,
+ * which holds a number of records, each a chain of nested elements around a
+ * text payload.
+ * <p>
+ * Documents are written straight to a stream, a document depends only on the
+ * seed and its index, so a corpus can be written by many threads and comes
+ * out the same every time.
+ */
+public class SyntheticEnvelope {
+
+	private static final String HEAD = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n"
+			+ "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:urn=\"urn:com:github:luk:pnkdss\">\n"
+			+ "  <soapenv:Header />\n  <soapenv:Body>\n    <urn:data urn:id=\"signedData\">\n";
+	private static final String TAIL = "    </urn:data>\n  </soapenv:Body>\n</soapenv:Envelope>";
+	private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789 ".toCharArray();
+
+	private final Distribution elements;
+	private final Distribution depth;
+	private final Distribution payloadBytes;
+
+	/**
+	 * @param elements     records in the signed element, at least one is written
+	 * @param depth        nesting of each record, at least 1
+	 * @param payloadBytes text bytes of the whole document, spread over the records
+	 */
+	public SyntheticEnvelope(Distribution elements, Distribution depth, Distribution payloadBytes) {
+		this.elements = elements;
+		this.depth = depth;
+		this.payloadBytes = payloadBytes;
+	}
+
+	/**
+	 * @return bytes written
+	 */
+	public long write(Path target, long seed, long index) throws IOException {
+		try (Writer out = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+			write(out, new Random(seed * 0x9E3779B97F4A7C15L + index));
+		}
+		return Files.size(target);
+	}
+
+	public void write(Writer out, Random random) throws IOException {
+		long records = Math.max(1, elements.sample(random));
+		long payload = payloadBytes.sample(random);
+		char[] buffer = new char[1024];
+		out.write(HEAD);
+		for (long i = 0; i < records; i++) {
+			long levels = Math.max(1, depth.sample(random));
+			out.write("      ");
+			for (long level = 0; level < levels; level++) {
+				out.write(level == 0 ? "<urn:record urn:n=\"" + i + "\">" : "<urn:element>");
+			}
+			// the first records take the remainder
+			long text = payload / records + (i < payload % records ? 1 : 0);
+			while (text > 0) {
+				int n = (int) Math.min(text, buffer.length);
+				for (int c = 0; c < n; c++) {
+					buffer[c] = ALPHABET[random.nextInt(ALPHABET.length)];
+				}
+				out.write(buffer, 0, n);
+				text -= n;
+			}
+			for (long level = levels - 1; level >= 0; level--) {
+				out.write(level == 0 ? "</urn:record>" : "</urn:element>");
+			}
+			out.write('\n');
+		}
+		out.write(TAIL);
+	}
+}
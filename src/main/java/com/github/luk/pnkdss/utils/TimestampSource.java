@@ -0,0 +1,118 @@
+package com.github.luk.pnkdss.utils;
+
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.model.DSSException;
+import eu.europa.esig.dss.model.TimestampBinary;
+import eu.europa.esig.dss.service.tsp.OnlineTSPSource;
+import eu.europa.esig.dss.spi.x509.tsp.TSPSource;
+
+/**
+ * Shares one time-stamping authority between extensions running in parallel.
+ * <p>
+ * An RFC 3161 request carries a single message imprint, so requests of
+ * different signatures can not be folded into one TSA call. Concurrent
+ * requests for the same digest (e.g. a document listed twice in a batch) are
+ * coalesced into one call, and at most {@code maxConcurrent} calls reach the
+ * TSA at a time.
+ */
+public class TimestampSource implements TSPSource {
+
+	private static final long serialVersionUID = 1L;
+
+	private final TSPSource tsa;
+	private final transient Semaphore calls;
+	private final transient ConcurrentHashMap<String, CompletableFuture<TimestampBinary>> inFlight = new ConcurrentHashMap<>();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong tsaCalls = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * @param tsa           the authority, e.g. an {@link OnlineTSPSource} or a {@link LocalTimestampAuthority}
+	 * @param maxConcurrent calls sent to the authority at once
+	 */
+	public TimestampSource(TSPSource tsa, int maxConcurrent) {
+		if (maxConcurrent < 1) {
+			throw new IllegalArgumentException("At least one concurrent timestamp request is needed.");
+		}
+		this.tsa = tsa;
+		this.calls = new Semaphore(maxConcurrent);
+	}
+
+	/**
+	 * @param url RFC 3161 endpoint of the authority
+	 */
+	public static TimestampSource online(String url, int maxConcurrent) {
+		return new TimestampSource(new OnlineTSPSource(url), maxConcurrent);
+	}
+
+	@Override
+	public TimestampBinary getTimeStampResponse(DigestAlgorithm digestAlgorithm, byte[] digest) {
+		requests.incrementAndGet();
+		String key = digestAlgorithm.name() + ":" + Base64.getEncoder().encodeToString(digest);
+		CompletableFuture<TimestampBinary> request = new CompletableFuture<>();
+		CompletableFuture<TimestampBinary> running = inFlight.putIfAbsent(key, request);
+		if (running != null) {
+			coalesced.incrementAndGet();
+			try {
+				return running.join();
+			} catch (CompletionException e) {
+				Throwable cause = e.getCause();
+				throw cause instanceof RuntimeException ? (RuntimeException) cause
+						: new DSSException("Timestamp request failed", cause);
+			}
+		}
+		try {
+			request.complete(call(digestAlgorithm, digest));
+		} catch (RuntimeException | Error e) {
+			// the coalesced requests must not wait forever
+			request.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, request);
+		}
+		return request.join();
+	}
+
+	private TimestampBinary call(DigestAlgorithm digestAlgorithm, byte[] digest) {
+		try {
+			calls.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DSSException("Interrupted while waiting for the timestamp authority", e);
+		}
+		try {
+			tsaCalls.incrementAndGet();
+			return PnkdssMetrics.time(PnkdssMetrics.EXTEND, "timestamp", () -> tsa.getTimeStampResponse(digestAlgorithm, digest));
+		} finally {
+			calls.release();
+		}
+	}
+
+	/**
+	 * @return timestamps requested by the extensions
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return calls sent to the authority
+	 */
+	public long getTsaCalls() {
+		return tsaCalls.get();
+	}
+
+	/**
+	 * @return requests answered by the call of a concurrent request for the same digest
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+}
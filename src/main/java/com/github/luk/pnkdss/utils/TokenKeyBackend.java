@@ -0,0 +1,76 @@
+package com.github.luk.pnkdss.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.europa.esig.dss.enumerations.SignatureAlgorithm;
+import eu.europa.esig.dss.model.SignatureValue;
+import eu.europa.esig.dss.model.ToBeSigned;
+import eu.europa.esig.dss.model.x509.CertificateToken;
+
+/**
+ * {@link KeyBackend} signing with a {@link TokenPool} of this process, either
+ * on the calling thread or on dedicated key threads.
+ */
+public class TokenKeyBackend implements KeyBackend {
+
+	private final TokenPool tokens;
+	private final ExecutorService keyThreads;
+
+	/**
+	 * @param tokens  connections to the token, closed with the backend
+	 * @param threads key threads, {@code 0} signs on the calling thread
+	 */
+	public TokenKeyBackend(TokenPool tokens, int threads) {
+		this.tokens = tokens;
+		if (threads > 0) {
+			AtomicInteger threadNumber = new AtomicInteger();
+			this.keyThreads = Executors.newFixedThreadPool(threads, r -> {
+				Thread t = new Thread(r, "pnkdss-key-" + threadNumber.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		} else {
+			this.keyThreads = null;
+		}
+	}
+
+	@Override
+	public CertificateToken getSigningCertificate() {
+		return tokens.getSigningCertificate();
+	}
+
+	@Override
+	public CertificateToken[] getCertificateChain() {
+		return tokens.getCertificateChain();
+	}
+
+	@Override
+	public CompletableFuture<SignatureValue> sign(ToBeSigned dataToSign, SignatureAlgorithm signatureAlgorithm) {
+		if (keyThreads == null) {
+			CompletableFuture<SignatureValue> signatureValue = new CompletableFuture<>();
+			try {
+				signatureValue.complete(tokens.sign(dataToSign, signatureAlgorithm));
+			} catch (RuntimeException e) {
+				signatureValue.completeExceptionally(e);
+			}
+			return signatureValue;
+		}
+		return CompletableFuture.supplyAsync(() -> tokens.sign(dataToSign, signatureAlgorithm), keyThreads);
+	}
+
+	@Override
+	public boolean isHealthy() {
+		return tokens.isHealthy();
+	}
+
+	@Override
+	public void close() {
+		if (keyThreads != null) {
+			keyThreads.shutdown();
+		}
+		tokens.close();
+	}
+}
@@ -0,0 +1,296 @@
+package com.github.luk.pnkdss.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.europa.esig.dss.enumerations.SignatureAlgorithm;
+import eu.europa.esig.dss.model.SignatureValue;
+import eu.europa.esig.dss.model.ToBeSigned;
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.token.DSSPrivateKeyEntry;
+import eu.europa.esig.dss.token.KSPrivateKeyEntry;
+import eu.europa.esig.dss.token.SignatureTokenConnection;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Logged in connections to a signature token, shared by concurrent signers.
+ * Connections are opened on demand up to the pool size and reused, so a
+ * signature never pays for a new login. A connection failing to sign is
+ * closed and replaced by a new one on the next demand.
+ * <p>
+ * A {@link TokenProvider#isThreadSafe() thread-safe} token is opened once
+ * and used by all threads without leasing.
+ * <p>
+ * Metrics: {@code pnkdss.token.connections} (tag {@code state}: active, idle),
+ * {@code pnkdss.token.wait} and {@code pnkdss.token.discarded}.
+ */
+public class TokenPool implements Closeable {
+
+	private static Logger log = LoggerFactory.getLogger(TokenPool.class);
+
+	public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(30);
+
+	private static final class PooledToken {
+		final SignatureTokenConnection connection;
+		final DSSPrivateKeyEntry key;
+
+		PooledToken(SignatureTokenConnection connection, DSSPrivateKeyEntry key) {
+			this.connection = connection;
+			this.key = key;
+		}
+	}
+
+	private final TokenProvider provider;
+	private final long timeoutNanos;
+	private final Semaphore permits;
+	private final BlockingQueue<PooledToken> idle = new LinkedBlockingQueue<>();
+	private final PooledToken shared;
+	private final CertificateToken signingCertificate;
+	private final CertificateToken[] certificateChain;
+	private final AtomicInteger active = new AtomicInteger();
+	private final Timer waitTimer;
+	private final Counter discarded;
+	private final PnkdssMetrics.Meters meters;
+	private volatile boolean closed;
+
+	/**
+	 * Opens the first connection right away, so a wrong PIN or an empty token
+	 * fails here. Its first key is the signing key of the pool.
+	 *
+	 * @param size    connections at most, ignored for a thread-safe token
+	 * @param timeout how long a signer waits for a free connection
+	 */
+	public TokenPool(TokenProvider provider, int size, Duration timeout) throws IOException {
+		this(provider, size, timeout, null);
+	}
+
+	/**
+	 * @param alias alias of the signing key, {@code null} for the first key
+	 */
+	public TokenPool(TokenProvider provider, int size, Duration timeout, String alias) throws IOException {
+		if (size < 1) {
+			throw new IllegalArgumentException("Pool size must be positive: " + size);
+		}
+		this.provider = provider;
+		this.timeoutNanos = timeout.toNanos();
+
+		SignatureTokenConnection connection = provider.open();
+		DSSPrivateKeyEntry key = findKey(connection, alias);
+		if (key == null) {
+			connection.close();
+			throw new IllegalArgumentException(alias == null ? "No private key in " + provider
+					: "No private key with alias '" + alias + "' in " + provider);
+		}
+		this.signingCertificate = key.getCertificate();
+		this.certificateChain = key.getCertificateChain();
+
+		if (provider.isThreadSafe()) {
+			this.shared = new PooledToken(connection, key);
+			this.permits = null;
+		} else {
+			this.shared = null;
+			this.permits = new Semaphore(size, true);
+			this.idle.add(new PooledToken(connection, key));
+		}
+
+		this.meters = PnkdssMetrics.meters("alias", key instanceof KSPrivateKeyEntry ? ((KSPrivateKeyEntry) key).getAlias() : "");
+		this.waitTimer = meters.add(Timer.builder("pnkdss.token.wait").tags(meters.getTags()).register(PnkdssMetrics.registry()));
+		this.discarded = meters.add(Counter.builder("pnkdss.token.discarded").tags(meters.getTags()).register(PnkdssMetrics.registry()));
+		meters.add(Gauge.builder("pnkdss.token.connections", active, AtomicInteger::get)
+				.tags(meters.getTags()).tag("state", "active").register(PnkdssMetrics.registry()));
+		meters.add(Gauge.builder("pnkdss.token.connections", idle, BlockingQueue::size)
+				.tags(meters.getTags()).tag("state", "idle").register(PnkdssMetrics.registry()));
+	}
+
+	public TokenPool(TokenProvider provider, int size) throws IOException {
+		this(provider, size, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * @return aliases of the private keys of the token
+	 */
+	public static List<String> aliases(TokenProvider provider) throws IOException {
+		SignatureTokenConnection connection = provider.open();
+		try {
+			List<String> aliases = new ArrayList<>();
+			for (DSSPrivateKeyEntry key : connection.getKeys()) {
+				if (key instanceof KSPrivateKeyEntry) {
+					aliases.add(((KSPrivateKeyEntry) key).getAlias());
+				}
+			}
+			return aliases;
+		} finally {
+			connection.close();
+		}
+	}
+
+	private static DSSPrivateKeyEntry findKey(SignatureTokenConnection connection, String alias) {
+		for (DSSPrivateKeyEntry key : connection.getKeys()) {
+			if (alias == null || (key instanceof KSPrivateKeyEntry && alias.equals(((KSPrivateKeyEntry) key).getAlias()))) {
+				return key;
+			}
+		}
+		return null;
+	}
+
+	public CertificateToken getSigningCertificate() {
+		return signingCertificate;
+	}
+
+	public CertificateToken[] getCertificateChain() {
+		return certificateChain;
+	}
+
+	/**
+	 * Signs with the pool's key on a free connection.
+	 *
+	 * @param signatureAlgorithm has to match the key, e.g. RSA or RSA-PSS for an RSA key
+	 * @throws IllegalStateException if no connection frees up within the timeout
+	 */
+	public SignatureValue sign(ToBeSigned dataToSign, SignatureAlgorithm signatureAlgorithm) {
+		if (shared != null) {
+			active.incrementAndGet();
+			try {
+				return shared.connection.sign(dataToSign, signatureAlgorithm, shared.key);
+			} finally {
+				active.decrementAndGet();
+			}
+		}
+		PooledToken token = acquire();
+		boolean broken = true;
+		try {
+			SignatureValue signatureValue = token.connection.sign(dataToSign, signatureAlgorithm, token.key);
+			broken = false;
+			return signatureValue;
+		} finally {
+			release(token, broken);
+		}
+	}
+
+	/**
+	 * Checks that the token still lists the signing key, using an idle
+	 * connection if there is one.
+	 */
+	public boolean isHealthy() {
+		if (closed) {
+			return false;
+		}
+		if (shared != null) {
+			return hasSigningKey(shared.connection);
+		}
+		if (!permits.tryAcquire()) {
+			// every connection is signing right now
+			return true;
+		}
+		PooledToken token = null;
+		boolean healthy = false;
+		try {
+			token = idle.poll();
+			if (token == null) {
+				token = connect();
+			}
+			active.incrementAndGet();
+			healthy = hasSigningKey(token.connection);
+			return healthy;
+		} catch (Exception e) {
+			log.warn("Token " + provider + " is not available", e);
+			return false;
+		} finally {
+			if (token != null) {
+				release(token, !healthy);
+			} else {
+				permits.release();
+			}
+		}
+	}
+
+	private PooledToken acquire() {
+		long start = System.nanoTime();
+		try {
+			if (!permits.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+				throw new IllegalStateException("No connection to " + provider + " available within " + Duration.ofNanos(timeoutNanos));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for " + provider, e);
+		} finally {
+			waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+		try {
+			if (closed) {
+				throw new IllegalStateException("Token pool is closed");
+			}
+			PooledToken token = idle.poll();
+			if (token == null) {
+				token = connect();
+			}
+			active.incrementAndGet();
+			return token;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		} catch (IOException e) {
+			permits.release();
+			throw new IllegalStateException("Can not open " + provider, e);
+		}
+	}
+
+	private void release(PooledToken token, boolean broken) {
+		active.decrementAndGet();
+		if (broken || closed) {
+			if (broken) {
+				discarded.increment();
+			}
+			token.connection.close();
+		} else {
+			idle.add(token);
+		}
+		permits.release();
+	}
+
+	private PooledToken connect() throws IOException {
+		SignatureTokenConnection connection = provider.open();
+		for (DSSPrivateKeyEntry key : connection.getKeys()) {
+			if (signingCertificate.equals(key.getCertificate())) {
+				return new PooledToken(connection, key);
+			}
+		}
+		connection.close();
+		throw new IllegalStateException("Signing key not found in " + provider);
+	}
+
+	private boolean hasSigningKey(SignatureTokenConnection connection) {
+		for (DSSPrivateKeyEntry key : connection.getKeys()) {
+			if (signingCertificate.equals(key.getCertificate())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		if (shared != null) {
+			shared.connection.close();
+		}
+		PooledToken token;
+		while ((token = idle.poll()) != null) {
+			token.connection.close();
+		}
+		meters.close();
+	}
+}
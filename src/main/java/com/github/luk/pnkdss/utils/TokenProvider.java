@@ -0,0 +1,85 @@
+package com.github.luk.pnkdss.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore.PasswordProtection;
+import java.util.Locale;
+
+import eu.europa.esig.dss.token.KeyStoreSignatureTokenConnection;
+import eu.europa.esig.dss.token.Pkcs11SignatureToken;
+import eu.europa.esig.dss.token.SignatureTokenConnection;
+
+/**
+ * Opens connections to a signature token, see {@link TokenPool}.
+ */
+public interface TokenProvider {
+
+	/**
+	 * @return a new, logged in connection
+	 */
+	SignatureTokenConnection open() throws IOException;
+
+	/**
+	 * @return {@code true} if one connection may sign from several threads at
+	 *         once, software keystores can
+	 */
+	default boolean isThreadSafe() {
+		return false;
+	}
+
+	/**
+	 * @param keystore encoded keystore, kept in memory
+	 * @param type     {@code PKCS12} or {@code JKS}
+	 */
+	static TokenProvider keyStore(byte[] keystore, String type, char[] password) {
+		return new TokenProvider() {
+			@Override
+			public SignatureTokenConnection open() {
+				return new KeyStoreSignatureTokenConnection(new ByteArrayInputStream(keystore), type,
+						new PasswordProtection(password));
+			}
+
+			@Override
+			public boolean isThreadSafe() {
+				return true;
+			}
+
+			@Override
+			public String toString() {
+				return type + " keystore in memory";
+			}
+		};
+	}
+
+	/**
+	 * Keystore file loaded once into memory, the type is taken from the
+	 * extension ({@code .jks}, otherwise PKCS#12).
+	 */
+	static TokenProvider keyStore(Path keystore, char[] password) throws IOException {
+		String type = keystore.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".jks") ? "JKS" : "PKCS12";
+		return keyStore(Files.readAllBytes(keystore), type, password);
+	}
+
+	/**
+	 * Each connection is a separate session with the token, e.g. SoftHSM.
+	 *
+	 * @param library       path to the PKCS#11 library
+	 * @param slotListIndex index of the slot in the slot list
+	 * @param pin           user PIN
+	 */
+	static TokenProvider pkcs11(String library, int slotListIndex, char[] pin) {
+		return new TokenProvider() {
+			@Override
+			public SignatureTokenConnection open() {
+				return new Pkcs11SignatureToken(library, new PasswordProtection(pin), -1, slotListIndex, null);
+			}
+
+			@Override
+			public String toString() {
+				return "PKCS#11 " + library + " slot " + slotListIndex;
+			}
+		};
+	}
+}
@@ -0,0 +1,246 @@
+package com.github.luk.pnkdss.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.spi.x509.CommonTrustedCertificateSource;
+
+/**
+ * Trust anchors read from local files, no network access is involved. The
+ * source is either a directory of PEM/DER certificates ({@code .pem},
+ * {@code .crt}, {@code .cer}, {@code .der}) or an ETSI TS 119 612 trusted
+ * list XML file. Of a trusted list only the service digital identities of
+ * services with a granted (or, before eIDAS, accredited or supervised) status
+ * are anchors; the list's own signer, pointers to other lists and withdrawn
+ * services are not. The signature of the list is not checked, the file is
+ * trusted as it is.
+ * <p>
+ * Each load builds a new immutable snapshot which is swapped in at once, so
+ * a refresh never blocks a running verification.
+ */
+public class TrustAnchorStore implements AutoCloseable {
+
+	private static Logger log = LoggerFactory.getLogger(TrustAnchorStore.class);
+
+	private static final String TSL_NAMESPACE = "http://uri.etsi.org/02231/v2#";
+
+	/** Service statuses under which the service's certificates are trusted. */
+	private static final Set<String> TRUSTED_STATUSES = new HashSet<>(Arrays.asList(
+			"http://uri.etsi.org/TrstSvc/TrustedList/Svcstatus/granted",
+			"http://uri.etsi.org/TrstSvc/TrustedList/Svcstatus/recognisedatnationallevel",
+			// before eIDAS
+			"http://uri.etsi.org/TrstSvc/TrustedList/Svcstatus/accredited",
+			"http://uri.etsi.org/TrstSvc/TrustedList/Svcstatus/undersupervision"));
+
+	private static final class Snapshot {
+		final CommonTrustedCertificateSource source;
+		final String fingerprint;
+
+		Snapshot(List<CertificateToken> anchors, String fingerprint) {
+			this.source = new CommonTrustedCertificateSource();
+			for (CertificateToken anchor : anchors) {
+				source.addCertificate(anchor);
+			}
+			this.fingerprint = fingerprint;
+		}
+	}
+
+	private final Path location;
+	private volatile Snapshot snapshot;
+	private ScheduledExecutorService refresher;
+
+	private TrustAnchorStore(Path location) throws IOException {
+		this.location = location;
+		this.snapshot = read(location, fingerprint(location));
+	}
+
+	/**
+	 * @param location directory with certificates or a trusted list XML file
+	 */
+	public static TrustAnchorStore load(Path location) throws IOException {
+		return new TrustAnchorStore(location);
+	}
+
+	/**
+	 * @return source of the current snapshot, a new instance after each change
+	 */
+	public CommonTrustedCertificateSource getTrustedSource() {
+		return snapshot.source;
+	}
+
+	public int size() {
+		return snapshot.source.getNumberOfCertificates();
+	}
+
+	/**
+	 * Reloads the anchors if a file was added, removed or modified.
+	 *
+	 * @return {@code true} if a new snapshot was swapped in
+	 */
+	public synchronized boolean refresh() throws IOException {
+		String fingerprint = fingerprint(location);
+		if (fingerprint.equals(snapshot.fingerprint)) {
+			return false;
+		}
+		snapshot = read(location, fingerprint);
+		log.info("Reloaded " + size() + " trust anchors from " + location);
+		return true;
+	}
+
+	/**
+	 * Refreshes the store periodically on a daemon thread. A failed refresh
+	 * is logged and the previous snapshot stays in use.
+	 */
+	public synchronized void startRefresh(Duration interval) {
+		if (refresher != null) {
+			throw new IllegalStateException("Refresh already started");
+		}
+		refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "pnkdss-trust-refresh");
+			t.setDaemon(true);
+			return t;
+		});
+		refresher.scheduleWithFixedDelay(() -> {
+			try {
+				refresh();
+			} catch (Exception e) {
+				log.warn("Can not refresh trust anchors from " + location, e);
+			}
+		}, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public synchronized void close() {
+		if (refresher != null) {
+			refresher.shutdownNow();
+			refresher = null;
+		}
+	}
+
+	private static Snapshot read(Path location, String fingerprint) throws IOException {
+		List<CertificateToken> anchors = new ArrayList<>();
+		if (Files.isDirectory(location)) {
+			for (Path file : certificateFiles(location)) {
+				try (InputStream is = Files.newInputStream(file)) {
+					anchors.addAll(parseCertificates(is, file));
+				}
+			}
+		} else {
+			anchors.addAll(parseTrustedList(location));
+		}
+		return new Snapshot(anchors, fingerprint);
+	}
+
+	private static List<Path> certificateFiles(Path directory) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(Files::isRegularFile)
+					.filter(file -> {
+						String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+						return name.endsWith(".pem") || name.endsWith(".crt") || name.endsWith(".cer") || name.endsWith(".der");
+					})
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * PEM files may hold several certificates.
+	 */
+	private static List<CertificateToken> parseCertificates(InputStream is, Object origin) throws IOException {
+		try {
+			List<CertificateToken> tokens = new ArrayList<>();
+			for (Certificate certificate : CertificateFactory.getInstance("X.509").generateCertificates(is)) {
+				tokens.add(new CertificateToken((X509Certificate) certificate));
+			}
+			return tokens;
+		} catch (CertificateException e) {
+			throw new IOException("Invalid certificate in " + origin, e);
+		}
+	}
+
+	private static List<CertificateToken> parseTrustedList(Path file) throws IOException {
+		Document document;
+		try {
+			try (InputStream is = Files.newInputStream(file)) {
+				document = XmlParsers.documentBuilder().parse(is);
+			}
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("Invalid trusted list " + file, e);
+		}
+		List<CertificateToken> anchors = new ArrayList<>();
+		NodeList services = document.getElementsByTagNameNS(TSL_NAMESPACE, "TSPService");
+		for (int i = 0; i < services.getLength(); i++) {
+			for (Element information : children((Element) services.item(i), "ServiceInformation")) {
+				List<Element> status = children(information, "ServiceStatus");
+				if (status.isEmpty() || !TRUSTED_STATUSES.contains(status.get(0).getTextContent().trim())) {
+					continue;
+				}
+				for (Element identity : children(information, "ServiceDigitalIdentity")) {
+					for (Element digitalId : children(identity, "DigitalId")) {
+						for (Element certificate : children(digitalId, "X509Certificate")) {
+							byte[] der = Base64.getMimeDecoder().decode(certificate.getTextContent().trim());
+							anchors.addAll(parseCertificates(new ByteArrayInputStream(der), file));
+						}
+					}
+				}
+			}
+		}
+		return anchors;
+	}
+
+	/**
+	 * @return child elements in the trusted list namespace with the local name
+	 */
+	private static List<Element> children(Element parent, String localName) {
+		List<Element> children = new ArrayList<>();
+		for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() == Node.ELEMENT_NODE && TSL_NAMESPACE.equals(child.getNamespaceURI())
+					&& localName.equals(child.getLocalName())) {
+				children.add((Element) child);
+			}
+		}
+		return children;
+	}
+
+	private static String fingerprint(Path location) throws IOException {
+		List<Path> files = Files.isDirectory(location) ? certificateFiles(location) : Collections.singletonList(location);
+		StringBuilder fingerprint = new StringBuilder();
+		for (Path file : files) {
+			fingerprint.append(file.getFileName()).append(':')
+					.append(Files.getLastModifiedTime(file).toMillis()).append(':')
+					.append(Files.size(file)).append('\n');
+		}
+		return fingerprint.toString();
+	}
+}
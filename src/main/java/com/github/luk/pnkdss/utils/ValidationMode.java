@@ -0,0 +1,27 @@
+package com.github.luk.pnkdss.utils;
+
+/**
+ * How much work {@link VerificationSession} does per document.
+ */
+public enum ValidationMode {
+
+	/**
+	 * Full DSS validation, reports are built for every document.
+	 */
+	FULL,
+
+	/**
+	 * Like {@link #FULL}, but while the chain outcome of every signing
+	 * certificate is cached, only the signature values, the references and the
+	 * signing time are checked. The validation policy is not run again, so its
+	 * cryptographic constraints and the certificate validity at validation time
+	 * are only as recent as the cached outcome.
+	 */
+	CACHED_CHAIN,
+
+	/**
+	 * Only the signature value and the reference digests are checked, reports
+	 * are built when they are asked for.
+	 */
+	SIGNATURE_ONLY
+}
@@ -2,52 +2,40 @@ package com.github.luk.pnkdss.utils;
 
 import java.io.InputStream;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
-import eu.europa.esig.dss.diagnostic.SignatureWrapper;
-import eu.europa.esig.dss.model.DSSDocument;
-import eu.europa.esig.dss.model.InMemoryDocument;
-import eu.europa.esig.dss.spi.DSSUtils;
-import eu.europa.esig.dss.validation.CertificateVerifier;
-import eu.europa.esig.dss.validation.CommonCertificateVerifier;
-import eu.europa.esig.dss.validation.reports.Reports;
-import eu.europa.esig.dss.xades.validation.XMLDocumentValidator;
+import eu.europa.esig.dss.enumerations.EncryptionAlgorithm;
+import eu.europa.esig.dss.enumerations.SignatureAlgorithm;
 
 @Component
 public class Validator {
 
-	private static Logger log = LoggerFactory.getLogger(Signer.class);
+	/**
+	 * One session for all calls, its certificate cache registers meters.
+	 */
+	private static final VerificationSession SESSION = new VerificationSession();
 
 	/**
-	 * @param signeddoc signed document (xades baseline b enveloped)
+	 * @param signeddoc signed document (xades baseline b enveloped), RSA,
+	 *                  RSA-PSS, ECDSA or Ed25519 signature
 	 */
 	public static SignatureResult check(InputStream signeddoc) throws Exception {
+		return SESSION.check(signeddoc);
+	}
 
-		CertificateVerifier certificateVerifier = new CommonCertificateVerifier();
-		certificateVerifier.setAIASource(null);
-		DSSDocument xmlDocument = new InMemoryDocument(signeddoc);
-
-		XMLDocumentValidator xmlDocumentValidator = new XMLDocumentValidator(xmlDocument);
-		xmlDocumentValidator.setCertificateVerifier(certificateVerifier);
-
-		Reports reports = xmlDocumentValidator.validateDocument();
-		
-		log.info(reports.getXmlDetailedReport());
-		
-		String sigid = reports.getDiagnosticData().getSignatureIdList().iterator().next();
-		SignatureWrapper sid = reports.getDiagnosticData().getSignatureById(sigid);
-        SignatureResult sr = new SignatureResult();
-		sr.setResultOK(sid.isSignatureValid());
-		if(sr.isResultOK()) {
-          sr.setPem(
-            DSSUtils.convertToPEM(
-              xmlDocumentValidator.getSignatures().get(0).getSigningCertificateToken()
-            )
-          );
+	/**
+	 * @param encryptionAlgorithm algorithm every signature must use, e.g. RSASSA_PSS
+	 *                            where plain RSA signatures are not accepted
+	 */
+	public static SignatureResult check(InputStream signeddoc, EncryptionAlgorithm encryptionAlgorithm) throws Exception {
+		SignatureResult sr = check(signeddoc);
+		for (SignatureResult signature : sr.getSignatures()) {
+			if (signature.getSignatureAlgorithm().isEmpty()
+					|| SignatureAlgorithm.valueOf(signature.getSignatureAlgorithm()).getEncryptionAlgorithm() != encryptionAlgorithm) {
+				sr.setResultOK(false);
+				sr.setText("ALGORITHM_NOT_ACCEPTED");
+			}
 		}
-	
 		return sr;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,157 @@
+package com.github.luk.pnkdss.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregated result of a batch verification.
+ * <p>
+ * Every document is written as one JSON line as soon as it is verified, the
+ * summary (valid/invalid/error counts, failures by reason, latency) is
+ * available at the end.
+ */
+public class VerificationReport {
+
+	private final Writer out;
+	private final long started = System.nanoTime();
+	private final Map<String, Integer> failures = new TreeMap<>();
+	private long[] latencies = new long[1024];
+	private int count;
+	private int valid;
+	private int invalid;
+	private int errors;
+
+	/**
+	 * @param out receives one JSON line per document, may be null
+	 */
+	public VerificationReport(Writer out) {
+		this.out = out;
+	}
+
+	public synchronized void record(Path document, SignatureResult result, long nanos) throws IOException {
+		if (result.isResultOK()) {
+			valid++;
+		} else {
+			invalid++;
+			failures.merge(result.getText().isEmpty() ? "INVALID" : result.getText(), 1, Integer::sum);
+		}
+		latency(nanos);
+		if (out != null) {
+			out.write("{\"document\":" + quote(document.toString())
+					+ ",\"valid\":" + result.isResultOK()
+					+ ",\"indication\":" + quote(result.getText())
+					+ ",\"subject\":" + quote(result.getSubject())
+					+ ",\"timestamp\":" + quote(result.getTimestamp())
+					+ ",\"signatureAlgorithm\":" + quote(result.getSignatureAlgorithm())
+					+ ",\"signatures\":" + result.getSignatures().size()
+					+ ",\"millis\":" + millis(nanos) + "}\n");
+		}
+	}
+
+	public synchronized void error(Path document, Throwable error, long nanos) throws IOException {
+		errors++;
+		failures.merge(error.getClass().getSimpleName(), 1, Integer::sum);
+		latency(nanos);
+		if (out != null) {
+			out.write("{\"document\":" + quote(document.toString())
+					+ ",\"valid\":false"
+					+ ",\"error\":" + quote(String.valueOf(error.getMessage()))
+					+ ",\"millis\":" + millis(nanos) + "}\n");
+		}
+	}
+
+	private void latency(long nanos) {
+		if (count == latencies.length) {
+			latencies = Arrays.copyOf(latencies, count * 2);
+		}
+		latencies[count++] = nanos;
+	}
+
+	public synchronized int getValid() {
+		return valid;
+	}
+
+	public synchronized int getInvalid() {
+		return invalid;
+	}
+
+	public synchronized int getErrors() {
+		return errors;
+	}
+
+	public synchronized Map<String, Integer> getFailures() {
+		return new TreeMap<>(failures);
+	}
+
+	/**
+	 * @return summary as a single line JSON object
+	 */
+	public synchronized String summary() {
+		long[] sorted = Arrays.copyOf(latencies, count);
+		Arrays.sort(sorted);
+		double elapsed = (System.nanoTime() - started) / (double) TimeUnit.SECONDS.toNanos(1);
+		StringBuilder reasons = new StringBuilder();
+		for (Map.Entry<String, Integer> failure : failures.entrySet()) {
+			reasons.append(reasons.length() == 0 ? "" : ",").append(quote(failure.getKey())).append(':').append(failure.getValue());
+		}
+		return "{\"summary\":{\"documents\":" + count
+				+ ",\"valid\":" + valid
+				+ ",\"invalid\":" + invalid
+				+ ",\"errors\":" + errors
+				+ ",\"failures\":{" + reasons + "}"
+				+ ",\"latencyMillis\":{\"min\":" + millis(percentile(sorted, 0))
+				+ ",\"p50\":" + millis(percentile(sorted, 50))
+				+ ",\"p99\":" + millis(percentile(sorted, 99))
+				+ ",\"max\":" + millis(percentile(sorted, 100)) + "}"
+				+ ",\"seconds\":" + String.format(Locale.ROOT, "%.3f", elapsed)
+				+ ",\"documentsPerSecond\":" + String.format(Locale.ROOT, "%.1f", elapsed > 0 ? count / elapsed : 0) + "}}";
+	}
+
+	private static long percentile(long[] sorted, int percentile) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+	}
+
+	static String quote(String value) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (char c : value.toCharArray()) {
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format("\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
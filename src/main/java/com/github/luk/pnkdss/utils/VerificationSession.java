@@ -0,0 +1,538 @@
+package com.github.luk.pnkdss.utils;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.europa.esig.dss.diagnostic.CertificateWrapper;
+import eu.europa.esig.dss.diagnostic.SignatureWrapper;
+import eu.europa.esig.dss.enumerations.SignatureAlgorithm;
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.InMemoryDocument;
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.simplereport.SimpleReport;
+import eu.europa.esig.dss.spi.x509.CertificateValidity;
+import eu.europa.esig.dss.spi.x509.CommonTrustedCertificateSource;
+import eu.europa.esig.dss.spi.x509.tsp.TimestampToken;
+import eu.europa.esig.dss.validation.AdvancedSignature;
+import eu.europa.esig.dss.validation.CertificateVerifier;
+import eu.europa.esig.dss.validation.CommonCertificateVerifier;
+import eu.europa.esig.dss.validation.SignatureCryptographicVerification;
+import eu.europa.esig.dss.validation.reports.Reports;
+import eu.europa.esig.dss.xades.validation.XMLDocumentValidator;
+
+/**
+ * Keeps the certificate verifier configuration, so that many documents can be
+ * validated with it. A session may be used by several threads at once.
+ * Closing it removes the meters of a certificate cache it created itself.
+ *
+ * @see ValidationMode
+ */
+public class VerificationSession implements AutoCloseable {
+
+	private static Logger log = LoggerFactory.getLogger(VerificationSession.class);
+
+	/**
+	 * Sub-indications caused by the chain, the trust anchors or the revocation
+	 * data of the signing certificate, the same for every signature it made.
+	 */
+	private static final Set<String> CHAIN_SUB_INDICATIONS = new HashSet<>(Arrays.asList(
+			"NO_CERTIFICATE_CHAIN_FOUND", "CERTIFICATE_CHAIN_GENERAL_FAILURE", "CHAIN_CONSTRAINTS_FAILURE",
+			"REVOKED_NO_POE", "REVOKED_CA_NO_POE", "TRY_LATER"));
+
+	/**
+	 * Signatures per worker below which a document's signatures are checked
+	 * in order: a worker parses the document again, which costs about as much
+	 * as checking a few signatures.
+	 */
+	static final int SIGNATURES_PER_WORKER = 4;
+
+	private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Shared by all sessions, a full queue makes the verifying thread check
+	 * the signatures itself.
+	 */
+	private static final ThreadPoolExecutor INTEGRITY_CHECKS;
+
+	static {
+		// parse with per thread builders instead of a new factory per document
+		XmlParsers.install();
+
+		AtomicInteger threads = new AtomicInteger();
+		INTEGRITY_CHECKS = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(4 * WORKERS), r -> {
+					Thread t = new Thread(r, "pnkdss-integrity-" + threads.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+		INTEGRITY_CHECKS.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Verifier configured with one trust anchor snapshot.
+	 */
+	private static final class Verifier {
+		final CommonTrustedCertificateSource trustedSource;
+		final long revocationVersion;
+		final CertificateVerifier certificateVerifier;
+
+		Verifier(CommonTrustedCertificateSource trustedSource, RevocationStore revocation) {
+			CertificateVerifier certificateVerifier = new CommonCertificateVerifier();
+			certificateVerifier.setAIASource(null);
+			if (trustedSource != null) {
+				certificateVerifier.setTrustedCertSources(trustedSource);
+			}
+			if (revocation != null) {
+				certificateVerifier.setCrlSource(revocation.getCrlSource());
+				certificateVerifier.setOcspSource(revocation.getOcspSource());
+			}
+			this.trustedSource = trustedSource;
+			this.revocationVersion = revocation != null ? revocation.getVersion() : 0;
+			this.certificateVerifier = certificateVerifier;
+		}
+	}
+
+	private final ValidationMode mode;
+	private final CertificateCache certificateCache;
+	private final boolean ownsCertificateCache;
+	private final TrustAnchorStore trustAnchors;
+	private final RevocationStore revocation;
+	private volatile Verifier verifier;
+
+	public VerificationSession() {
+		this(ValidationMode.FULL);
+	}
+
+	/**
+	 * @param mode default validation mode of the session
+	 */
+	public VerificationSession(ValidationMode mode) {
+		this(mode, null);
+	}
+
+	/**
+	 * @param certificateCache signing certificates and their chain outcome,
+	 *                         may be shared with other sessions, {@code null}
+	 *                         for a cache closed with the session
+	 */
+	public VerificationSession(ValidationMode mode, CertificateCache certificateCache) {
+		this(mode, certificateCache, null);
+	}
+
+	/**
+	 * @param trustAnchors trust anchors for chain validation, may be {@code null}
+	 */
+	public VerificationSession(ValidationMode mode, CertificateCache certificateCache, TrustAnchorStore trustAnchors) {
+		this(mode, certificateCache, trustAnchors, null);
+	}
+
+	/**
+	 * @param revocation local CRLs and OCSP responses, may be {@code null}
+	 */
+	public VerificationSession(ValidationMode mode, CertificateCache certificateCache, TrustAnchorStore trustAnchors,
+			RevocationStore revocation) {
+		this.mode = mode;
+		this.certificateCache = certificateCache != null ? certificateCache : new CertificateCache();
+		this.ownsCertificateCache = certificateCache == null;
+		this.trustAnchors = trustAnchors;
+		this.revocation = revocation;
+		this.verifier = new Verifier(trustedSource(), revocation);
+	}
+
+	public CertificateCache getCertificateCache() {
+		return certificateCache;
+	}
+
+	@Override
+	public void close() {
+		if (ownsCertificateCache) {
+			certificateCache.close();
+		}
+	}
+
+	/**
+	 * @param signeddoc signed document (xades baseline b enveloped)
+	 */
+	public SignatureResult check(InputStream signeddoc) throws Exception {
+		return checkDocument(new InMemoryDocument(signeddoc));
+	}
+
+	/**
+	 * @param xmlDocument signed document (xades baseline b enveloped)
+	 */
+	public SignatureResult checkDocument(DSSDocument xmlDocument) {
+		return checkDocument(xmlDocument, Collections.emptyList(), mode);
+	}
+
+	/**
+	 * @param xmlDocument signed document (xades baseline b enveloped)
+	 * @param mode        mode used instead of the session default
+	 */
+	public SignatureResult checkDocument(DSSDocument xmlDocument, ValidationMode mode) {
+		return checkDocument(xmlDocument, Collections.emptyList(), mode);
+	}
+
+	/**
+	 * @param signature       detached signature
+	 * @param detachedContent signed payload, a {@link eu.europa.esig.dss.model.DigestDocument} is enough
+	 */
+	public SignatureResult checkDetached(DSSDocument signature, DSSDocument detachedContent) {
+		return checkDocument(signature, Collections.singletonList(detachedContent), mode);
+	}
+
+	private SignatureResult checkDocument(DSSDocument xmlDocument, List<DSSDocument> detachedContents, ValidationMode mode) {
+		return PnkdssMetrics.timeOperation(PnkdssMetrics.VERIFY, () -> {
+			XMLDocumentValidator xmlDocumentValidator = validator(xmlDocument, detachedContents);
+			Supplier<XMLDocumentValidator> reparse = () -> validator(xmlDocument, detachedContents);
+
+			SignatureResult sr;
+			if (mode == ValidationMode.SIGNATURE_ONLY) {
+				sr = summarize(checkIntegrity(xmlDocumentValidator, reparse, Collections.emptyMap()));
+				sr.setReports(xmlDocumentValidator::validateDocument);
+			} else {
+				sr = checkFull(xmlDocumentValidator, reparse, mode == ValidationMode.CACHED_CHAIN);
+			}
+			if (!sr.isResultOK()) {
+				PnkdssMetrics.failure(PnkdssMetrics.VERIFY, sr.getText());
+			}
+			return sr;
+		});
+	}
+
+	private XMLDocumentValidator validator(DSSDocument xmlDocument, List<DSSDocument> detachedContents) {
+		XMLDocumentValidator xmlDocumentValidator = new XMLDocumentValidator(xmlDocument);
+		xmlDocumentValidator.setCertificateVerifier(currentVerifier());
+		xmlDocumentValidator.setDetachedContents(detachedContents);
+		return xmlDocumentValidator;
+	}
+
+	/**
+	 * Picks up refreshed trust anchors and revocation data. Validations
+	 * already running keep the verifier they started with.
+	 */
+	private CertificateVerifier currentVerifier() {
+		Verifier current = verifier;
+		if (current.trustedSource != trustedSource()
+				|| (revocation != null && current.revocationVersion != revocation.getVersion())) {
+			current = new Verifier(trustedSource(), revocation);
+			verifier = current;
+			// cached chain outcomes were evaluated against the previous data
+			certificateCache.clear();
+		}
+		return current.certificateVerifier;
+	}
+
+	private CommonTrustedCertificateSource trustedSource() {
+		return trustAnchors != null ? trustAnchors.getTrustedSource() : null;
+	}
+
+	/**
+	 * Runs the whole validation and fills the cache. With {@code reuseChains},
+	 * if the chain outcome of every signer is cached, the validation policy is
+	 * skipped: each signature still gets its own checks, see
+	 * {@link #checkSignatureAttributes}, and any failed check runs the whole
+	 * validation.
+	 */
+	private SignatureResult checkFull(XMLDocumentValidator xmlDocumentValidator, Supplier<XMLDocumentValidator> reparse,
+			boolean reuseChains) {
+		List<AdvancedSignature> signatures = allSignatures(xmlDocumentValidator);
+		Map<String, CertificateInfo> cached = new HashMap<>();
+		boolean chainsEvaluated = reuseChains && !signatures.isEmpty();
+		for (AdvancedSignature signature : signatures) {
+			CertificateToken signingCertificate = signature.getSigningCertificateToken();
+			CertificateInfo info = signingCertificate != null ? certificateCache.get(signingCertificate) : null;
+			if (info != null) {
+				cached.put(signature.getId(), info);
+			}
+			chainsEvaluated &= info != null && info.isChainEvaluated();
+		}
+		if (chainsEvaluated) {
+			List<SignatureResult> results = checkIntegrity(xmlDocumentValidator, reparse, cached);
+			if (results.stream().allMatch(SignatureResult::isResultOK)
+					&& signatures.stream().allMatch(VerificationSession::checkSignatureAttributes)) {
+				for (SignatureResult result : results) {
+					CertificateInfo info = cached.get(result.getSignatureId());
+					result.setText(info.getIndication());
+					result.setChain(info.isTrusted());
+				}
+				SignatureResult sr = summarize(results);
+				sr.setReports(xmlDocumentValidator::validateDocument);
+				return sr;
+			}
+			// let the full validation explain the failure
+		}
+
+		Reports reports = PnkdssMetrics.time(PnkdssMetrics.VERIFY, "validate_document",
+				xmlDocumentValidator::validateDocument);
+
+		return PnkdssMetrics.time(PnkdssMetrics.VERIFY, "report", () -> {
+			if (log.isDebugEnabled()) {
+				log.debug(reports.getXmlDetailedReport());
+			}
+
+			Map<String, AdvancedSignature> byId = new HashMap<>();
+			for (AdvancedSignature signature : signatures) {
+				byId.put(signature.getId(), signature);
+			}
+			List<SignatureResult> results = new ArrayList<>();
+			for (String sigid : reports.getDiagnosticData().getSignatureIdList()) {
+				SignatureWrapper sid = reports.getDiagnosticData().getSignatureById(sigid);
+				AdvancedSignature signature = byId.get(sigid);
+				SignatureResult result = new SignatureResult();
+				result.setSignatureId(sigid);
+				if (sid.isCounterSignature() && sid.getParent() != null) {
+					result.setCounterSignatureOf(sid.getParent().getId());
+				}
+				result.setResultOK(sid.isSignatureValid());
+				result.setText(indication(reports.getSimpleReport(), sigid));
+				CertificateToken signingCertificate = signature != null ? signature.getSigningCertificateToken() : null;
+				if (signature != null) {
+					setTimestamp(result, signature);
+					setSignatureAlgorithm(result, signature);
+				}
+				if (result.isResultOK() && signingCertificate != null) {
+					CertificateInfo info = cached.containsKey(sigid) ? cached.get(sigid) : CertificateInfo.of(signingCertificate);
+					if (isChainOutcome(result.getText())) {
+						info = info.withChain(chain(signature, sid), isTrusted(sid), result.getText());
+						certificateCache.put(info);
+					}
+					setSigningCertificate(result, info);
+					result.setChain(isTrusted(sid));
+				}
+				results.add(result);
+			}
+			SignatureResult sr = summarize(results);
+			sr.setReports(() -> reports);
+			return sr;
+		});
+	}
+
+	/**
+	 * Checks the signature values and the references without building the
+	 * diagnostic data. A DOM tree is not safe for concurrent readers: with at
+	 * least {@link #SIGNATURES_PER_WORKER} signatures per worker, the
+	 * signatures are split between workers and each worker but the calling
+	 * thread checks its share on its own parse of the document.
+	 *
+	 * @param reparse parses the document again, for a worker
+	 * @param cached  signing certificate info already looked up, by signature id
+	 */
+	private List<SignatureResult> checkIntegrity(XMLDocumentValidator xmlDocumentValidator,
+			Supplier<XMLDocumentValidator> reparse, Map<String, CertificateInfo> cached) {
+		return PnkdssMetrics.time(PnkdssMetrics.VERIFY, "signature_integrity", () -> {
+			List<AdvancedSignature> signatures = allSignatures(xmlDocumentValidator);
+			int workers = Math.min(WORKERS, signatures.size() / SIGNATURES_PER_WORKER);
+			if (workers < 2) {
+				return checkIntegrity(signatures, 0, 1, cached);
+			}
+			List<CompletableFuture<List<SignatureResult>>> shares = new ArrayList<>();
+			for (int worker = 1; worker < workers; worker++) {
+				int first = worker;
+				// signature ids and order do not depend on the parse
+				shares.add(CompletableFuture.supplyAsync(
+						() -> checkIntegrity(allSignatures(reparse.get()), first, workers, cached), INTEGRITY_CHECKS));
+			}
+			List<List<SignatureResult>> byWorker = new ArrayList<>();
+			byWorker.add(checkIntegrity(signatures, 0, workers, cached));
+			for (CompletableFuture<List<SignatureResult>> share : shares) {
+				try {
+					byWorker.add(share.join());
+				} catch (CompletionException e) {
+					throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+				}
+			}
+			List<SignatureResult> results = new ArrayList<>();
+			for (int i = 0; i < signatures.size(); i++) {
+				results.add(byWorker.get(i % workers).get(i / workers));
+			}
+			return results;
+		});
+	}
+
+	/**
+	 * @return results of every {@code step}-th signature from {@code first} on
+	 */
+	private List<SignatureResult> checkIntegrity(List<AdvancedSignature> signatures, int first, int step,
+			Map<String, CertificateInfo> cached) {
+		List<SignatureResult> results = new ArrayList<>();
+		for (int i = first; i < signatures.size(); i += step) {
+			AdvancedSignature signature = signatures.get(i);
+			SignatureResult result = checkIntegrity(signature, cached.get(signature.getId()));
+			AdvancedSignature master = signature.getMasterSignature();
+			if (master != null) {
+				result.setCounterSignatureOf(master.getId());
+			}
+			results.add(result);
+		}
+		return results;
+	}
+
+	private SignatureResult checkIntegrity(AdvancedSignature signature, CertificateInfo cached) {
+		SignatureResult sr = new SignatureResult();
+		sr.setSignatureId(signature.getId());
+		setSignatureAlgorithm(sr, signature);
+		signature.checkSignatureIntegrity();
+		SignatureCryptographicVerification verification = signature.getSignatureCryptographicVerification();
+		sr.setResultOK(verification.isSignatureValid());
+		if (sr.isResultOK()) {
+			sr.setText("SIGNATURE_VALID");
+			setTimestamp(sr, signature);
+			CertificateToken signingCertificate = signature.getSigningCertificateToken();
+			if (cached != null) {
+				setSigningCertificate(sr, cached);
+			} else if (signingCertificate != null) {
+				setSigningCertificate(sr, certificateCache.getOrCreate(signingCertificate));
+			}
+		} else {
+			sr.setText(!verification.isReferenceDataFound() ? "REFERENCE_NOT_FOUND"
+					: !verification.isReferenceDataIntact() ? "HASH_FAILURE" : "SIG_CRYPTO_FAILURE");
+		}
+		return sr;
+	}
+
+	/**
+	 * The checks of a full validation that depend on the signature rather than
+	 * on the chain of its certificate: the signing certificate reference, the
+	 * certificate validity at the claimed signing time and the XML structure.
+	 */
+	private static boolean checkSignatureAttributes(AdvancedSignature signature) {
+		CertificateToken signingCertificate = signature.getSigningCertificateToken();
+		CertificateValidity reference = signature.getCandidatesForSigningCertificate().getTheBestCandidate();
+		Date signingTime = signature.getSigningTime();
+		List<String> structureErrors = signature.getStructureValidationResult();
+		return signingCertificate != null && reference != null && reference.isDigestEqual()
+				&& signingTime != null && signingCertificate.isValidOn(signingTime)
+				&& (structureErrors == null || structureErrors.isEmpty());
+	}
+
+	/**
+	 * @return whether the indication of a valid signature says nothing but how
+	 *         its certificate chain was evaluated, so it holds for other
+	 *         signatures by the same certificate
+	 */
+	private static boolean isChainOutcome(String indication) {
+		int slash = indication.indexOf('/');
+		return slash < 0 ? "TOTAL_PASSED".equals(indication) : CHAIN_SUB_INDICATIONS.contains(indication.substring(slash + 1));
+	}
+
+	/**
+	 * @return signatures of the document followed by their counter-signatures, depth first
+	 */
+	private static List<AdvancedSignature> allSignatures(XMLDocumentValidator xmlDocumentValidator) {
+		List<AdvancedSignature> signatures = new ArrayList<>();
+		for (AdvancedSignature signature : xmlDocumentValidator.getSignatures()) {
+			addWithCounterSignatures(signature, signatures);
+		}
+		return signatures;
+	}
+
+	private static void addWithCounterSignatures(AdvancedSignature signature, List<AdvancedSignature> signatures) {
+		signatures.add(signature);
+		for (AdvancedSignature counterSignature : signature.getCounterSignatures()) {
+			addWithCounterSignatures(counterSignature, signatures);
+		}
+	}
+
+	/**
+	 * Document result: valid if every signature is, described by the first
+	 * invalid signature or else by the first one.
+	 */
+	private static SignatureResult summarize(List<SignatureResult> results) {
+		SignatureResult sr = new SignatureResult();
+		sr.setSignatures(results);
+		if (results.isEmpty()) {
+			sr.setText("NO_SIGNATURE");
+			return sr;
+		}
+		SignatureResult first = results.stream().filter(result -> !result.isResultOK()).findFirst().orElse(results.get(0));
+		sr.setResultOK(first.isResultOK());
+		sr.setText(first.getText());
+		sr.setChain(first.isChain());
+		sr.setPem(first.getPem());
+		sr.setSubject(first.getSubject());
+		sr.setIssuer(first.getIssuer());
+		sr.setTimestamp(first.getTimestamp());
+		sr.setSignatureId(first.getSignatureId());
+		sr.setCounterSignatureOf(first.getCounterSignatureOf());
+		sr.setSignatureAlgorithm(first.getSignatureAlgorithm());
+		return sr;
+	}
+
+	private static void setSigningCertificate(SignatureResult sr, CertificateInfo info) {
+		sr.setPem(info.getPem());
+		sr.setSubject(info.getSubject());
+		sr.setIssuer(info.getIssuer());
+	}
+
+	private static void setSignatureAlgorithm(SignatureResult sr, AdvancedSignature signature) {
+		SignatureAlgorithm signatureAlgorithm = signature.getSignatureAlgorithm();
+		if (signatureAlgorithm != null) {
+			sr.setSignatureAlgorithm(signatureAlgorithm.name());
+		}
+	}
+
+	/**
+	 * Earliest signature timestamp, it proves the signature existed by then.
+	 */
+	private static void setTimestamp(SignatureResult sr, AdvancedSignature signature) {
+		Date earliest = null;
+		for (TimestampToken timestamp : signature.getSignatureTimestamps()) {
+			if (earliest == null || timestamp.getGenerationTime().before(earliest)) {
+				earliest = timestamp.getGenerationTime();
+			}
+		}
+		if (earliest != null) {
+			sr.setTimestamp(earliest.toInstant().toString());
+		}
+	}
+
+	/**
+	 * @return tokens of the chain DSS built, in the order of the diagnostic data
+	 */
+	private static List<CertificateToken> chain(AdvancedSignature signature, SignatureWrapper sid) {
+		List<CertificateToken> chain = new ArrayList<>();
+		for (CertificateWrapper wrapper : sid.getCertificateChain()) {
+			for (CertificateToken token : signature.getCertificates()) {
+				if (token.getDSSIdAsString().equals(wrapper.getId())) {
+					chain.add(token);
+					break;
+				}
+			}
+		}
+		return chain;
+	}
+
+	private static boolean isTrusted(SignatureWrapper sid) {
+		for (CertificateWrapper wrapper : sid.getCertificateChain()) {
+			if (wrapper.isTrusted()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String indication(SimpleReport simpleReport, String sigid) {
+		if (simpleReport.getSubIndication(sigid) == null) {
+			return String.valueOf(simpleReport.getIndication(sigid));
+		}
+		return simpleReport.getIndication(sigid) + "/" + simpleReport.getSubIndication(sigid);
+	}
+}
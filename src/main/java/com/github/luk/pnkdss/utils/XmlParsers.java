@@ -0,0 +1,213 @@
+package com.github.luk.pnkdss.utils;
+
+import java.util.Objects;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.validation.Schema;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathFactory;
+
+import eu.europa.esig.dss.jaxb.common.DocumentBuilderFactoryBuilder;
+import eu.europa.esig.dss.jaxb.common.XmlDefinerUtils;
+
+/**
+ * Hardened XML parsers and XPath evaluators, one per thread.
+ * <p>
+ * DSS looks up a new {@link DocumentBuilderFactory} and sets its secure
+ * features for every document it parses. Once {@link #install() installed},
+ * DSS gets one factory, configured once by DSS's own secure builder, whose
+ * document builders are kept per thread and reset before reuse. Signing,
+ * verification and extension install it when their classes load.
+ */
+public final class XmlParsers {
+
+	private static final PooledFactory FACTORY = new PooledFactory(
+			DocumentBuilderFactoryBuilder.getSecureDocumentBuilderFactoryBuilder().build());
+
+	private static final ThreadLocal<XPath> XPATHS = ThreadLocal.withInitial(() -> XPathFactory.newInstance().newXPath());
+
+	private static boolean installed;
+
+	private XmlParsers() {
+	}
+
+	/**
+	 * Makes DSS parse with the pooled builders, repeated calls do nothing.
+	 */
+	public static synchronized void install() {
+		if (!installed) {
+			XmlDefinerUtils.getInstance().setDocumentBuilderFactoryBuilder(new PooledFactoryBuilder());
+			installed = true;
+		}
+	}
+
+	/**
+	 * Restores DSS's default of a new factory per document.
+	 */
+	public static synchronized void uninstall() {
+		XmlDefinerUtils.getInstance().setDocumentBuilderFactoryBuilder(
+				DocumentBuilderFactoryBuilder.getSecureDocumentBuilderFactoryBuilder());
+		installed = false;
+	}
+
+	/**
+	 * @return the calling thread's namespace aware builder without DTDs and
+	 *         external entities, valid until the thread's next call
+	 */
+	public static DocumentBuilder documentBuilder() throws ParserConfigurationException {
+		return FACTORY.newDocumentBuilder();
+	}
+
+	/**
+	 * @return the calling thread's XPath, reset, valid until the thread's next call
+	 */
+	public static XPath xPath() {
+		XPath xPath = XPATHS.get();
+		xPath.reset();
+		return xPath;
+	}
+
+	private static final class PooledFactoryBuilder extends DocumentBuilderFactoryBuilder {
+
+		@Override
+		public DocumentBuilderFactory build() {
+			return FACTORY;
+		}
+	}
+
+	/**
+	 * Read-only view of a configured factory handing out per thread builders.
+	 * Every getter reads the configured factory; a setter accepts the current
+	 * value and throws {@link UnsupportedOperationException} for any other, as
+	 * the builders already handed out would not see the change.
+	 */
+	private static final class PooledFactory extends DocumentBuilderFactory {
+
+		private final DocumentBuilderFactory delegate;
+		private final ThreadLocal<DocumentBuilder> builders = new ThreadLocal<>();
+
+		PooledFactory(DocumentBuilderFactory delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
+			DocumentBuilder builder = builders.get();
+			if (builder == null) {
+				builder = delegate.newDocumentBuilder();
+				builders.set(builder);
+			} else {
+				builder.reset();
+			}
+			return builder;
+		}
+
+		@Override
+		public boolean isNamespaceAware() {
+			return delegate.isNamespaceAware();
+		}
+
+		@Override
+		public void setNamespaceAware(boolean awareness) {
+			unchanged("namespace awareness", isNamespaceAware(), awareness);
+		}
+
+		@Override
+		public boolean isValidating() {
+			return delegate.isValidating();
+		}
+
+		@Override
+		public void setValidating(boolean validating) {
+			unchanged("validation", isValidating(), validating);
+		}
+
+		@Override
+		public boolean isIgnoringElementContentWhitespace() {
+			return delegate.isIgnoringElementContentWhitespace();
+		}
+
+		@Override
+		public void setIgnoringElementContentWhitespace(boolean whitespace) {
+			unchanged("ignoring element content whitespace", isIgnoringElementContentWhitespace(), whitespace);
+		}
+
+		@Override
+		public boolean isExpandEntityReferences() {
+			return delegate.isExpandEntityReferences();
+		}
+
+		@Override
+		public void setExpandEntityReferences(boolean expandEntityRef) {
+			unchanged("entity reference expansion", isExpandEntityReferences(), expandEntityRef);
+		}
+
+		@Override
+		public boolean isIgnoringComments() {
+			return delegate.isIgnoringComments();
+		}
+
+		@Override
+		public void setIgnoringComments(boolean ignoreComments) {
+			unchanged("ignoring comments", isIgnoringComments(), ignoreComments);
+		}
+
+		@Override
+		public boolean isCoalescing() {
+			return delegate.isCoalescing();
+		}
+
+		@Override
+		public void setCoalescing(boolean coalescing) {
+			unchanged("coalescing", isCoalescing(), coalescing);
+		}
+
+		@Override
+		public boolean isXIncludeAware() {
+			return delegate.isXIncludeAware();
+		}
+
+		@Override
+		public void setXIncludeAware(boolean state) {
+			unchanged("XInclude awareness", isXIncludeAware(), state);
+		}
+
+		@Override
+		public Schema getSchema() {
+			return delegate.getSchema();
+		}
+
+		@Override
+		public void setSchema(Schema schema) {
+			unchanged("schema", getSchema(), schema);
+		}
+
+		@Override
+		public Object getAttribute(String name) {
+			return delegate.getAttribute(name);
+		}
+
+		@Override
+		public void setAttribute(String name, Object value) {
+			unchanged("attribute " + name, getAttribute(name), value);
+		}
+
+		@Override
+		public boolean getFeature(String name) throws ParserConfigurationException {
+			return delegate.getFeature(name);
+		}
+
+		@Override
+		public void setFeature(String name, boolean value) throws ParserConfigurationException {
+			unchanged("feature " + name, getFeature(name), value);
+		}
+
+		private static void unchanged(String setting, Object current, Object requested) {
+			if (!Objects.equals(current, requested)) {
+				throw new UnsupportedOperationException("The pooled XML parser configuration can not be changed: " + setting);
+			}
+		}
+	}
+}
@@ -2,14 +2,103 @@ package com.github.luk.pnkdss;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import com.github.luk.pnkdss.utils.CanonicalizationCache;
+import com.github.luk.pnkdss.utils.CertificateCache;
+import com.github.luk.pnkdss.utils.Documents;
 import com.github.luk.pnkdss.utils.Generator;
+import com.github.luk.pnkdss.utils.KeyPairPool;
+import com.github.luk.pnkdss.utils.LocalTimestampAuthority;
+import com.github.luk.pnkdss.utils.PnkdssMetrics;
+import com.github.luk.pnkdss.utils.PreparedSignature;
+import com.github.luk.pnkdss.utils.RevocationStore;
+import com.github.luk.pnkdss.utils.SignatureExtender;
 import com.github.luk.pnkdss.utils.SignatureResult;
 import com.github.luk.pnkdss.utils.Signer;
+import com.github.luk.pnkdss.utils.SigningProfile;
+import com.github.luk.pnkdss.utils.SigningProfiles;
+import com.github.luk.pnkdss.utils.SigningSession;
+import com.github.luk.pnkdss.utils.StreamingDigester;
+import com.github.luk.pnkdss.utils.TimestampSource;
+import com.github.luk.pnkdss.utils.TokenKeyBackend;
+import com.github.luk.pnkdss.utils.TokenPool;
+import com.github.luk.pnkdss.utils.TokenProvider;
+import com.github.luk.pnkdss.utils.TrustAnchorStore;
+import com.github.luk.pnkdss.utils.ValidationMode;
 import com.github.luk.pnkdss.utils.Validator;
+import com.github.luk.pnkdss.utils.VerificationSession;
+import com.github.luk.pnkdss.utils.XmlParsers;
+
+import eu.europa.esig.dss.alert.SilentOnStatusAlert;
+import eu.europa.esig.dss.enumerations.CertificateStatus;
+import eu.europa.esig.dss.enumerations.DigestAlgorithm;
+import eu.europa.esig.dss.enumerations.EncryptionAlgorithm;
+import eu.europa.esig.dss.enumerations.SignatureLevel;
+import eu.europa.esig.dss.jaxb.common.XmlDefinerUtils;
+import eu.europa.esig.dss.model.DSSDocument;
+import eu.europa.esig.dss.model.DSSException;
+import eu.europa.esig.dss.model.DigestDocument;
+import eu.europa.esig.dss.model.InMemoryDocument;
+import eu.europa.esig.dss.model.TimestampBinary;
+import eu.europa.esig.dss.model.ToBeSigned;
+import eu.europa.esig.dss.model.x509.CertificateToken;
+import eu.europa.esig.dss.spi.DSSUtils;
+import eu.europa.esig.dss.spi.x509.tsp.TSPSource;
+import eu.europa.esig.dss.token.DSSPrivateKeyEntry;
+import eu.europa.esig.dss.token.Pkcs12SignatureToken;
+import eu.europa.esig.dss.validation.CommonCertificateVerifier;
+import eu.europa.esig.dss.xades.XAdESSignatureParameters;
+import eu.europa.esig.dss.xades.signature.XAdESService;
+
+import io.micrometer.core.instrument.Timer;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.xml.sax.SAXException;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -101,4 +190,788 @@ public class AppTest extends TestCase {
     }
     assertTrue(!sr.isResultOK());
   }
+
+  public void testDetachedDigest() throws Exception {
+    byte[] payload = new byte[3 * 1024 * 1024];
+    new Random(1).nextBytes(payload);
+
+    StreamingDigester digester = new StreamingDigester(DigestAlgorithm.SHA256);
+    for (int offset = 0; offset < payload.length; offset += 8192) {
+      digester.update(payload, offset, Math.min(8192, payload.length - offset));
+    }
+    assertEquals(payload.length, digester.getLength());
+    DigestDocument digest = digester.finish("payload.bin");
+
+    DSSDocument signature;
+    try (SigningSession session = new SigningSession(new ByteArrayInputStream(p12), Generator.DEFAULT_PASSWORD.toCharArray())) {
+      signature = session.signDetached(digest);
+    }
+
+    VerificationSession verification = new VerificationSession();
+    assertTrue(verification.checkDetached(signature, new InMemoryDocument(payload, "payload.bin")).isResultOK());
+
+    payload[0]++;
+    assertFalse(verification.checkDetached(signature, new InMemoryDocument(payload, "payload.bin")).isResultOK());
+
+    // the reference keeps the profile's digest, also where the key hashes with SHA-512
+    Path file = Files.createTempFile("payload", ".bin");
+    try {
+      Files.write(file, payload);
+      ByteArrayOutputStream ed25519 = new ByteArrayOutputStream();
+      Generator.createP12KeyStore("Ed25519", 0).store(ed25519, Generator.DEFAULT_PASSWORD.toCharArray());
+      Object[][] cases = {
+          {ed25519.toByteArray(), SigningProfile.DEFAULT, DigestAlgorithm.SHA256},
+          {p12, SigningProfile.DEFAULT.withAlgorithms(DigestAlgorithm.SHA512, null), DigestAlgorithm.SHA512},
+      };
+      for (Object[] c : cases) {
+        try (SigningSession session = new SigningSession(new ByteArrayInputStream((byte[]) c[0]),
+            Generator.DEFAULT_PASSWORD.toCharArray(), (SigningProfile) c[1])) {
+          assertEquals(c[2], session.getDetachedDigestAlgorithm());
+          signature = session.signDetached(StreamingDigester.digest(file, session.getDetachedDigestAlgorithm()));
+        }
+        assertTrue(verification.checkDetached(signature, StreamingDigester.digest(file, signature)).isResultOK());
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  public void testStreamingSign() throws Exception {
+    Path dir = Files.createTempDirectory("streaming");
+    Path document = dir.resolve("document.xml");
+    Path signed = dir.resolve("signed.xml");
+    Files.write(document, Generator.xmlContent.getBytes(StandardCharsets.UTF_8));
+    try (SigningSession session = new SigningSession(new ByteArrayInputStream(p12), Generator.DEFAULT_PASSWORD.toCharArray())) {
+      session.sign(document, signed);
+      assertTrue(new VerificationSession().checkDocument(Documents.open(signed)).isResultOK());
+
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      session.sign(new InMemoryDocument(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)), bos);
+      assertTrue(new VerificationSession().checkDocument(new InMemoryDocument(bos.toByteArray())).isResultOK());
+
+      // nothing is written before the signature exists
+      ByteArrayOutputStream failed = new ByteArrayOutputStream();
+      try {
+        session.sign(new InMemoryDocument("not xml".getBytes(StandardCharsets.UTF_8)), failed);
+        fail("A document that is not XML can not be signed.");
+      } catch (Exception expected) {
+        assertEquals(0, failed.size());
+      }
+
+      // a write failing midway neither truncates the target nor leaves a temporary file
+      byte[] previous = Files.readAllBytes(signed);
+      DSSDocument broken = new InMemoryDocument(bos.toByteArray()) {
+        @Override
+        public void writeTo(OutputStream stream) throws IOException {
+          stream.write(getBytes(), 0, 100);
+          throw new IOException("Disk full");
+        }
+      };
+      try {
+        Documents.write(broken, signed);
+        fail("The failed write should be reported.");
+      } catch (IOException expected) {
+        assertTrue(Arrays.equals(previous, Files.readAllBytes(signed)));
+      }
+
+      // the target's permissions are kept, a new file gets the default ones
+      if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+        Files.setPosixFilePermissions(signed, PosixFilePermissions.fromString("rw-r-----"));
+        Documents.write(new InMemoryDocument(previous), signed);
+        assertEquals("rw-r-----", PosixFilePermissions.toString(Files.getPosixFilePermissions(signed)));
+
+        Path created = Files.createFile(dir.resolve("created.xml"));
+        Files.delete(signed);
+        Documents.write(new InMemoryDocument(previous), signed);
+        assertEquals(Files.getPosixFilePermissions(created), Files.getPosixFilePermissions(signed));
+        Files.delete(created);
+      }
+      try (Stream<Path> files = Files.list(dir)) {
+        assertEquals(2, files.count());
+      }
+    } finally {
+      Files.deleteIfExists(document);
+      Files.deleteIfExists(signed);
+      Files.delete(dir);
+    }
+  }
+
+  public void testSignatureOnlyValidation() throws Exception {
+    DSSDocument signed;
+    try (SigningSession session = new SigningSession(new ByteArrayInputStream(p12), Generator.DEFAULT_PASSWORD.toCharArray())) {
+      signed = session.signDocument(new InMemoryDocument(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)));
+    }
+    VerificationSession verification = new VerificationSession(ValidationMode.SIGNATURE_ONLY);
+
+    SignatureResult sr = verification.checkDocument(signed);
+    assertTrue(sr.isResultOK());
+    assertTrue(sr.getPem().startsWith("-----BEGIN CERTIFICATE-----"));
+    assertTrue(sr.getXmlDetailedReport().contains("DetailedReport"));
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    signed.writeTo(bos);
+    String tampered = new String(bos.toByteArray(), StandardCharsets.UTF_8).replace("Hello World!", "Hello World?");
+    sr = verification.checkDocument(new InMemoryDocument(tampered.getBytes(StandardCharsets.UTF_8)));
+    assertFalse(sr.isResultOK());
+    assertEquals("HASH_FAILURE", sr.getText());
+    assertFalse(verification.checkDocument(new InMemoryDocument(tampered.getBytes(StandardCharsets.UTF_8)), ValidationMode.FULL).isResultOK());
+  }
+
+  public void testCertificateCache() throws Exception {
+    DSSDocument signed;
+    try (SigningSession session = new SigningSession(new ByteArrayInputStream(p12), Generator.DEFAULT_PASSWORD.toCharArray())) {
+      signed = session.signDocument(new InMemoryDocument(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)));
+    }
+    ByteArrayOutputStream other = new ByteArrayOutputStream();
+    Generator.createP12KeyStore("EC", 256).store(other, Generator.DEFAULT_PASSWORD.toCharArray());
+    DSSDocument signedByOther;
+    try (SigningSession session = new SigningSession(new ByteArrayInputStream(other.toByteArray()), Generator.DEFAULT_PASSWORD.toCharArray())) {
+      signedByOther = session.signDocument(new InMemoryDocument(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    CertificateCache cache = new CertificateCache(1, Duration.ofMinutes(5));
+    VerificationSession verification = new VerificationSession(ValidationMode.FULL, cache);
+    SignatureResult first = verification.checkDocument(signed);
+    SignatureResult second = verification.checkDocument(signed);
+    assertTrue(first.isResultOK());
+    assertTrue(second.isResultOK());
+    assertEquals(first.getText(), second.getText());
+    assertEquals(first.getPem(), second.getPem());
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.size());
+
+    // only the cached chain mode skips the validation policy
+    long validations = validations();
+    assertTrue(verification.checkDocument(signed, ValidationMode.FULL).isResultOK());
+    assertEquals(validations + 1, validations());
+    SignatureResult cached = verification.checkDocument(signed, ValidationMode.CACHED_CHAIN);
+    assertEquals(validations + 1, validations());
+    assertEquals(first.getText(), cached.getText());
+
+    assertTrue(verification.checkDocument(signedByOther).isResultOK());
+    assertEquals(1, cache.getEvictions());
+    assertEquals(1, cache.size());
+    cache.close();
+
+    // a session closes only the cache it created, the validator keeps one session
+    assertTrue(Validator.check(signed.openStream()).isResultOK());
+    int caches = PnkdssMetrics.registry().find("pnkdss.cache.size").tag("cache", "certificate").gauges().size();
+    try (VerificationSession owner = new VerificationSession()) {
+      assertEquals(caches + 1, PnkdssMetrics.registry().find("pnkdss.cache.size").tag("cache", "certificate").gauges().size());
+    }
+    assertTrue(Validator.check(signed.openStream()).isResultOK());
+    assertEquals(caches, PnkdssMetrics.registry().find("pnkdss.cache.size").tag("cache", "certificate").gauges().size());
+  }
+
+  private static long validations() {
+    Timer timer = PnkdssMetrics.registry().find("pnkdss.phase")
+        .tag("operation", PnkdssMetrics.VERIFY).tag("phase", "validate_document").timer();
+    return timer != null ? timer.count() : 0;
+  }
+
+  public void testCertificateCacheChecksEachSignature() throws Exception {
+    DSSDocument signed = signAt(new Date());
+    DSSDocument expired = signAt(new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(400)));
+    SignatureResult untrusted = new VerificationSession().checkDocument(signed);
+
+    Path dir = Files.createTempDirectory("anchors");
+    Path pem = dir.resolve("signer.pem");
+    try {
+      Files.write(pem, untrusted.getPem().getBytes(StandardCharsets.US_ASCII));
+      try (TrustAnchorStore store = TrustAnchorStore.load(dir)) {
+        CertificateCache cache = new CertificateCache();
+        VerificationSession verification = new VerificationSession(ValidationMode.CACHED_CHAIN, cache, store);
+        SignatureResult passed = verification.checkDocument(signed);
+        assertTrue(passed.isResultOK());
+        assertTrue(passed.isChain());
+
+        // the chain outcome is cached, the signing time is checked per signature
+        SignatureResult sr = verification.checkDocument(expired);
+        assertEquals(1, cache.getHits());
+        assertFalse("A signature made after the certificate expired must not reuse the outcome of another one",
+            passed.getText().equals(sr.getText()));
+        assertEquals(new VerificationSession(ValidationMode.FULL, new CertificateCache(), store).checkDocument(expired).getText(),
+            sr.getText());
+        assertEquals(passed.getText(), verification.checkDocument(signed).getText());
+      }
+    } finally {
+      Files.delete(pem);
+      Files.delete(dir);
+    }
+  }
+
+  /**
+   * Signs the sample document with a claimed signing time, bypassing the
+   * checks of {@link SigningSession}.
+   */
+  private static DSSDocument signAt(Date signingDate) throws Exception {
+    DSSDocument document = new InMemoryDocument(Generator.xmlContent.getBytes(StandardCharsets.UTF_8));
+    try (Pkcs12SignatureToken token = new Pkcs12SignatureToken(p12,
+        new KeyStore.PasswordProtection(Generator.DEFAULT_PASSWORD.toCharArray()))) {
+      DSSPrivateKeyEntry key = token.getKeys().get(0);
+      XAdESSignatureParameters parameters = SigningProfile.DEFAULT.createParameters(document,
+          key.getCertificate(), key.getCertificateChain());
+      parameters.bLevel().setSigningDate(signingDate);
+      CommonCertificateVerifier verifier = new CommonCertificateVerifier();
+      verifier.setAlertOnExpiredSignature(new SilentOnStatusAlert());
+      XAdESService service = new XAdESService(verifier);
+      ToBeSigned data = service.getDataToSign(document, parameters);
+      return service.signDocument(document, parameters, token.sign(data, parameters.getDigestAlgorithm(), key));
+    }
+  }
+
+  public void testTrustAnchors() throws Exception {
+    DSSDocument signed;
+    try (SigningSession session = new SigningSession(new ByteArrayInputStream(p12), Generator.DEFAULT_PASSWORD.toCharArray())) {
+      signed = session.signDocument(new InMemoryDocument(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)));
+    }
+    SignatureResult untrusted = new VerificationSession().checkDocument(signed);
+    assertTrue(untrusted.isResultOK());
+    assertFalse(untrusted.isChain());
+
+    Path dir = Files.createTempDirectory("anchors");
+    Path pem = dir.resolve("signer.pem");
+    Path tl = Files.createTempFile("tl", ".xml");
+    try {
+      Files.write(pem, untrusted.getPem().getBytes(StandardCharsets.US_ASCII));
+      try (TrustAnchorStore store = TrustAnchorStore.load(dir)) {
+        assertEquals(1, store.size());
+        assertFalse(store.refresh());
+
+        SignatureResult trusted = new VerificationSession(ValidationMode.FULL, new CertificateCache(), store).checkDocument(signed);
+        assertTrue(trusted.isResultOK());
+        assertTrue(trusted.isChain());
+      }
+
+      String base64 = untrusted.getPem().replaceAll("-----[A-Z ]+-----", "").trim();
+      String other = Base64.getEncoder().encodeToString(
+          Generator.createP12KeyStore("EC", 256).getCertificate("1").getEncoded());
+      String withdrawn = Base64.getEncoder().encodeToString(
+          Generator.createP12KeyStore("EC", 256).getCertificate("1").getEncoded());
+      Files.write(tl, ("<tsl:TrustServiceStatusList xmlns:tsl=\"http://uri.etsi.org/02231/v2#\" xmlns:ds=\"http://www.w3.org/2000/09/xmldsig#\">"
+          + "<tsl:TrustServiceProviderList><tsl:TrustServiceProvider><tsl:TSPServices>"
+          + service("granted", base64) + service("withdrawn", withdrawn)
+          + "</tsl:TSPServices></tsl:TrustServiceProvider></tsl:TrustServiceProviderList>"
+          + "<ds:Signature><ds:KeyInfo><ds:X509Data><ds:X509Certificate>" + other + "</ds:X509Certificate></ds:X509Data></ds:KeyInfo></ds:Signature>"
+          + "</tsl:TrustServiceStatusList>").getBytes(StandardCharsets.UTF_8));
+      try (TrustAnchorStore store = TrustAnchorStore.load(tl)) {
+        assertEquals(1, store.size());
+        assertTrue(new VerificationSession(ValidationMode.FULL, new CertificateCache(), store).checkDocument(signed).isChain());
+      }
+    } finally {
+      Files.delete(pem);
+      Files.delete(dir);
+      Files.delete(tl);
+    }
+  }
+
+  private static String service(String status, String base64) {
+    return "<tsl:TSPService><tsl:ServiceInformation>"
+        + "<tsl:ServiceStatus>http://uri.etsi.org/TrstSvc/TrustedList/Svcstatus/" + status + "</tsl:ServiceStatus>"
+        + "<tsl:ServiceDigitalIdentity><tsl:DigitalId><tsl:X509Certificate>" + base64 + "</tsl:X509Certificate></tsl:DigitalId></tsl:ServiceDigitalIdentity>"
+        + "</tsl:ServiceInformation></tsl:TSPService>";
+  }
+
+  public void testLocalRevocationData() throws Exception {
+    KeyStore keyStore = KeyStore.getInstance("PKCS12");
+    keyStore.load(new ByteArrayInputStream(p12), Generator.DEFAULT_PASSWORD.toCharArray());
+    X509Certificate certificate = (X509Certificate) keyStore.getCertificate("1");
+    PrivateKey key = (PrivateKey) keyStore.getKey("1", Generator.DEFAULT_PASSWORD.toCharArray());
+
+    Date now = new Date();
+    X509v2CRLBuilder crlBuilder = new X509v2CRLBuilder(X500Name.getInstance(certificate.getSubjectX500Principal().getEncoded()), now);
+    crlBuilder.setNextUpdate(new Date(now.getTime() + 3600000));
+    crlBuilder.addCRLEntry(certificate.getSerialNumber(), now, CRLReason.keyCompromise);
+    byte[] crl = crlBuilder.build(new JcaContentSignerBuilder("SHA256WithRSA").build(key)).getEncoded();
+
+    Path dir = Files.createTempDirectory("revocation");
+    Path crlFile = dir.resolve("signer.crl");
+    Files.write(crlFile, crl);
+    Path tryLater = dir.resolve("signer.ocsp");
+    try (RevocationStore store = RevocationStore.load(dir)) {
+      assertNotNull(store.findRevocation(certificate.getIssuerX500Principal(), certificate.getSerialNumber()));
+      CertificateToken token = new CertificateToken(certificate);
+      assertEquals(CertificateStatus.REVOKED, store.getCrlSource().getRevocationToken(token, token).getStatus());
+      assertFalse(store.refresh());
+
+      // an OCSP error response carries no status, it is skipped
+      Files.write(tryLater, new OCSPRespBuilder()
+          .build(OCSPRespBuilder.TRY_LATER, null).getEncoded());
+      assertFalse(store.refresh());
+      assertNull(store.getOcspSource().getRevocationToken(token, token));
+      assertNotNull(store.findRevocation(certificate.getIssuerX500Principal(), certificate.getSerialNumber()));
+
+      Files.delete(crlFile);
+      assertTrue(store.refresh());
+      assertNull(store.findRevocation(certificate.getIssuerX500Principal(), certificate.getSerialNumber()));
+      assertNull(store.getCrlSource().getRevocationToken(token, token));
+    } finally {
+      Files.deleteIfExists(crlFile);
+      Files.deleteIfExists(tryLater);
+      Files.delete(dir);
+    }
+  }
+
+  public void testTokenPool() throws Exception {
+    AtomicInteger opened = new AtomicInteger();
+    TokenProvider keyStore = TokenProvider.keyStore(p12, "PKCS12", Generator.DEFAULT_PASSWORD.toCharArray());
+    // behaves like a hardware token, one connection per signer
+    TokenProvider exclusive = () -> {
+      opened.incrementAndGet();
+      return keyStore.open();
+    };
+
+    int gauges = PnkdssMetrics.registry().find("pnkdss.token.connections").tag("state", "active").gauges().size();
+    TokenPool pool = new TokenPool(exclusive, 2);
+    try (TokenPool other = new TokenPool(keyStore, 1)) {
+      assertEquals("Every pool reports its own connections.", gauges + 2,
+          PnkdssMetrics.registry().find("pnkdss.token.connections").tag("state", "active").gauges().size());
+    }
+    try (SigningSession session = new SigningSession(pool, SigningProfile.DEFAULT)) {
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      List<Future<DSSDocument>> signed = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        signed.add(executor.submit(() -> session.signDocument(new InMemoryDocument(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)))));
+      }
+      VerificationSession verification = new VerificationSession();
+      for (Future<DSSDocument> document : signed) {
+        assertTrue(verification.checkDocument(document.get()).isResultOK());
+      }
+      executor.shutdown();
+      assertTrue(opened.get() <= 2);
+      assertTrue(session.isHealthy());
+    }
+    assertFalse(pool.isHealthy());
+    assertEquals("Closed pools remove their meters.", gauges,
+        PnkdssMetrics.registry().find("pnkdss.token.connections").tag("state", "active").gauges().size());
+  }
+
+  public void testKeyPairPool() throws Exception {
+    KeyPairPool pool = new KeyPairPool("EC", 256, 1, 3, 2);
+    try {
+      long deadline = System.currentTimeMillis() + 10000;
+      while (pool.size() < 3 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(3, pool.size());
+
+      Generator.usePool(pool);
+      Set<PublicKey> keys = new HashSet<>();
+      for (int i = 0; i < 2; i++) {
+        KeyStore keyStore = Generator.createP12KeyStore("EC", 256);
+        keys.add(keyStore.getCertificate("1").getPublicKey());
+      }
+      assertEquals(2, keys.size());
+      assertEquals(2, pool.getRequests());
+      assertEquals(0, pool.getMisses());
+      // other key types are not pooled
+      Generator.createP12KeyStore("EC", 384);
+      assertEquals(2, pool.getRequests());
+
+      // dropped to the low watermark, refilled in the background
+      deadline = System.currentTimeMillis() + 10000;
+      while (pool.size() < 3 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(3, pool.size());
+    } finally {
+      Generator.removePool(pool);
+      pool.close();
+    }
+    assertEquals(0, pool.size());
+    assertNotNull(pool.take());
+    assertEquals(1, pool.getMisses());
+
+    try {
+      new KeyPairPool("RSA", 2048, 4, 4, 1);
+      fail("High watermark must exceed the low watermark");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testTwoPhaseSigning() throws Exception {
+    TokenPool pool = new TokenPool(TokenProvider.keyStore(p12, "PKCS12", Generator.DEFAULT_PASSWORD.toCharArray()), 1);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try (SigningSession session = new SigningSession(new TokenKeyBackend(pool, 2), SigningProfile.DEFAULT)) {
+      PreparedSignature prepared = session.prepare(new InMemoryDocument(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)), SigningProfile.DEFAULT);
+      DSSDocument signed = prepared.complete(pool.sign(prepared.getDataToSign(), prepared.getSignatureAlgorithm()));
+      VerificationSession verification = new VerificationSession();
+      assertTrue(verification.checkDocument(signed).isResultOK());
+
+      List<CompletableFuture<DSSDocument>> futures = new ArrayList<>();
+      for (int i = 0; i < 6; i++) {
+        futures.add(session.signAsync(new InMemoryDocument(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)), executor));
+      }
+      for (CompletableFuture<DSSDocument> future : futures) {
+        assertTrue(verification.checkDocument(future.get()).isResultOK());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testExtendToTimestamp() throws Exception {
+    DSSDocument signed;
+    try (SigningSession session = new SigningSession(new ByteArrayInputStream(p12), Generator.DEFAULT_PASSWORD.toCharArray())) {
+      signed = session.signDocument(new InMemoryDocument(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)), SigningProfile.DEFAULT);
+    }
+    VerificationSession verification = new VerificationSession();
+    assertEquals("", verification.checkDocument(signed).getTimestamp());
+
+    LocalTimestampAuthority tsa = new LocalTimestampAuthority();
+    TimestampSource timestamps = new TimestampSource(tsa, 2);
+    SignatureExtender extender = new SignatureExtender(timestamps, null, null);
+    DSSDocument extended = extender.extend(signed, SignatureLevel.XAdES_BASELINE_T);
+    SignatureResult sr = verification.checkDocument(extended);
+    assertTrue(sr.isResultOK());
+    assertFalse(sr.getTimestamp().isEmpty());
+    assertFalse(verification.checkDocument(extended, ValidationMode.SIGNATURE_ONLY).getTimestamp().isEmpty());
+    assertEquals(1, tsa.getRequestCount());
+
+    // the same signature extended in parallel, identical digests may share a TSA call
+    List<DSSDocument> batch = IntStream.range(0, 4).parallel()
+        .mapToObj(i -> extender.extend(signed, SignatureLevel.XAdES_BASELINE_T))
+        .collect(Collectors.toList());
+    for (DSSDocument document : batch) {
+      assertTrue(verification.checkDocument(document).isResultOK());
+    }
+    assertEquals(5, timestamps.getRequests());
+    assertEquals(tsa.getRequestCount(), timestamps.getTsaCalls());
+
+    try {
+      extender.extend(signed, SignatureLevel.XAdES_BASELINE_B);
+      fail("B is not an extension level");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testTimestampCoalescing() throws Exception {
+    LocalTimestampAuthority authority = new LocalTimestampAuthority();
+    AtomicReference<TimestampSource> source = new AtomicReference<>();
+    AtomicBoolean down = new AtomicBoolean();
+    AtomicLong coalesced = new AtomicLong(3);
+    // answers once the other requests for the digest wait for this call
+    TSPSource held = new TSPSource() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public TimestampBinary getTimeStampResponse(DigestAlgorithm digestAlgorithm, byte[] digest) {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (source.get().getCoalesced() < coalesced.get() && System.currentTimeMillis() < deadline) {
+          Thread.yield();
+        }
+        if (down.get()) {
+          throw new AssertionError("TSA down");
+        }
+        return authority.getTimeStampResponse(digestAlgorithm, digest);
+      }
+    };
+    TimestampSource timestamps = new TimestampSource(held, 4);
+    source.set(timestamps);
+    byte[] digest = DSSUtils.digest(DigestAlgorithm.SHA256, Generator.xmlContent.getBytes(StandardCharsets.UTF_8));
+
+    CyclicBarrier start = new CyclicBarrier(4);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<TimestampBinary>> results = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        results.add(executor.submit(() -> {
+          start.await();
+          return timestamps.getTimeStampResponse(DigestAlgorithm.SHA256, digest);
+        }));
+      }
+      for (Future<TimestampBinary> result : results) {
+        assertNotNull(result.get().getBytes());
+      }
+      assertEquals(4, timestamps.getRequests());
+      assertEquals("Concurrent requests for one digest should share a TSA call", 1, timestamps.getTsaCalls());
+      assertEquals(3, timestamps.getCoalesced());
+      assertEquals(1, authority.getRequestCount());
+
+      // an error of the call reaches the coalesced request as an exception
+      down.set(true);
+      coalesced.set(4);
+      CyclicBarrier pair = new CyclicBarrier(2);
+      List<Future<TimestampBinary>> failed = new ArrayList<>();
+      for (int i = 0; i < 2; i++) {
+        failed.add(executor.submit(() -> {
+          pair.await();
+          return timestamps.getTimeStampResponse(DigestAlgorithm.SHA256, digest);
+        }));
+      }
+      Set<Class<?>> causes = new HashSet<>();
+      for (Future<TimestampBinary> result : failed) {
+        try {
+          result.get();
+          fail("The TSA failure should be reported");
+        } catch (ExecutionException e) {
+          causes.add(e.getCause().getClass());
+        }
+      }
+      assertEquals(new HashSet<>(Arrays.asList(AssertionError.class, DSSException.class)), causes);
+      assertEquals(2, timestamps.getTsaCalls());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testParallelAndCounterSignatures() throws Exception {
+    ByteArrayOutputStream ec = new ByteArrayOutputStream();
+    Generator.createP12KeyStore("EC", 256).store(ec, Generator.DEFAULT_PASSWORD.toCharArray());
+    char[] password = Generator.DEFAULT_PASSWORD.toCharArray();
+
+    String signed = Signer.sign(new ByteArrayInputStream(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)),
+        new ByteArrayInputStream(p12), password, SigningProfile.PARALLEL);
+    String twice = Signer.addSignature(new ByteArrayInputStream(signed.getBytes(StandardCharsets.UTF_8)),
+        new ByteArrayInputStream(ec.toByteArray()), password);
+
+    VerificationSession verification = new VerificationSession();
+    SignatureResult sr = verification.checkDocument(new InMemoryDocument(twice.getBytes(StandardCharsets.UTF_8)));
+    assertTrue(sr.getText(), sr.isResultOK());
+    assertEquals(2, sr.getSignatures().size());
+    String first = sr.getSignatures().get(0).getSignatureId();
+    assertFalse(first.equals(sr.getSignatures().get(1).getSignatureId()));
+    assertFalse(sr.getSignatures().get(0).getPem().equals(sr.getSignatures().get(1).getPem()));
+
+    String counterSigned = Signer.counterSign(new ByteArrayInputStream(twice.getBytes(StandardCharsets.UTF_8)), first,
+        new ByteArrayInputStream(ec.toByteArray()), password);
+    for (ValidationMode mode : ValidationMode.values()) {
+      sr = verification.checkDocument(new InMemoryDocument(counterSigned.getBytes(StandardCharsets.UTF_8)), mode);
+      assertTrue(mode + " " + sr.getText(), sr.isResultOK());
+      assertEquals(3, sr.getSignatures().size());
+      int counterSignatures = 0;
+      for (SignatureResult signature : sr.getSignatures()) {
+        assertTrue(signature.isResultOK());
+        if (first.equals(signature.getCounterSignatureOf())) {
+          counterSignatures++;
+        }
+      }
+      assertEquals(1, counterSignatures);
+    }
+
+    // a parallel signature does not cover the other ones, the signed data does
+    String tampered = counterSigned.replace("Hello World!", "Hell World!");
+    sr = verification.checkDocument(new InMemoryDocument(tampered.getBytes(StandardCharsets.UTF_8)), ValidationMode.SIGNATURE_ONLY);
+    assertFalse(sr.isResultOK());
+    assertEquals("HASH_FAILURE", sr.getText());
+  }
+
+  public void testManySignatures() throws Exception {
+    char[] password = Generator.DEFAULT_PASSWORD.toCharArray();
+    String signed = Signer.sign(new ByteArrayInputStream(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)),
+        new ByteArrayInputStream(p12), password, SigningProfile.PARALLEL);
+    for (int i = 1; i < 12; i++) {
+      signed = Signer.addSignature(new ByteArrayInputStream(signed.getBytes(StandardCharsets.UTF_8)),
+          new ByteArrayInputStream(p12), password);
+    }
+    DSSDocument document = new InMemoryDocument(signed.getBytes(StandardCharsets.UTF_8));
+
+    // enough signatures to be split between workers, in document order
+    VerificationSession verification = new VerificationSession();
+    SignatureResult full = verification.checkDocument(document, ValidationMode.FULL);
+    SignatureResult fast = verification.checkDocument(document, ValidationMode.SIGNATURE_ONLY);
+    assertTrue(fast.getText(), fast.isResultOK());
+    assertEquals(12, fast.getSignatures().size());
+    for (int i = 0; i < 12; i++) {
+      assertEquals(full.getSignatures().get(i).getSignatureId(), fast.getSignatures().get(i).getSignatureId());
+      assertTrue(fast.getSignatures().get(i).isResultOK());
+    }
+
+    String tampered = signed.replace("Hello World!", "Hell World!");
+    SignatureResult broken = verification.checkDocument(new InMemoryDocument(tampered.getBytes(StandardCharsets.UTF_8)),
+        ValidationMode.SIGNATURE_ONLY);
+    assertEquals(12, broken.getSignatures().size());
+    for (SignatureResult signature : broken.getSignatures()) {
+      assertEquals("HASH_FAILURE", signature.getText());
+    }
+  }
+
+  public void testSigningProfiles() throws Exception {
+    Path yaml = Files.createTempFile("profiles", ".yml");
+    try {
+      Files.write(yaml, ("pnkdss:\n"
+          + "  profiles:\n"
+          + "    strong:\n"
+          + "      digest: SHA512\n").getBytes(StandardCharsets.UTF_8));
+      SigningProfiles profiles = SigningProfiles.load(yaml);
+      assertEquals(DigestAlgorithm.SHA512, profiles.get("strong").getDigestAlgorithm());
+      assertEquals(SigningProfile.DEFAULT.getXPathLocation(), profiles.get("strong").getXPathLocation());
+      assertSame(SigningProfile.DEFAULT, profiles.get(SigningProfile.DEFAULT_NAME));
+
+      String output;
+      try (SigningSession session = new SigningSession(new ByteArrayInputStream(p12), Generator.DEFAULT_PASSWORD.toCharArray(),
+          profiles.get("strong"))) {
+        output = session.sign(new ByteArrayInputStream(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)));
+      }
+      assertTrue(output.contains("http://www.w3.org/2001/04/xmlenc#sha512"));
+      assertTrue(Validator.check(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8))).isResultOK());
+    } finally {
+      Files.delete(yaml);
+    }
+  }
+
+  public void testSignatureAlgorithms() throws Exception {
+    String[][] cases = {
+        {"EC", "256", null, "ECDSA_SHA256"},
+        {"EC", "384", null, "ECDSA_SHA256"},
+        {"RSASSA-PSS", "2048", "RSASSA_PSS", "RSA_SSA_PSS_SHA256_MGF1"},
+        {"Ed25519", "0", null, "ED25519"},
+    };
+    for (String[] c : cases) {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      Generator.createP12KeyStore(c[0], Integer.parseInt(c[1])).store(bos, Generator.DEFAULT_PASSWORD.toCharArray());
+      String output = Signer.sign(new ByteArrayInputStream(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)),
+          new ByteArrayInputStream(bos.toByteArray()), Generator.DEFAULT_PASSWORD.toCharArray(),
+          DigestAlgorithm.SHA256, c[2] == null ? null : EncryptionAlgorithm.valueOf(c[2]));
+      SignatureResult result = Validator.check(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)));
+      assertTrue(c[0] + " signature should verify", result.isResultOK());
+      assertEquals(c[3], result.getSignatureAlgorithm());
+    }
+
+    // plain RSA signatures are refused where RSA-PSS is required
+    String rsa = Signer.sign(new ByteArrayInputStream(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)),
+        new ByteArrayInputStream(p12), Generator.DEFAULT_PASSWORD.toCharArray());
+    assertEquals("RSA_SHA256", Validator.check(new ByteArrayInputStream(rsa.getBytes(StandardCharsets.UTF_8))).getSignatureAlgorithm());
+    SignatureResult refused = Validator.check(new ByteArrayInputStream(rsa.getBytes(StandardCharsets.UTF_8)), EncryptionAlgorithm.RSASSA_PSS);
+    assertFalse(refused.isResultOK());
+    assertEquals("ALGORITHM_NOT_ACCEPTED", refused.getText());
+
+    Properties properties = new Properties();
+    properties.setProperty("pnkdss.profiles.ec.signature", "ECDSA");
+    try {
+      Signer.sign(new ByteArrayInputStream(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)),
+          new ByteArrayInputStream(p12), Generator.DEFAULT_PASSWORD.toCharArray(), SigningProfiles.load(properties).get("ec"));
+      fail("An ECDSA profile should not sign with an RSA key");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("'ec'"));
+    }
+  }
+
+  public void testPooledXmlParsers() throws Exception {
+    DocumentBuilder builder = XmlParsers.documentBuilder();
+    assertSame("A thread should reuse its builder", builder, XmlParsers.documentBuilder());
+    assertTrue(builder.isNamespaceAware());
+    AtomicReference<Object> other = new AtomicReference<>();
+    Thread thread = new Thread(() -> {
+      try {
+        other.set(XmlParsers.documentBuilder());
+      } catch (Exception e) {
+        other.set(e);
+      }
+    });
+    thread.start();
+    thread.join();
+    assertNotNull(other.get());
+    assertNotSame("Threads should not share a builder", builder, other.get());
+
+    String entity = "<?xml version=\"1.0\"?><!DOCTYPE a [<!ENTITY x SYSTEM \"file:///etc/passwd\">]><a>&x;</a>";
+    try {
+      XmlParsers.documentBuilder().parse(new ByteArrayInputStream(entity.getBytes(StandardCharsets.UTF_8)));
+      fail("DOCTYPE should be rejected");
+    } catch (SAXException e) {
+      // expected
+    }
+    // a failed parse leaves the builder usable
+    assertEquals("Envelope", XmlParsers.documentBuilder()
+        .parse(new ByteArrayInputStream(Generator.xmlContent.getBytes(StandardCharsets.UTF_8))).getDocumentElement().getLocalName());
+
+    // signing and verification parse with the pooled builders
+    XmlParsers.install();
+    DocumentBuilderFactory factory = XmlDefinerUtils.getInstance().getSecureDocumentBuilderFactory();
+    assertSame("DSS should get the pooled factory", factory, XmlDefinerUtils.getInstance().getSecureDocumentBuilderFactory());
+    assertSame(builder, factory.newDocumentBuilder());
+    assertTrue(factory.isNamespaceAware());
+    assertFalse(factory.isXIncludeAware());
+    assertTrue(factory.getFeature("http://apache.org/xml/features/disallow-doctype-decl"));
+    factory.setNamespaceAware(true);
+    try {
+      factory.setIgnoringComments(!factory.isIgnoringComments());
+      fail("The pooled configuration should not change");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", false);
+      fail("The pooled configuration should not change");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    String output = Signer.sign(new ByteArrayInputStream(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)),
+        new ByteArrayInputStream(p12), Generator.DEFAULT_PASSWORD.toCharArray());
+    for (int i = 0; i < 3; i++) {
+      assertTrue(Validator.check(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8))).isResultOK());
+    }
+    assertNotNull(XmlParsers.xPath().compile("//*[local-name()='data']"));
+  }
+
+  public void testCanonicalizationCache() throws Exception {
+    CanonicalizationCache cache = new CanonicalizationCache(10, 1024 * 1024);
+    SigningProfile profile = SigningProfile.DEFAULT.withCanonicalizationCache(cache);
+    String plain = Signer.sign(new ByteArrayInputStream(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)),
+        new ByteArrayInputStream(p12), Generator.DEFAULT_PASSWORD.toCharArray());
+    String first = Signer.sign(new ByteArrayInputStream(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)),
+        new ByteArrayInputStream(p12), Generator.DEFAULT_PASSWORD.toCharArray(), profile);
+    assertTrue(Validator.check(new ByteArrayInputStream(first.getBytes(StandardCharsets.UTF_8))).isResultOK());
+    assertEquals("The cached canonical form should give the same digest", referenceDigest(plain), referenceDigest(first));
+    assertEquals(1, cache.size());
+    long misses = cache.getMisses();
+
+    // only the header changed, the signed data is taken from the cache
+    String header = Generator.xmlContent.replace("<soapenv:Header />", "<soapenv:Header><urn:id>2</urn:id></soapenv:Header>");
+    String second = Signer.sign(new ByteArrayInputStream(header.getBytes(StandardCharsets.UTF_8)),
+        new ByteArrayInputStream(p12), Generator.DEFAULT_PASSWORD.toCharArray(), profile);
+    assertTrue(Validator.check(new ByteArrayInputStream(second.getBytes(StandardCharsets.UTF_8))).isResultOK());
+    assertEquals(misses, cache.getMisses());
+    assertTrue(cache.getHits() >= 2);
+    assertEquals(referenceDigest(first), referenceDigest(second));
+
+    String body = Generator.xmlContent.replace("Hello World!", "Hello again!");
+    String third = Signer.sign(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)),
+        new ByteArrayInputStream(p12), Generator.DEFAULT_PASSWORD.toCharArray(), profile);
+    assertTrue(Validator.check(new ByteArrayInputStream(third.getBytes(StandardCharsets.UTF_8))).isResultOK());
+    assertTrue("Changed signed data should not hit the cache", cache.getMisses() > misses);
+    assertFalse(referenceDigest(first).equals(referenceDigest(third)));
+    assertEquals(2, cache.size());
+    assertTrue(cache.getHitRate() > 0);
+    long entryBytes = cache.getBytes() / 2;
+
+    // one cache shared by profiles excluding different signatures from the same element
+    String signed = Signer.sign(new ByteArrayInputStream(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)),
+        new ByteArrayInputStream(p12), Generator.DEFAULT_PASSWORD.toCharArray(), SigningProfile.PARALLEL);
+    VerificationSession verification = new VerificationSession();
+    for (SigningProfile shared : new SigningProfile[] {SigningProfile.DEFAULT, SigningProfile.PARALLEL}) {
+      String again = Signer.sign(new ByteArrayInputStream(signed.getBytes(StandardCharsets.UTF_8)),
+          new ByteArrayInputStream(p12), Generator.DEFAULT_PASSWORD.toCharArray(), shared.withCanonicalizationCache(cache));
+      SignatureResult sr = verification.checkDocument(new InMemoryDocument(again.getBytes(StandardCharsets.UTF_8)),
+          ValidationMode.SIGNATURE_ONLY);
+      assertTrue(shared.getName() + " " + sr.getText(), sr.isResultOK());
+    }
+
+    // the byte limit evicts the least recently used entry
+    CanonicalizationCache small = new CanonicalizationCache(10, entryBytes + 1);
+    SigningProfile limited = SigningProfile.DEFAULT.withCanonicalizationCache(small);
+    for (String document : new String[] {Generator.xmlContent, body}) {
+      Signer.sign(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)),
+          new ByteArrayInputStream(p12), Generator.DEFAULT_PASSWORD.toCharArray(), limited);
+    }
+    assertEquals(1, small.size());
+    assertEquals(1, small.getEvictions());
+  }
+
+  private static String referenceDigest(String signed) {
+    Matcher m = Pattern.compile("DigestValue>([^<]+)<").matcher(signed);
+    assertTrue(m.find());
+    return m.group(1);
+  }
+
+  public void testInvalidSigningProfile() {
+    Properties properties = new Properties();
+    properties.setProperty("pnkdss.profiles.broken.xpath", "//*[");
+    try {
+      SigningProfiles.load(properties);
+      fail("Invalid XPath should be rejected when the profile is loaded");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("broken"));
+    }
+  }
 }
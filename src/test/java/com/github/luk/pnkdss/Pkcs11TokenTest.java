@@ -0,0 +1,153 @@
+package com.github.luk.pnkdss;
+
+import com.github.luk.pnkdss.utils.Generator;
+import com.github.luk.pnkdss.utils.SignatureResult;
+import com.github.luk.pnkdss.utils.VerificationSession;
+import eu.europa.esig.dss.model.FileDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Signs with {@code TokenProvider.pkcs11} on a fresh SoftHSM token. Skipped
+ * when SoftHSM is not installed; {@code SOFTHSM2_LIB} points to the library
+ * if it is not in a standard location.
+ * <p>
+ * SoftHSM reads its configuration from the environment when it is loaded,
+ * so the token is filled and used in new JVMs.
+ */
+class Pkcs11TokenTest {
+
+    private static final String PIN = "1234";
+
+    private static final String[] LIBRARIES = {
+            "/usr/lib/softhsm/libsofthsm2.so",
+            "/usr/lib/x86_64-linux-gnu/softhsm/libsofthsm2.so",
+            "/usr/lib64/pkcs11/libsofthsm2.so",
+            "/usr/local/lib/softhsm/libsofthsm2.so",
+            "/opt/homebrew/lib/softhsm/libsofthsm2.so"};
+
+    @TempDir
+    Path tempDir;
+
+    private String library;
+    private Path config;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        library = findLibrary();
+        assumeTrue(library != null, "SoftHSM is not installed");
+
+        Path tokens = Files.createDirectory(tempDir.resolve("tokens"));
+        config = tempDir.resolve("softhsm2.conf");
+        Files.write(config, ("directories.tokendir = " + tokens + "\nobjectstore.backend = file\n").getBytes(StandardCharsets.UTF_8));
+        int initialized;
+        try {
+            initialized = run(Arrays.asList("softhsm2-util", "--init-token", "--free", "--label", "pnkdss",
+                    "--pin", PIN, "--so-pin", "123456"));
+        } catch (IOException e) {
+            initialized = -1;
+        }
+        assumeTrue(initialized == 0, "softhsm2-util can not initialize a token");
+    }
+
+    @Test
+    void testSignWithToken() throws Exception {
+        Path document = tempDir.resolve("document.xml");
+        Path signed = tempDir.resolve("signed.xml");
+        Path pin = tempDir.resolve("pin.txt");
+        Files.write(document, Generator.xmlContent.getBytes(StandardCharsets.UTF_8));
+        Files.write(pin, PIN.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(0, java(ImportKey.class, library), "The key should be stored on the token, see " + log(ImportKey.class));
+        assertEquals(0, java(PnkdssCli.class, "sign", "-d", document.toString(), "-s", signed.toString(),
+                "-p", pin.toString(), "--pkcs11-library", library, "--pkcs11-slot", "0"),
+                "Signing with the token should succeed, see " + log(PnkdssCli.class));
+
+        SignatureResult result = new VerificationSession().checkDocument(new FileDocument(signed.toFile()));
+        assertTrue(result.isResultOK(), result.getText());
+        assertTrue(result.getSubject().contains("Example Signer"), result.getSubject());
+    }
+
+    private int java(Class<?> mainClass, String... args) throws Exception {
+        List<String> command = new ArrayList<>(Arrays.asList(
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-cp", System.getProperty("java.class.path"), mainClass.getName()));
+        command.addAll(Arrays.asList(args));
+        return run(command, log(mainClass));
+    }
+
+    private int run(List<String> command) throws Exception {
+        return run(command, tempDir.resolve("softhsm2-util.log").toFile());
+    }
+
+    private int run(List<String> command, File log) throws Exception {
+        ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log);
+        builder.environment().put("SOFTHSM2_CONF", config.toString());
+        return builder.start().waitFor();
+    }
+
+    private File log(Class<?> mainClass) {
+        return tempDir.resolve(mainClass.getSimpleName() + ".log").toFile();
+    }
+
+    private static String findLibrary() {
+        String configured = System.getenv("SOFTHSM2_LIB");
+        if (configured != null) {
+            return configured;
+        }
+        for (String library : LIBRARIES) {
+            if (Files.exists(Paths.get(library))) {
+                return library;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores a generated key and its certificate on the first slot.
+     */
+    public static class ImportKey {
+
+        public static void main(String[] args) throws Exception {
+            Path config = Files.createTempFile("pkcs11", ".cfg");
+            try {
+                Files.write(config, ("name = pnkdss\nlibrary = " + args[0] + "\nslotListIndex = 0\n").getBytes(StandardCharsets.UTF_8));
+                KeyStore token = KeyStore.getInstance("PKCS11", provider(config));
+                token.load(null, PIN.toCharArray());
+
+                char[] password = Generator.DEFAULT_PASSWORD.toCharArray();
+                KeyStore p12 = Generator.createP12KeyStore();
+                token.setKeyEntry("1", p12.getKey("1", password), PIN.toCharArray(), p12.getCertificateChain("1"));
+            } finally {
+                Files.delete(config);
+            }
+        }
+
+        private static Provider provider(Path config) throws Exception {
+            Provider prototype = Security.getProvider("SunPKCS11");
+            if (prototype != null) {
+                // Java 9 and later
+                return (Provider) Provider.class.getMethod("configure", String.class).invoke(prototype, config.toString());
+            }
+            return (Provider) Class.forName("sun.security.pkcs11.SunPKCS11").getConstructor(String.class)
+                    .newInstance(config.toString());
+        }
+    }
+}
@@ -13,15 +13,19 @@ import picocli.CommandLine.IFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.KeyStore;
+import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.List;
+import javax.xml.parsers.DocumentBuilderFactory;
 
 import org.bouncycastle.openssl.PEMParser;
 import org.bouncycastle.cert.X509CertificateHolder;
@@ -209,6 +213,204 @@ class PnkdssApplicationIntegrationTest {
     }
 
 
+    /**
+     * Tests batch signing of a directory with one keystore load, including
+     * per-file failure reporting.
+     */
+    @Test
+    void testBatchSigning() throws Exception {
+        GenerateCommand genCommand = (GenerateCommand) picocliFactory.create(GenerateCommand.class);
+        genCommand.setDocumentPath(generatedDocumentPath);
+        genCommand.setP12Path(generatedKeystorePath);
+        genCommand.setPassPath(generatedPasswordPath);
+        genCommand.call();
+        outContent.reset();
+
+        Path inputDir = Files.createDirectories(tempDir.resolve("batch-in"));
+        Path outputDir = tempDir.resolve("batch-out");
+        for (int i = 0; i < 3; i++) {
+            Files.copy(generatedDocumentPath, inputDir.resolve("doc-" + i + ".xml"));
+        }
+        Files.write(inputDir.resolve("broken.xml"), "not xml".getBytes(StandardCharsets.UTF_8));
+        Files.write(inputDir.resolve("ignored.txt"), "not selected".getBytes(StandardCharsets.UTF_8));
+
+        SignCommand signCommand = (SignCommand) picocliFactory.create(SignCommand.class);
+        signCommand.setInputDir(inputDir);
+        signCommand.setOutputDir(outputDir);
+        signCommand.setP12Path(generatedKeystorePath);
+        signCommand.setPassPath(generatedPasswordPath);
+        int signExitCode = signCommand.call();
+
+        assertEquals(1, signExitCode, "Batch 'sign' should exit with code 1 when a document fails.");
+        for (int i = 0; i < 3; i++) {
+            assertTrue(Files.exists(outputDir.resolve("doc-" + i + ".xml")), "Signed batch document should exist.");
+        }
+        assertFalse(Files.exists(outputDir.resolve("broken.xml")), "Failed document should not be written.");
+        assertFalse(Files.exists(outputDir.resolve("ignored.txt")), "Documents not matching the glob should be skipped.");
+        assertTrue(outContent.toString().contains("FAILED " + inputDir.resolve("broken.xml")), "Failure should be reported per file.");
+        assertTrue(outContent.toString().contains("Processed 4 documents (3 OK, 1 failed)"), "Summary should be reported.");
+        outContent.reset();
+
+        VerifyCommand verifyCommand = (VerifyCommand) picocliFactory.create(VerifyCommand.class);
+        verifyCommand.setDocumentPath(outputDir.resolve("doc-1.xml"));
+        verifyCommand.setCertOutputPath(extractedCertificatePath);
+        verifyCommand.call();
+        assertTrue(outContent.toString().contains("Signature is mathematically valid."),
+                   "Batch signed document should verify.");
+        outContent.reset();
+    }
+
+    /**
+     * Tests batch signing with several workers, a small queue and unordered output.
+     */
+    @Test
+    void testParallelBatchSigning() throws Exception {
+        GenerateCommand genCommand = (GenerateCommand) picocliFactory.create(GenerateCommand.class);
+        genCommand.setDocumentPath(generatedDocumentPath);
+        genCommand.setP12Path(generatedKeystorePath);
+        genCommand.setPassPath(generatedPasswordPath);
+        genCommand.call();
+        outContent.reset();
+
+        Path inputDir = Files.createDirectories(tempDir.resolve("parallel-in").resolve("nested"));
+        Path outputDir = tempDir.resolve("parallel-out");
+        for (int i = 0; i < 20; i++) {
+            Files.copy(generatedDocumentPath, inputDir.resolve("doc-" + i + ".xml"));
+        }
+
+        SignCommand signCommand = (SignCommand) picocliFactory.create(SignCommand.class);
+        signCommand.setInputDir(inputDir.getParent());
+        signCommand.setGlob("**/*.xml");
+        signCommand.setOutputDir(outputDir);
+        signCommand.setP12Path(generatedKeystorePath);
+        signCommand.setPassPath(generatedPasswordPath);
+        signCommand.setThreads(4);
+        signCommand.setQueueSize(1);
+        signCommand.setUnordered(true);
+        assertEquals(0, signCommand.call(), "Parallel batch 'sign' should exit with code 0.");
+
+        for (int i = 0; i < 20; i++) {
+            Path signed = outputDir.resolve("nested").resolve("doc-" + i + ".xml");
+            assertTrue(Files.exists(signed), "Signed batch document should keep its relative path.");
+            assertTrue(Files.size(signed) > Files.size(generatedDocumentPath), "Signed document should be larger than original.");
+        }
+        assertTrue(outContent.toString().contains("Processed 20 documents (20 OK, 0 failed)"), "Summary should be reported.");
+        outContent.reset();
+    }
+
+    /**
+     * Tests generation of a corpus of synthetic documents and CA-issued EC
+     * keystores, and signs it with one of them.
+     */
+    @Test
+    void testBulkGeneration() throws Exception {
+        Path corpusDir = tempDir.resolve("corpus");
+        GenerateCommand genCommand = (GenerateCommand) picocliFactory.create(GenerateCommand.class);
+        genCommand.setDocumentPath(corpusDir.resolve("documents").resolve("doc.xml"));
+        genCommand.setP12Path(corpusDir.resolve("keys").resolve("signer.p12"));
+        genCommand.setPassPath(generatedPasswordPath);
+        genCommand.setDocuments(25);
+        genCommand.setKeystores(3);
+        genCommand.setKeyAlgorithm("EC");
+        genCommand.setCa(true);
+        genCommand.setElements("1-20");
+        genCommand.setDepth("1-5");
+        genCommand.setPayloadBytes("lognormal:2000:1");
+        genCommand.setThreads(4);
+        assertEquals(0, genCommand.call(), "Bulk 'gen' should exit with code 0.");
+        assertTrue(outContent.toString().contains("Generated: 25 documents"), "Document summary should be reported.");
+        assertTrue(outContent.toString().contains("Generated: 3 EC-256 keystores"), "Keystore summary should be reported.");
+        outContent.reset();
+
+        for (int i = 0; i < 25; i++) {
+            Path document = corpusDir.resolve("documents").resolve(String.format("doc-%02d.xml", i));
+            assertTrue(Files.exists(document), "Numbered document should exist.");
+            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+            dbf.setNamespaceAware(true);
+            assertNotNull(dbf.newDocumentBuilder().parse(document.toFile()), "Document should be well-formed.");
+        }
+        assertTrue(Files.exists(corpusDir.resolve("keys").resolve("signer-ca.pem")), "CA certificate should be saved.");
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream is = Files.newInputStream(corpusDir.resolve("keys").resolve("signer-2.p12"))) {
+            keyStore.load(is, Generator.DEFAULT_PASSWORD.toCharArray());
+        }
+        Certificate[] chain = keyStore.getCertificateChain("1");
+        assertEquals(2, chain.length, "Keystore should hold the certificate and its CA.");
+        chain[0].verify(chain[1].getPublicKey());
+        assertEquals("EC", chain[0].getPublicKey().getAlgorithm());
+
+        byte[] first = Files.readAllBytes(corpusDir.resolve("documents").resolve("doc-07.xml"));
+        genCommand.setDocumentPath(tempDir.resolve("again").resolve("doc.xml"));
+        genCommand.setKeystores(1);
+        genCommand.setP12Path(tempDir.resolve("again").resolve("signer.p12"));
+        genCommand.call();
+        assertArrayEquals(first, Files.readAllBytes(tempDir.resolve("again").resolve("doc-07.xml")),
+                "The same seed should give the same documents.");
+        outContent.reset();
+
+        SignCommand signCommand = (SignCommand) picocliFactory.create(SignCommand.class);
+        signCommand.setInputDir(corpusDir.resolve("documents"));
+        signCommand.setOutputDir(tempDir.resolve("corpus-signed"));
+        signCommand.setP12Path(corpusDir.resolve("keys").resolve("signer-2.p12"));
+        signCommand.setPassPath(generatedPasswordPath);
+        assertEquals(0, signCommand.call(), "Synthetic documents should be signable.");
+        outContent.reset();
+
+        VerifyCommand verifyCommand = (VerifyCommand) picocliFactory.create(VerifyCommand.class);
+        verifyCommand.setDocumentPath(tempDir.resolve("corpus-signed").resolve("doc-07.xml"));
+        verifyCommand.setCertOutputPath(extractedCertificatePath);
+        verifyCommand.call();
+        assertTrue(outContent.toString().contains("Signature is mathematically valid."),
+                   "Signed synthetic document should verify.");
+        outContent.reset();
+    }
+
+    /**
+     * Tests batch verification with a JSON report covering valid, tampered and
+     * unreadable documents.
+     */
+    @Test
+    void testBatchVerification() throws Exception {
+        GenerateCommand genCommand = (GenerateCommand) picocliFactory.create(GenerateCommand.class);
+        genCommand.setDocumentPath(generatedDocumentPath);
+        genCommand.setP12Path(generatedKeystorePath);
+        genCommand.setPassPath(generatedPasswordPath);
+        genCommand.call();
+
+        SignCommand signCommand = (SignCommand) picocliFactory.create(SignCommand.class);
+        signCommand.setInputDocumentPath(generatedDocumentPath);
+        signCommand.setOutputDocumentPath(signedDocumentPath);
+        signCommand.setP12Path(generatedKeystorePath);
+        signCommand.setPassPath(generatedPasswordPath);
+        signCommand.call();
+        outContent.reset();
+
+        Path inputDir = Files.createDirectories(tempDir.resolve("verify-in"));
+        for (int i = 0; i < 5; i++) {
+            Files.copy(signedDocumentPath, inputDir.resolve("signed-" + i + ".xml"));
+        }
+        String signedContent = new String(Files.readAllBytes(signedDocumentPath), StandardCharsets.UTF_8);
+        Files.write(inputDir.resolve("tampered.xml"), signedContent.replace("Hello World!", "Hell World!").getBytes(StandardCharsets.UTF_8));
+        Files.write(inputDir.resolve("broken.xml"), "not xml".getBytes(StandardCharsets.UTF_8));
+        Path reportPath = tempDir.resolve("report.jsonl");
+
+        VerifyCommand verifyCommand = (VerifyCommand) picocliFactory.create(VerifyCommand.class);
+        verifyCommand.setInputDir(inputDir);
+        verifyCommand.setReportPath(reportPath);
+        verifyCommand.setThreads(3);
+        int verifyExitCode = verifyCommand.call();
+
+        assertEquals(1, verifyExitCode, "Batch 'verify' should exit with code 1 when a document is not valid.");
+        List<String> reportLines = Files.readAllLines(reportPath, StandardCharsets.UTF_8);
+        assertEquals(8, reportLines.size(), "Report should contain one line per document and a summary.");
+        String summary = reportLines.get(reportLines.size() - 1);
+        assertTrue(summary.startsWith("{\"summary\":{\"documents\":7,\"valid\":5,\"invalid\":1,\"errors\":1,"),
+                   "Summary should count valid, invalid and failed documents: " + summary);
+        assertTrue(outContent.toString().contains(summary), "Summary should be printed.");
+        outContent.reset();
+    }
+
     /**
      * Tests the scenario where an attempt is made to sign a non-existent document.
      * @throws Exception 
@@ -224,7 +426,7 @@ class PnkdssApplicationIntegrationTest {
         signCommand.setPassPath(generatedPasswordPath); 
 
         // Expect an IOException because the input file does not exist
-        assertThrows(java.io.IOException.class, () -> signCommand.call(),
+        assertThrows(IOException.class, () -> signCommand.call(),
                 "Command 'sign' should throw IOException for a non-existent input document.");
         outContent.reset();
     }
@@ -242,7 +444,7 @@ class PnkdssApplicationIntegrationTest {
         verifyCommand.setCertOutputPath(extractedCertificatePath);
 
         // Expect an IOException because the input file does not exist
-        assertThrows(java.io.IOException.class, () -> verifyCommand.call(),
+        assertThrows(IOException.class, () -> verifyCommand.call(),
                 "Command 'verify' should throw IOException for a non-existent input document.");
         outContent.reset();
     }
@@ -0,0 +1,75 @@
+package com.github.luk.pnkdss;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the Spring-free launcher. Its cold start is compared with the
+ * Spring Boot entry point by scripts/startup-benchmark.sh; the tests only
+ * check that it stays free of Spring.
+ */
+class PnkdssCliTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path documentPath;
+    private Path keystorePath;
+    private Path passwordPath;
+    private Path signedPath;
+    private Path certificatePath;
+
+    @BeforeEach
+    void setUp() {
+        documentPath = tempDir.resolve("document.xml");
+        keystorePath = tempDir.resolve("keystore.p12");
+        passwordPath = tempDir.resolve("password.txt");
+        signedPath = tempDir.resolve("signed.xml");
+        certificatePath = tempDir.resolve("certificate.pem");
+    }
+
+    @Test
+    void testCommandsWithoutSpring() {
+        assertEquals(0, PnkdssCli.run("gen", "-d", documentPath.toString(), "-k", keystorePath.toString(), "-p", passwordPath.toString()));
+        assertEquals(0, PnkdssCli.run("sign", "-d", documentPath.toString(), "-s", signedPath.toString(),
+                "-k", keystorePath.toString(), "-p", passwordPath.toString()));
+        assertEquals(0, PnkdssCli.run("verify", "-s", signedPath.toString(), "-c", certificatePath.toString()));
+        assertTrue(Files.exists(certificatePath), "Signing certificate should be extracted.");
+
+        assertEquals(2, PnkdssCli.run("gen"), "Missing options should be a usage error.");
+    }
+
+    @Test
+    void testLauncherLoadsNoSpringClasses() throws Exception {
+        assertEquals(0, PnkdssCli.run("gen", "-d", documentPath.toString(), "-k", keystorePath.toString(), "-p", passwordPath.toString()));
+        String[][] runs = {
+                {"sign", "-d", documentPath.toString(), "-s", signedPath.toString(), "-k", keystorePath.toString(), "-p", passwordPath.toString()},
+                {"verify", "-s", signedPath.toString(), "-c", certificatePath.toString()}};
+        for (String[] args : runs) {
+            List<String> command = new ArrayList<>(Arrays.asList(
+                    System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                    "-verbose:class", "-cp", System.getProperty("java.class.path"), PnkdssCli.class.getName()));
+            command.addAll(Arrays.asList(args));
+            Path log = tempDir.resolve(args[0] + ".log");
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+            assertEquals(0, process.waitFor(), args[0] + " should succeed, see " + log);
+
+            List<String> spring = Files.readAllLines(log, StandardCharsets.UTF_8).stream()
+                    .filter(line -> line.contains(" org.springframework."))
+                    .collect(Collectors.toList());
+            assertTrue(spring.isEmpty(), args[0] + " should not load Spring: " + spring);
+        }
+    }
+}
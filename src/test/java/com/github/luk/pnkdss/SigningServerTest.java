@@ -0,0 +1,218 @@
+package com.github.luk.pnkdss;
+
+import com.github.luk.pnkdss.utils.Generator;
+import com.github.luk.pnkdss.utils.KeyRegistry;
+import com.github.luk.pnkdss.utils.SigningProfile;
+import com.github.luk.pnkdss.utils.SigningProfiles;
+import com.github.luk.pnkdss.utils.SigningServer;
+import com.github.luk.pnkdss.utils.SigningSession;
+import com.github.luk.pnkdss.utils.VerificationSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.KeyStore;
+
+import eu.europa.esig.dss.model.InMemoryDocument;
+import eu.europa.esig.dss.spi.DSSUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the local signing service over HTTP.
+ */
+class SigningServerTest {
+
+    private SigningSession signingSession;
+    private SigningServer server;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        KeyStore p12KeyStore = Generator.createP12KeyStore();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        p12KeyStore.store(bos, Generator.DEFAULT_PASSWORD.toCharArray());
+        signingSession = new SigningSession(new ByteArrayInputStream(bos.toByteArray()), Generator.DEFAULT_PASSWORD.toCharArray());
+        server = new SigningServer(signingSession, SigningProfiles.defaults(), new VerificationSession(), new InetSocketAddress("127.0.0.1", 0), 2, 8);
+        server.warmUp(1);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.close();
+        signingSession.close();
+    }
+
+    @Test
+    void testSignAndVerifyOverHttp() throws Exception {
+        byte[] signed = post("/sign", Generator.xmlContent.getBytes(StandardCharsets.UTF_8), 200);
+        String signedXml = new String(signed, StandardCharsets.UTF_8);
+        assertTrue(signedXml.contains("Hello World!"), "Signed document should keep the content.");
+        assertTrue(signedXml.contains("SignatureValue"), "Signed document should contain the signature.");
+
+        // with its length instead of chunked, so a client detects a response cut off midway
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + "/sign").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write(Generator.xmlContent.getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(200, connection.getResponseCode());
+        try (InputStream is = connection.getInputStream()) {
+            assertEquals(readAll(is).length, connection.getContentLengthLong(), "Signed document should be sent with its length.");
+        }
+        assertNull(connection.getHeaderField("Transfer-Encoding"));
+
+        String result = new String(post("/verify", signed, 200), StandardCharsets.UTF_8);
+        assertTrue(result.startsWith("{\"valid\":true"), "Signed document should verify: " + result);
+
+        byte[] tampered = signedXml.replace("Hello World!", "Hell World!").getBytes(StandardCharsets.UTF_8);
+        result = new String(post("/verify", tampered, 200), StandardCharsets.UTF_8);
+        assertTrue(result.startsWith("{\"valid\":false"), "Tampered document should not verify: " + result);
+    }
+
+    @Test
+    void testMetricsEndpoint() throws Exception {
+        post("/sign", Generator.xmlContent.getBytes(StandardCharsets.UTF_8), 200);
+
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + "/metrics").openConnection();
+        assertEquals(200, connection.getResponseCode());
+        String metrics;
+        try (InputStream is = connection.getInputStream()) {
+            metrics = new String(readAll(is), StandardCharsets.UTF_8);
+        }
+        assertTrue(metrics.contains("pnkdss_phase_seconds_count"), "Phase timers should be exposed.");
+        assertTrue(metrics.contains("phase=\"private_key_sign\""), "Private key signing should be timed.");
+        assertTrue(metrics.contains("phase=\"validate_document\""), "Validation should be timed.");
+    }
+
+    @Test
+    void testInvalidDocumentIsRejected() throws Exception {
+        String error = new String(post("/sign", "not xml".getBytes(StandardCharsets.UTF_8), 400), StandardCharsets.UTF_8);
+        assertFalse(error.isEmpty(), "Error response should describe the failure.");
+
+        error = new String(post("/sign?profile=missing", Generator.xmlContent.getBytes(StandardCharsets.UTF_8), 400), StandardCharsets.UTF_8);
+        assertTrue(error.contains("Unknown signing profile 'missing'"), "Unknown profile should be rejected: " + error);
+    }
+
+    @Test
+    void testRequestsBeyondTheLimitAreShed() throws Exception {
+        try (SigningServer busy = new SigningServer(signingSession, SigningProfiles.defaults(), new VerificationSession(),
+                new InetSocketAddress("127.0.0.1", 0), 1, 1)) {
+            busy.start();
+            // holds the only thread while it waits for the rest of the body
+            try (Socket slow = new Socket("127.0.0.1", busy.getPort())) {
+                OutputStream os = slow.getOutputStream();
+                os.write(("POST /sign HTTP/1.1\r\nHost: 127.0.0.1\r\nContent-Length: 100000\r\n\r\n<a>")
+                        .getBytes(StandardCharsets.US_ASCII));
+                os.flush();
+
+                long deadline = System.currentTimeMillis() + 5000;
+                int status;
+                do {
+                    HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + busy.getPort() + "/verify").openConnection();
+                    connection.setRequestMethod("POST");
+                    connection.setDoOutput(true);
+                    try (OutputStream body = connection.getOutputStream()) {
+                        body.write(Generator.xmlContent.getBytes(StandardCharsets.UTF_8));
+                    }
+                    status = connection.getResponseCode();
+                    connection.disconnect();
+                } while (status != 503 && System.currentTimeMillis() < deadline);
+                assertEquals(503, status, "A request beyond the in-flight limit should be rejected, not queued.");
+            }
+            post(busy, "/sign", Generator.xmlContent.getBytes(StandardCharsets.UTF_8), 200);
+        }
+    }
+
+    @Test
+    void testTenantKeySelection(@TempDir Path dir) throws Exception {
+        char[] password = Generator.DEFAULT_PASSWORD.toCharArray();
+        KeyStore acme = Generator.createP12KeyStore();
+        KeyStore second = Generator.createP12KeyStore("EC", 256);
+        acme.setKeyEntry("2", second.getKey("1", password), password, second.getCertificateChain("1"));
+        Path acmePath = store(dir.resolve("acme.p12"), acme);
+        store(dir.resolve("globex.p12"), Generator.createP12KeyStore());
+
+        try (KeyRegistry keys = new KeyRegistry(SigningProfile.DEFAULT)) {
+            keys.add(acmePath, password, null);
+            keys.add(dir.resolve("globex.p12"), password, null);
+            assertEquals(3, keys.getEntries().size());
+
+            KeyRegistry.Entry acme2 = keys.select("acme", "2", null);
+            assertSame(acme2, keys.select(null, null, acme2.getFingerprint()));
+            assertThrows(IllegalArgumentException.class, () -> keys.select(null, "1", null), "Alias 1 exists in both keystores.");
+
+            try (SigningServer tenantServer = new SigningServer(keys, SigningProfiles.defaults(), new VerificationSession(),
+                    new InetSocketAddress("127.0.0.1", 0), 2, 8)) {
+                tenantServer.start();
+                byte[] signed = post(tenantServer, "/sign?tenant=acme&alias=2", Generator.xmlContent.getBytes(StandardCharsets.UTF_8), 200);
+                String result = new String(post(tenantServer, "/verify", signed, 200), StandardCharsets.UTF_8);
+                String pem = DSSUtils.convertToPEM(acme2.getSession().getSigningCertificate());
+                assertTrue(result.contains(pem.substring(30, 90)), "Document should be signed with the selected key: " + result);
+
+                post(tenantServer, "/sign?tenant=initech", Generator.xmlContent.getBytes(StandardCharsets.UTF_8), 400);
+            }
+
+            KeyRegistry.Entry leased = keys.acquire("acme", "2", null);
+            store(acmePath, Generator.createP12KeyStore());
+            Files.setLastModifiedTime(acmePath, FileTime.fromMillis(System.currentTimeMillis() + 2000));
+            assertTrue(keys.refresh(), "Changed keystore should be reloaded.");
+            assertEquals(2, keys.getEntries().size());
+            assertThrows(IllegalArgumentException.class, () -> keys.select(null, null, acme2.getFingerprint()));
+
+            assertFalse(keys.refresh(), "Nothing changed since the last refresh.");
+            assertTrue(leased.getSession().isHealthy(), "A replaced key should stay open while it is acquired.");
+            leased.getSession().signDocument(new InMemoryDocument(Generator.xmlContent.getBytes(StandardCharsets.UTF_8)));
+            leased.release();
+            assertFalse(leased.getSession().isHealthy(), "A replaced key should be closed by its last release.");
+        }
+    }
+
+    private static Path store(Path file, KeyStore keyStore) throws Exception {
+        try (OutputStream os = Files.newOutputStream(file)) {
+            keyStore.store(os, Generator.DEFAULT_PASSWORD.toCharArray());
+        }
+        return file;
+    }
+
+    private byte[] post(String path, byte[] body, int expectedStatus) throws Exception {
+        return post(server, path, body, expectedStatus);
+    }
+
+    private static byte[] post(SigningServer server, String path, byte[] body, int expectedStatus) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write(body);
+        }
+        assertEquals(expectedStatus, connection.getResponseCode(), "Unexpected HTTP status for " + path);
+        try (InputStream is = expectedStatus < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            return readAll(is);
+        }
+    }
+
+    private static byte[] readAll(InputStream is) throws Exception {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            response.write(buffer, 0, read);
+        }
+        return response.toByteArray();
+    }
+}